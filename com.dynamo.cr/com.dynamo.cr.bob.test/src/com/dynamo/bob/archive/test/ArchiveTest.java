@@ -27,7 +27,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -38,6 +46,7 @@ import org.junit.Test;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.archive.ArchiveEntry;
 import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ArchiveCache;
 import com.dynamo.bob.archive.ArchiveReader;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.pipeline.ResourceNode;
@@ -145,6 +154,32 @@ public class ArchiveTest {
         ar.close();
     }
 
+    @Test
+    public void testFindEntry() throws IOException, CompileExceptionError {
+        ArchiveBuilder ab = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder, 4);
+        for (int i = 0; i < 20; ++i) {
+            ab.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "dummy" + i, ("content" + i).getBytes())), i % 2 == 0, false);
+        }
+
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        for (ArchiveEntry entry : ar.getEntries()) {
+            assertTrue(entry == ar.findEntry(entry.hash));
+            assertEquals(entry.size, ar.getEntryContent(entry).length);
+            assertEquals(entry.size, ar.getDecodedEntryContent(entry).length);
+        }
+        assertEquals(null, ar.findEntry(new byte[ArchiveBuilder.HASH_LENGTH]));
+        ar.close();
+    }
+
     @Test
     public void testEntriesOrder() throws IOException, CompileExceptionError {
 
@@ -185,6 +220,154 @@ public class ArchiveTest {
         ar.close();
     }
 
+    private byte[][] writeArchive(Executor executor) throws IOException, CompileExceptionError {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder, 16, executor);
+        for (int i = 0; i < 100; ++i) {
+            String filename = "dummy" + Integer.toString(i);
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < i * 10; ++j) {
+                content.append(i % 2 == 0 ? "compressible" : Integer.toString(j * 7919 + i));
+            }
+            // a few entries have the same content
+            if (i % 10 == 0) {
+                content.setLength(0);
+                content.append("duplicate");
+            }
+            instance.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, filename, content.toString().getBytes())), true, i % 3 == 0);
+        }
+
+        RandomAccessFile archiveIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile archiveData = new RandomAccessFile(outputData, "rw");
+        archiveIndex.setLength(0);
+        archiveData.setLength(0);
+        instance.write(archiveIndex, archiveData, resourcePackDir, new ArrayList<String>());
+        archiveIndex.close();
+        archiveData.close();
+        return new byte[][] { FileUtils.readFileToByteArray(outputIndex), FileUtils.readFileToByteArray(outputData) };
+    }
+
+    private byte[][] writeArchive(List<String> files, ArchiveCache archiveCache) throws IOException, CompileExceptionError {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder, 4);
+        instance.setArchiveCache(archiveCache);
+        for (int i = 0; i < files.size(); ++i) {
+            instance.add(files.get(i), true, i % 3 == 0);
+        }
+
+        RandomAccessFile archiveIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile archiveData = new RandomAccessFile(outputData, "rw");
+        archiveIndex.setLength(0);
+        archiveData.setLength(0);
+        instance.write(archiveIndex, archiveData, resourcePackDir, new ArrayList<String>());
+        archiveIndex.close();
+        archiveData.close();
+        return new byte[][] { FileUtils.readFileToByteArray(outputIndex), FileUtils.readFileToByteArray(outputData) };
+    }
+
+    @Test
+    public void testArchiveCacheReusesUnchangedData() throws IOException, CompileExceptionError {
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < 20; ++i) {
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < 100; ++j) {
+                content.append("content" + i);
+            }
+            files.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "dummy" + i, content.toString().getBytes())));
+        }
+
+        File cacheFile = new File(contentRoot, "archive_cache");
+        File previousIndex = new File(contentRoot, "previous.arci");
+        File previousData = new File(contentRoot, "previous.arcd");
+
+        ArchiveCache archiveCache = ArchiveCache.open(cacheFile, previousIndex, previousData);
+        writeArchive(files, archiveCache);
+        archiveCache.close();
+        assertEquals(0, archiveCache.getReusedEntryCount());
+        FileUtils.copyFile(outputIndex, previousIndex);
+        FileUtils.copyFile(outputData, previousData);
+
+        createDummyFile(contentRoot, "dummy5", "changed".getBytes());
+
+        archiveCache = ArchiveCache.open(cacheFile, previousIndex, previousData);
+        byte[][] incremental = writeArchive(files, archiveCache);
+        archiveCache.close();
+        // encrypted entries, every third, are always processed again
+        int encryptedCount = (files.size() + 2) / 3;
+        assertEquals(files.size() - encryptedCount - 1, archiveCache.getReusedEntryCount());
+
+        // the archive is the same as when all resources are processed
+        byte[][] expected = writeArchive(files, null);
+        assertArrayEquals(expected[0], incremental[0]);
+        assertArrayEquals(expected[1], incremental[1]);
+    }
+
+    @Test
+    public void testParallelWriteDeterministic() throws IOException, CompileExceptionError {
+        byte[][] expected = writeArchive(null);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 4; ++i) {
+                byte[][] actual = writeArchive(executor);
+                assertArrayEquals(expected[0], actual[0]);
+                assertArrayEquals(expected[1], actual[1]);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIdenticalDataStoredOnce() throws IOException, CompileExceptionError {
+        StringBuilder shared = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            shared.append(Integer.toString(i * 7919));
+        }
+        byte[] sharedContent = shared.toString().getBytes();
+        byte[] otherContent = "other".getBytes();
+
+        ArchiveBuilder ab = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder, 4);
+        ab.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "a.texturec", sharedContent)));
+        ab.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "b.texturec", sharedContent)));
+        ab.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "c.texturec", otherContent)));
+
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        // the shared data is written once, plus at most 3 bytes of padding
+        assertTrue(outputData.length() <= sharedContent.length + otherContent.length + 3);
+
+        // every path still has an index entry, the identical ones refer to the same data
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        List<ArchiveEntry> entries = ar.getEntries();
+        assertEquals(3, entries.size());
+        int sharedEntries = 0;
+        int sharedOffset = -1;
+        for (ArchiveEntry entry : entries) {
+            byte[] content = ar.getDecodedEntryContent(entry);
+            if (content.length == sharedContent.length) {
+                assertArrayEquals(sharedContent, content);
+                if (sharedOffset >= 0) {
+                    assertEquals(sharedOffset, entry.resourceOffset);
+                }
+                sharedOffset = entry.resourceOffset;
+                ++sharedEntries;
+            } else {
+                assertArrayEquals(otherContent, content);
+            }
+        }
+        assertEquals(2, sharedEntries);
+        ar.close();
+    }
+
     @Test
     public void testArchiveIndexAlignment() throws IOException, CompileExceptionError {
     	ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder, 4);
@@ -416,6 +599,135 @@ public class ArchiveTest {
         assertTrue(instance.excludeResource("/level2.goc", excludedResources));
     }
 
+    private void addReference(Map<String, List<String>> references, String from, String to) {
+        List<String> list = references.get(from);
+        if (list == null) {
+            list = new ArrayList<String>();
+            references.put(from, list);
+        }
+        list.add(to);
+    }
+
+    // Collection proxies loading levels that share game objects and textures
+    // with each other and with the main collection. Some levels are loaded from
+    // within other levels, some from several places.
+    private Map<String, List<String>> createLargeProject(int levelCount) {
+        Random random = new Random(1234);
+        Map<String, List<String>> references = new HashMap<String, List<String>>();
+        for (int i = 0; i < 64; ++i) {
+            addReference(references, "/shared" + i + ".goc", "/shared" + i + ".scriptc");
+            addReference(references, "/shared" + i + ".goc", "/texture" + random.nextInt(levelCount) + ".texturec");
+        }
+        addReference(references, "/<Anonymous Root>", "/main.collectionc");
+        for (int i = 0; i < 16; ++i) {
+            addReference(references, "/main.collectionc", "/shared" + random.nextInt(64) + ".goc");
+        }
+
+        boolean[] hasLevels = new boolean[levelCount];
+        for (int level = 0; level < levelCount; ++level) {
+            String collection = "/level" + level + ".collectionc";
+            String parent = "/main.collectionc";
+            if (level > 0 && random.nextInt(4) == 0) {
+                int parentLevel = random.nextInt(level);
+                parent = "/level" + parentLevel + ".collectionc";
+                hasLevels[parentLevel] = true;
+            }
+            addReference(references, parent, "/level" + level + ".collectionproxyc");
+            addReference(references, "/level" + level + ".collectionproxyc", collection);
+            for (int i = 0; i < 8; ++i) {
+                if (random.nextInt(2) == 0) {
+                    addReference(references, collection, "/shared" + random.nextInt(64) + ".goc");
+                } else {
+                    String go = "/level" + level + "_" + i + ".goc";
+                    addReference(references, collection, go);
+                    addReference(references, go, "/level" + level + "_" + i + ".scriptc");
+                    addReference(references, go, "/texture" + random.nextInt(levelCount) + ".texturec");
+                }
+            }
+        }
+        // Also load levels without levels of their own from random places
+        for (int level = 0; level < levelCount; ++level) {
+            int other = random.nextInt(levelCount);
+            if (level != other && !hasLevels[other] && random.nextInt(2) == 0) {
+                addReference(references, "/level" + level + ".collectionc", "/level" + other + ".collectionproxyc");
+            }
+        }
+        return references;
+    }
+
+    // Same as GameProjectBuilder, a resource occurs once for each collection proxy
+    private void createResourceTree(Map<String, List<String>> references, String path, ResourceNode parent, Set<String> visited) {
+        if (visited.contains(path)) {
+            return;
+        }
+        if (path.endsWith(".collectionproxyc")) {
+            visited = new HashSet<String>();
+        }
+        visited.add(path);
+        ResourceNode node = new ResourceNode(path, path);
+        parent.addChild(node);
+        List<String> children = references.get(path);
+        if (children != null) {
+            for (String child : children) {
+                createResourceTree(references, child, node, visited);
+            }
+        }
+    }
+
+    private int countNodes(ResourceNode node) {
+        int count = 1;
+        for (ResourceNode child : node.getChildren()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    @Test
+    public void testExcludeResource_LargeProject() throws Exception {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_MD5);
+
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder, 4);
+        Map<String, List<String>> references = createLargeProject(3000);
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        for (String child : references.get("/<Anonymous Root>")) {
+            createResourceTree(references, child, root, new HashSet<String>());
+        }
+        assertTrue(countNodes(root) > 100000);
+
+        manifestBuilder.setRoot(root);
+
+        List<String> excludedResources = new ArrayList<String>();
+        for (int level = 0; level < 3000; level += 3) {
+            excludedResources.add("/level" + level + ".collectionproxyc");
+        }
+
+        // Compare with walking every occurrence of the resource up to the root
+        Set<String> paths = new HashSet<String>(references.keySet());
+        for (List<String> children : references.values()) {
+            paths.addAll(children);
+        }
+        int excludedCount = 0;
+        for (String path : paths) {
+            boolean expected = false;
+            for (List<String> parents : manifestBuilder.getParentCollections(path)) {
+                expected = instance.isTreeExcluded(parents, excludedResources);
+                if (!expected) {
+                    break;
+                }
+            }
+            assertEquals(path, expected, instance.excludeResource(path, excludedResources));
+            if (expected) {
+                ++excludedCount;
+            }
+        }
+        assertTrue(excludedCount > 1000);
+        assertTrue(excludedCount < paths.size() - 1000);
+
+        assertFalse(instance.excludeResource("/level0.collectionproxyc", excludedResources));
+        assertFalse(instance.excludeResource("/missing.goc", excludedResources));
+    }
+
     @SuppressWarnings("unused")
     @Test
     public void testWriteArchive_ResourceInBundledAndExcludedProxies() throws Exception {
@@ -467,6 +467,49 @@ public class ManifestTest {
         }
     }
 
+    @Test
+    public void testAddResourceEntryWithHash() throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
+        ManifestInstance instance = new ManifestInstance();
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        manifestBuilder.setSignatureHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        manifestBuilder.setSignatureSignAlgorithm(SignAlgorithm.SIGN_RSA);
+        manifestBuilder.setProjectIdentifier(instance.projectIdentifier);
+        manifestBuilder.setRoot(instance.dependencies);
+        manifestBuilder.setExcludedResources(instance.getExcludedResources());
+        for (String supportedEngineVersion : instance.supportedEngineVersions) {
+            manifestBuilder.addSupportedEngineVersion(supportedEngineVersion);
+        }
+        for (String[] entry : instance.resources) {
+            byte[] hash = ManifestBuilder.CryptographicOperations.hash(entry[1].getBytes(), HashAlgorithm.HASH_SHA1);
+            manifestBuilder.addResourceEntry(entry[0], ManifestBuilder.CryptographicOperations.createHashDigest(hash), ResourceEntryFlag.BUNDLED.getNumber());
+        }
+
+        assertEquals(instance.manifestData, manifestBuilder.buildManifestData());
+    }
+
+    @Test
+    public void testGetDependants() throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
+        ManifestInstance instance = new ManifestInstance();
+        ResourceNode level1_collectionc = instance.dependencies.getChildren().get(0).getChildren().get(0).getChildren().get(1).getChildren().get(0);
+        // Reference the game object twice more, it should still only be listed once
+        level1_collectionc.addChild(new ResourceNode("/main/level1.goc", "test/main/level1.goc"));
+        level1_collectionc.getChildren().get(0).addChild(new ResourceNode("/main/level1.goc", "test/main/level1.goc"));
+        instance.manifestBuilder.setRoot(instance.dependencies);
+
+        List<String> dependants = instance.manifestBuilder.getDependants("/main/level1.collectionproxyc");
+
+        assertEquals(6, dependants.size());
+        assertEquals("/main/level1.collectionc",        dependants.get(0));
+        assertEquals("/main/dynamic.goc",               dependants.get(1));
+        assertEquals("/main/level1.goc",                dependants.get(2));
+        assertEquals("/main/level1.scriptc",            dependants.get(3));
+        assertEquals("/main/level2.collectionproxyc",   dependants.get(4));
+        assertEquals("/main/shared_go.goc",             dependants.get(5));
+
+        assertEquals(0, instance.manifestBuilder.getDependants("/main/missing.goc").size());
+    }
+
     @Test
     public void testGetParentCollectionProxy() throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
         ManifestInstance instance = new ManifestInstance();
@@ -0,0 +1,80 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.dynamo.bob.archive.ResourceCompression;
+
+public class ResourceCompressionTest {
+
+    private byte[] createData() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append("resource data ").append(i % 17);
+        }
+        return sb.toString().getBytes();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        byte[] data = createData();
+        for (String name : new String[] { "lz4", "lz4hc", "lz4hc:1", "lz4hc:17" }) {
+            ResourceCompression codec = ResourceCompression.get(name);
+            assertEquals(name, codec.getName());
+            byte[] compressed = codec.compress(data);
+            assertTrue(compressed.length < data.length);
+            assertArrayEquals(data, codec.decompress(compressed, data.length));
+        }
+    }
+
+    @Test
+    public void testCodecsShareFormat() {
+        // the engine only has one decompressor, so all codecs must decompress with any other
+        byte[] data = createData();
+        byte[] compressed = ResourceCompression.get("lz4").compress(data);
+        assertArrayEquals(data, ResourceCompression.get("lz4hc:12").decompress(compressed, data.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedCodec() {
+        ResourceCompression.get("zip");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        ResourceCompression.get("lz4hc:18");
+    }
+
+    @Test
+    public void testParseTypes() {
+        Map<String, ResourceCompression> types = ResourceCompression.parseTypes("texturec=lz4, .luac = lz4hc:12,");
+        assertEquals(2, types.size());
+        assertEquals("lz4", types.get("texturec").getName());
+        assertEquals("lz4hc:12", types.get("luac").getName());
+        assertTrue(ResourceCompression.parseTypes("").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseTypesMalformed() {
+        ResourceCompression.parseTypes("texturec");
+    }
+}
@@ -0,0 +1,184 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.cache.BuildDatabase;
+
+
+public class BuildDatabaseTest {
+
+	private File dir;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory(null).toFile();
+		file = new File(dir, "state");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes();
+	}
+
+	// values should be possible to put, get and remove
+	@Test
+	public void testPutGetRemove() {
+		BuildDatabase db = new BuildDatabase();
+		assertNull(db.get("/a"));
+		db.put("/a", bytes("1"));
+		db.put("/b", bytes("2"));
+		assertArrayEquals(bytes("1"), db.get("/a"));
+		db.remove("/a");
+		assertNull(db.get("/a"));
+		assertEquals(Collections.singletonList("/b"), db.getPaths());
+		assertFalse(db.isFileBacked());
+	}
+
+	// a committed database should be possible to open again, both from the
+	// compacted snapshot and from the appended journal
+	@Test
+	public void testCommitAndReopen() throws IOException {
+		BuildDatabase db = BuildDatabase.open(file);
+		assertTrue(db.isFileBacked());
+		for (int i = 0; i < 100; ++i) {
+			db.put("/file" + i, bytes("value" + i));
+		}
+		db.commit();
+		db.close();
+
+		db = BuildDatabase.open(file);
+		long snapshotSize = file.length();
+		db.put("/file0", bytes("changed"));
+		db.remove("/file1");
+		db.put("/new", bytes("new"));
+		db.commit();
+		db.close();
+		assertTrue(file.length() > snapshotSize);
+
+		db = BuildDatabase.open(file);
+		assertArrayEquals(bytes("changed"), db.get("/file0"));
+		assertNull(db.get("/file1"));
+		assertArrayEquals(bytes("new"), db.get("/new"));
+		assertArrayEquals(bytes("value99"), db.get("/file99"));
+		assertEquals(100, db.getPaths().size());
+		db.close();
+	}
+
+	// a partially written journal batch should be ignored and overwritten
+	@Test
+	public void testTruncatedJournal() throws IOException {
+		BuildDatabase db = BuildDatabase.open(file);
+		db.put("/a", bytes("1"));
+		db.commit();
+		db.put("/a", bytes("2"));
+		db.commit();
+		db.close();
+
+		try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+			f.setLength(f.length() - 1);
+		}
+
+		db = BuildDatabase.open(file);
+		assertArrayEquals(bytes("1"), db.get("/a"));
+		db.put("/b", bytes("3"));
+		db.commit();
+		// the file was rewritten without the partial batch
+		assertEquals(db.toByteArray().length, file.length());
+		db.close();
+
+		db = BuildDatabase.open(file);
+		assertArrayEquals(bytes("1"), db.get("/a"));
+		assertArrayEquals(bytes("3"), db.get("/b"));
+		db.close();
+	}
+
+	// files in an unknown format, such as the old serialized state, should be discarded
+	@Test
+	public void testUnknownFormat() throws IOException {
+		FileUtils.writeByteArrayToFile(file, bytes("this is not a build database"));
+		BuildDatabase db = BuildDatabase.open(file);
+		assertTrue(db.getPaths().isEmpty());
+		db.put("/a", bytes("1"));
+		db.commit();
+		db.close();
+
+		db = BuildDatabase.open(file);
+		assertArrayEquals(bytes("1"), db.get("/a"));
+		db.close();
+	}
+
+	// many commits should be compacted and keep the latest values
+	@Test
+	public void testCompaction() throws IOException {
+		BuildDatabase db = BuildDatabase.open(file);
+		for (int i = 0; i < 200; ++i) {
+			db.put("/file" + (i % 10), bytes("value" + i));
+			db.commit();
+		}
+		db.close();
+
+		db = BuildDatabase.open(file);
+		for (int i = 0; i < 10; ++i) {
+			assertArrayEquals(bytes("value" + (190 + i)), db.get("/file" + i));
+		}
+		db.close();
+	}
+
+	// the in memory image should contain the same entries
+	@Test
+	public void testByteArray() {
+		BuildDatabase db = new BuildDatabase();
+		db.put("/a", bytes("1"));
+		db.put("/b", new byte[0]);
+		BuildDatabase copy = BuildDatabase.fromByteArray(db.toByteArray());
+		assertArrayEquals(bytes("1"), copy.get("/a"));
+		assertArrayEquals(new byte[0], copy.get("/b"));
+		List<String> paths = copy.getPaths();
+		Collections.sort(paths);
+		assertEquals(2, paths.size());
+	}
+
+	// a closed database can't be used
+	@Test(expected = IllegalStateException.class)
+	public void testClosed() throws IOException {
+		BuildDatabase db = BuildDatabase.open(file);
+		db.close();
+		db.put("/a", bytes("1"));
+	}
+
+}
@@ -22,10 +22,18 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import org.junit.After;
 import org.junit.Before;
@@ -40,6 +48,10 @@ import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.bob.test.util.MockFileSystem;
 import com.dynamo.bob.test.util.MockResource;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 
 public class ResourceCacheTest {
 
@@ -57,6 +69,46 @@ public class ResourceCacheTest {
 
 	@After
 	public void tearDown() throws IOException {
+		if (server != null) {
+			server.stop(0);
+		}
+		FileUtils.deleteDirectory(cacheDir.toFile());
+	}
+
+	// stand-in for the remote cache, storing resources in memory
+	private HttpServer server;
+	private Map<String, byte[]> remoteResources = new ConcurrentHashMap<String, byte[]>();
+	private AtomicInteger remoteRequests = new AtomicInteger();
+
+	private String startRemote() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				remoteRequests.incrementAndGet();
+				String key = exchange.getRequestURI().getPath().substring(1);
+				String method = exchange.getRequestMethod();
+				if (method.equals("PUT")) {
+					remoteResources.put(key, IOUtils.toByteArray(exchange.getRequestBody()));
+					exchange.sendResponseHeaders(201, -1);
+				} else {
+					byte[] data = remoteResources.get(key);
+					if (data == null) {
+						exchange.sendResponseHeaders(404, -1);
+					} else if (method.equals("HEAD")) {
+						exchange.sendResponseHeaders(200, -1);
+					} else {
+						exchange.sendResponseHeaders(200, data.length);
+						OutputStream os = exchange.getResponseBody();
+						os.write(data);
+						os.close();
+					}
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+		return "http://localhost:" + server.getAddress().getPort();
 	}
 
 	// nothing should happen if the resource cache is disabled
@@ -81,4 +133,89 @@ public class ResourceCacheTest {
 		assertArrayEquals(data, resourceCache.get(key));
 	}
 
+	// resources should be stored in sub directories and be found by a new cache instance
+	@Test
+	public void testLocalLayout() throws CompileExceptionError, IOException {
+		resourceCache.init(cacheDir.toString(), null);
+		final String key = "abcdef0123";
+		resourceCache.put(key, "somedata".getBytes());
+		assertTrue(new File(new File(cacheDir.toFile(), "ab"), key).exists());
+
+		ResourceCache otherCache = new ResourceCache();
+		otherCache.init(cacheDir.toString(), null);
+		assertTrue(otherCache.contains(key));
+		assertArrayEquals("somedata".getBytes(), otherCache.get(key));
+		assertEquals(8, otherCache.getLocalCacheSize());
+	}
+
+	// resources stored directly in the cache directory by older versions should be kept
+	@Test
+	public void testFlatLayoutMigrated() throws CompileExceptionError, IOException {
+		final String key = "0123abcdef";
+		Files.write(new File(cacheDir.toFile(), key).toPath(), "somedata".getBytes());
+		resourceCache.init(cacheDir.toString(), null);
+		assertArrayEquals("somedata".getBytes(), resourceCache.get(key));
+		assertFalse(new File(cacheDir.toFile(), key).exists());
+	}
+
+	// the least recently used resources should be removed when the cache grows too large
+	@Test
+	public void testEviction() throws CompileExceptionError, IOException, InterruptedException {
+		resourceCache.init(cacheDir.toString(), null, 1000);
+		byte[] data = new byte[100];
+		for (int i = 0; i < 10; ++i) {
+			resourceCache.put("key" + i, data);
+			Thread.sleep(2);
+		}
+		assertEquals(1000, resourceCache.getLocalCacheSize());
+		// touch the first resource so that it isn't the least recently used one
+		assertArrayEquals(data, resourceCache.get("key0"));
+
+		resourceCache.put("key10", data);
+		assertTrue(resourceCache.getLocalCacheSize() <= 900);
+		assertTrue(resourceCache.contains("key0"));
+		assertTrue(resourceCache.contains("key10"));
+		assertFalse(resourceCache.contains("key1"));
+	}
+
+	// resources found by containsAll() should not be the next ones evicted
+	@Test
+	public void testContainsAllMarksUsed() throws CompileExceptionError, IOException, InterruptedException {
+		resourceCache.init(cacheDir.toString(), null, 1000);
+		byte[] data = new byte[100];
+		for (int i = 0; i < 10; ++i) {
+			resourceCache.put("key" + i, data);
+			Thread.sleep(2);
+		}
+		assertTrue(resourceCache.containsAll(Arrays.asList("key0", "key1")));
+		Thread.sleep(2);
+
+		resourceCache.put("key10", data);
+		assertArrayEquals(data, resourceCache.get("key0"));
+		assertArrayEquals(data, resourceCache.get("key1"));
+		assertFalse(resourceCache.contains("key2"));
+	}
+
+	// resources should be uploaded to and downloaded from the remote cache
+	@Test
+	public void testRemote() throws CompileExceptionError, IOException {
+		String remote = startRemote();
+		resourceCache.init(cacheDir.toString(), remote);
+		resourceCache.put("key1", "data1".getBytes());
+		// uploads happen in the background
+		resourceCache.waitForUploads();
+		assertArrayEquals("data1".getBytes(), remoteResources.get("key1"));
+
+		remoteResources.put("key2", "data2".getBytes());
+		remoteResources.put("key3", "data3".getBytes());
+		assertFalse(resourceCache.containsAll(Arrays.asList("key1", "key2", "key4")));
+		assertTrue(resourceCache.containsAll(Arrays.asList("key1", "key2", "key3")));
+
+		// downloaded resources are read from the local cache
+		int requests = remoteRequests.get();
+		assertArrayEquals("data2".getBytes(), resourceCache.get("key2"));
+		assertArrayEquals("data3".getBytes(), resourceCache.get("key3"));
+		assertEquals(requests, remoteRequests.get());
+	}
+
 }
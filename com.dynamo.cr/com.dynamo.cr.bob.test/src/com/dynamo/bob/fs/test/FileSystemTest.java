@@ -14,13 +14,19 @@
 
 package com.dynamo.bob.fs.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -30,6 +36,8 @@ import org.junit.Test;
 import com.dynamo.bob.fs.DefaultFileSystem;
 import com.dynamo.bob.fs.FileSystemWalker;
 import com.dynamo.bob.fs.IFileSystem.IWalker;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.fs.ResourceOutputFile;
 import com.dynamo.bob.test.TestLibrariesRule;
 
 public class FileSystemTest {
@@ -62,6 +70,43 @@ public class FileSystemTest {
         assertTrue(results.contains("test_lib4.zip"));
     }
 
+    @Test
+    public void testOutputFile() throws Exception {
+        File root = Files.createTempDirectory("defold.outputfile_").toFile();
+        DefaultFileSystem fs = new DefaultFileSystem();
+        try {
+            fs.setRootDirectory(root.getAbsolutePath());
+            fs.setBuildDirectory("build");
+            IResource resource = fs.get("/test.arcd").output();
+            resource.setContent("old".getBytes());
+
+            // Closed without being committed, the old content is kept
+            ResourceOutputFile output = resource.createOutputFile();
+            output.getRandomAccessFile().write("discarded".getBytes());
+            output.close();
+            assertArrayEquals("old".getBytes(), resource.getContent());
+            assertFalse(output.getFile().exists());
+
+            output = resource.createOutputFile();
+            try {
+                RandomAccessFile file = output.getRandomAccessFile();
+                file.write("xxw content".getBytes());
+                file.seek(0);
+                file.write("new".getBytes());
+                // Not visible until committed
+                assertArrayEquals("old".getBytes(), resource.getContent());
+                output.commit();
+            } finally {
+                output.close();
+            }
+            assertArrayEquals("new content".getBytes(), resource.getContent());
+            assertEquals(1, new File(resource.getAbsPath()).getParentFile().list().length);
+        } finally {
+            fs.close();
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
     private static class ZipWalker extends FileSystemWalker {
         @Override
         public void handleFile(String path, Collection<String> results) {
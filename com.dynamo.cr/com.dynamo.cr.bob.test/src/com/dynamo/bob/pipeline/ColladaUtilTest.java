@@ -24,6 +24,7 @@ import java.io.InputStream;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -37,6 +38,9 @@ import javax.vecmath.Tuple4i;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector4f;
 
+import org.jagatoo.loaders.models.collada.stax.XMLFloatArray;
+import org.jagatoo.loaders.models.collada.stax.XMLIntArray;
+import org.jagatoo.loaders.models.collada.stax.XMLNumberParser;
 import org.junit.Test;
 
 import com.dynamo.bob.util.MathUtil;
@@ -1055,6 +1059,45 @@ public class ColladaUtilTest {
         assertEquals(3, indices.get(5));
     }
 
+    /*
+     * Tests that numbers in element text are parsed like Float.parseFloat and Integer.parseInt
+     */
+    @Test
+    public void testNumberArrays() throws Exception {
+        String[] floatValues = { "0", "-0", "1", "-1.5", "+.25", "3.", "1e-3", "-2.5E+10", "0.1", "16777217",
+                                 "3.4028235e38", "1.4e-45", "1e50", "0.00000000000000000000000000001", "1.00000005960464477539062500",
+                                 "123456789012345678901234567890", "NaN", "-Infinity", "0x1p3", "1f" };
+        String floatText = "\n\t" + String.join(" \r\n ", floatValues) + "  ";
+        float[] floats = XMLFloatArray.toArray(floatText);
+        assertEquals(floatValues.length, floats.length);
+        for (int i = 0; i < floatValues.length; ++i) {
+            assertEquals(floatValues[i], Float.floatToRawIntBits(Float.parseFloat(floatValues[i])), Float.floatToRawIntBits(floats[i]));
+        }
+
+        // Invalid values are read as zero
+        floats = XMLFloatArray.toArray("1 -1.#IND00 2");
+        assertEquals(3, floats.length);
+        assertEquals(0.0f, floats[1], 0.0f);
+
+        // Numbers split over several chunks of text
+        XMLNumberParser.Floats floatParser = new XMLNumberParser.Floats(2);
+        char[] chars = floatText.toCharArray();
+        for (int i = 0; i < chars.length; i += 3) {
+            floatParser.append(chars, i, Math.min(3, chars.length - i));
+        }
+        assertTrue(Arrays.equals(XMLFloatArray.toArray(floatText), floatParser.toArray()));
+
+        int[] ints = XMLIntArray.toArray(" 0 -1 +2 2147483647 -2147483648 0000000000042");
+        assertTrue(Arrays.equals(new int[] { 0, -1, 2, Integer.MAX_VALUE, Integer.MIN_VALUE, 42 }, ints));
+        for (String invalid : new String[] { "2147483648", "-", "1.0", "12a" }) {
+            try {
+                XMLIntArray.toArray("1 " + invalid);
+                fail("Expected NumberFormatException for " + invalid);
+            } catch (NumberFormatException e) {
+            }
+        }
+    }
+
     /*
      * Tests that an invalid collada file is handled
      */
@@ -0,0 +1,117 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.dynamo.bob.Project;
+import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
+import com.dynamo.gameobject.proto.GameObject.CollectionInstanceDesc;
+import com.dynamo.gameobject.proto.GameObject.ComponentDesc;
+import com.dynamo.gameobject.proto.GameObject.InstanceDesc;
+import com.dynamo.gameobject.proto.GameObject.PrototypeDesc;
+import com.google.protobuf.Message;
+
+public class GameProjectBuilderTest extends AbstractProtoBuilderTest {
+
+    private void addOutput(String path, Message message) {
+        GetProject().getResource(path).output().setContent(message.toByteArray());
+    }
+
+    // Game objects with components, shared between the collections
+    private void createProject() {
+        Project project = GetProject();
+        project.getProjectProperties().putStringValue("bootstrap", "main_collection", "/main.collectionc");
+        project.getProjectProperties().putStringValue("bootstrap", "render", "");
+        project.getProjectProperties().putStringValue("input", "game_binding", "");
+        project.getProjectProperties().putStringValue("input", "gamepads", "");
+        project.getProjectProperties().putStringValue("display", "display_profiles", "");
+
+        for (int i = 0; i < 12; ++i) {
+            PrototypeDesc.Builder prototype = PrototypeDesc.newBuilder();
+            for (int j = 0; j < 3; ++j) {
+                prototype.addComponents(ComponentDesc.newBuilder()
+                        .setId("component" + j)
+                        .setComponent(String.format("/component%d.dat", (i + j) % 7)));
+            }
+            prototype.addPropertyResources(String.format("/property%d.dat", i % 2));
+            addOutput(String.format("/go%d.goc", i), prototype.build());
+        }
+
+        CollectionDesc.Builder main = CollectionDesc.newBuilder().setName("main");
+        for (int i = 0; i < 4; ++i) {
+            CollectionDesc.Builder sub = CollectionDesc.newBuilder().setName("sub" + i);
+            for (int j = 0; j < 5; ++j) {
+                sub.addInstances(InstanceDesc.newBuilder()
+                        .setId("go" + j)
+                        .setPrototype(String.format("/go%d.goc", (i * 3 + j) % 12)));
+            }
+            addOutput(String.format("/sub%d.collectionc", i), sub.build());
+            main.addCollectionInstances(CollectionInstanceDesc.newBuilder()
+                    .setId("sub" + i)
+                    .setCollection(String.format("/sub%d.collectionc", i)));
+            main.addInstances(InstanceDesc.newBuilder()
+                    .setId("go" + i)
+                    .setPrototype(String.format("/go%d.goc", i)));
+        }
+        addOutput("/main.collectionc", main.build());
+    }
+
+    private static void appendTree(ResourceNode node, String indent, StringBuilder tree) {
+        tree.append(indent).append(node.relativeFilepath).append("\n");
+        for (ResourceNode child : node.getChildren()) {
+            appendTree(child, indent + "  ", tree);
+        }
+    }
+
+    private static String getTree(ResourceNode node) {
+        StringBuilder tree = new StringBuilder();
+        appendTree(node, "", tree);
+        return tree.toString();
+    }
+
+    // loading the resources in parallel should give the same resources and graph as loading them serially
+    @Test
+    public void testFindResourcesParallel() throws Exception {
+        createProject();
+        Project project = GetProject();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 4; ++i) {
+                ResourceNode parallelRoot = new ResourceNode("<AnonymousRoot>", "<AnonymousRoot>");
+                HashSet<String> parallelResources = GameProjectBuilder.findResources(project, parallelRoot, executor);
+
+                ResourceNode serialRoot = new ResourceNode("<AnonymousRoot>", "<AnonymousRoot>");
+                HashSet<String> serialResources = GameProjectBuilder.findResources(project, serialRoot, null);
+
+                // main, 4 sub collections, 12 game objects, 7 components and 2 property resources
+                assertEquals(26, serialResources.size());
+                assertEquals(serialResources, parallelResources);
+                assertEquals(getTree(serialRoot), getTree(parallelRoot));
+                assertTrue(getTree(serialRoot).contains("/component6.dat"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
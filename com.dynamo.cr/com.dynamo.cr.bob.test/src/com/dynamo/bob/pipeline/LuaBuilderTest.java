@@ -235,6 +235,39 @@ public class LuaBuilderTest extends AbstractProtoBuilderTest {
         assertTrue(luaSource.getDelta().size() > 0);
     }
 
+    @Test
+    public void testLuaJITSyntaxError() throws Exception {
+        Project p = GetProject();
+        p.setOption("platform", "armv7-android");
+        p.setOption("architectures", "arm64-android");
+
+        try {
+            build("/test.script", "function foo()\n    local x = = 1\nend\n");
+            assertTrue(false);
+        } catch (CompileExceptionError e) {
+            assertEquals(2, e.getLineNumber());
+            assertTrue(e.getMessage().contains("unexpected symbol near '='"));
+        }
+
+        // The worker keeps compiling after an error
+        LuaModule luaModule = (LuaModule)build("/test.script", "function foo() print('foo') end").get(0);
+        assertTrue(luaModule.getSource().getBytecode().size() > 0);
+    }
+
+    @Test
+    public void testLuaJITWorkerRestart() throws Exception {
+        Project p = GetProject();
+        p.setOption("platform", "armv7-android");
+        p.setOption("architectures", "arm64-android");
+
+        String src = "function foo() print('foo') end";
+        LuaModule before = (LuaModule)build("/test.script", src).get(0);
+        // A worker that is gone is replaced by a new one
+        LuaJITWorkerPool.shutdownAll();
+        LuaModule after = (LuaModule)build("/test.script", src).get(0);
+        assertEquals(before.getSource().getBytecode(), after.getSource().getBytecode());
+    }
+
     @Test
     public void testLuaBytecodeDeltaCalculation() throws Exception {
         LuaBuilder builder = new LuaBuilder() {};
@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 
 import javax.vecmath.Point4i;
 import javax.vecmath.Quat4d;
@@ -477,6 +478,151 @@ public class ModelUtilTest {
         assertTrue(maxZ <=  1.0f);
     }
 
+    // A grid of quads, with the position of each vertex being (x, y, 0)
+    private static ModelImporter.Mesh createGridMesh(int width, int height) {
+        ModelImporter.Mesh mesh = new ModelImporter.Mesh();
+        mesh.name = "grid";
+        mesh.material = "material";
+        mesh.vertexCount = (width + 1) * (height + 1);
+        mesh.positions = new float[mesh.vertexCount * 3];
+        mesh.texCoords0NumComponents = 2;
+        mesh.texCoords0 = new float[mesh.vertexCount * 2];
+        for (int y = 0; y <= height; ++y) {
+            for (int x = 0; x <= width; ++x) {
+                int v = y * (width + 1) + x;
+                mesh.positions[v*3+0] = x;
+                mesh.positions[v*3+1] = y;
+                mesh.texCoords0[v*2+0] = x;
+                mesh.texCoords0[v*2+1] = y;
+            }
+        }
+        mesh.indexCount = width * height * 6;
+        mesh.indices = new int[mesh.indexCount];
+        int i = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int v = y * (width + 1) + x;
+                mesh.indices[i++] = v;
+                mesh.indices[i++] = v + 1;
+                mesh.indices[i++] = v + width + 1;
+                mesh.indices[i++] = v + width + 1;
+                mesh.indices[i++] = v + 1;
+                mesh.indices[i++] = v + width + 2;
+            }
+        }
+        return mesh;
+    }
+
+    // Average number of vertex cache misses per triangle, for a FIFO cache
+    private static double getVertexCacheMissRatio(int[] indices, int cacheSize) {
+        ArrayList<Integer> cache = new ArrayList<>();
+        int misses = 0;
+        for (int index : indices) {
+            if (!cache.contains(index)) {
+                ++misses;
+                cache.add(index);
+                if (cache.size() > cacheSize) {
+                    cache.remove(0);
+                }
+            }
+        }
+        return misses / (indices.length / 3.0);
+    }
+
+    private static List<String> getSortedTriangles(ModelImporter.Mesh mesh, int[] indices) {
+        List<String> triangles = new ArrayList<>();
+        for (int i = 0; i < indices.length; ++i) {
+            int v = indices[i];
+            triangles.add(mesh.positions[v*3+0] + "," + mesh.positions[v*3+1]);
+        }
+        List<String> sorted = new ArrayList<>();
+        for (int i = 0; i < triangles.size(); i += 3) {
+            sorted.add(String.join(" ", triangles.subList(i, i + 3)));
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /*
+     * Tests that large meshes are split into meshes with 16 bit indices, keeping all triangles
+     */
+    @Test
+    public void testSplitMesh() throws Exception {
+        ModelImporter.Mesh mesh = createGridMesh(260, 260);
+
+        List<ModelImporter.Mesh> meshes = new ArrayList<>();
+        ModelUtil.splitMesh(mesh, meshes);
+        assertTrue(meshes.size() > 1);
+
+        List<String> triangles = new ArrayList<>();
+        int indexCount = 0;
+        for (int i = 0; i < meshes.size(); ++i) {
+            ModelImporter.Mesh newMesh = meshes.get(i);
+            assertEquals(String.format("grid_%d", i), newMesh.name);
+            assertEquals("material", newMesh.material);
+            assertTrue(newMesh.vertexCount < 65535);
+            assertEquals(newMesh.vertexCount * 3, newMesh.positions.length);
+            assertEquals(newMesh.vertexCount * 2, newMesh.texCoords0.length);
+            assertEquals(newMesh.indexCount, newMesh.indices.length);
+            for (int v = 0; v < newMesh.vertexCount; ++v) {
+                assertEquals(newMesh.positions[v*3+0], newMesh.texCoords0[v*2+0], 0.0f);
+                assertEquals(newMesh.positions[v*3+1], newMesh.texCoords0[v*2+1], 0.0f);
+            }
+            for (int index : newMesh.indices) {
+                assertTrue(index < newMesh.vertexCount);
+            }
+            indexCount += newMesh.indexCount;
+
+            for (int j = 0; j < newMesh.indexCount; j += 3) {
+                StringBuilder triangle = new StringBuilder();
+                for (int k = 0; k < 3; ++k) {
+                    int v = newMesh.indices[j + k];
+                    triangle.append(newMesh.positions[v*3+0] + "," + newMesh.positions[v*3+1]);
+                    if (k < 2)
+                        triangle.append(" ");
+                }
+                triangles.add(triangle.toString());
+            }
+        }
+        assertEquals(mesh.indexCount, indexCount);
+        Collections.sort(triangles);
+        assertEquals(getSortedTriangles(mesh, mesh.indices), triangles);
+    }
+
+    /*
+     * Tests that the vertex cache optimization keeps the triangles, and reduces the cache misses
+     */
+    @Test
+    public void testOptimizeVertexCache() throws Exception {
+        ModelImporter.Mesh mesh = createGridMesh(64, 64);
+
+        // Shuffle the triangles to get a worst case order
+        Random random = new Random(1);
+        int triangleCount = mesh.indexCount / 3;
+        for (int i = triangleCount - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            for (int k = 0; k < 3; ++k) {
+                int tmp = mesh.indices[i*3+k];
+                mesh.indices[i*3+k] = mesh.indices[j*3+k];
+                mesh.indices[j*3+k] = tmp;
+            }
+        }
+
+        int[] indices = ModelUtil.optimizeVertexCache(mesh.indices, mesh.vertexCount);
+        assertEquals(mesh.indices.length, indices.length);
+        assertEquals(getSortedTriangles(mesh, mesh.indices), getSortedTriangles(mesh, indices));
+
+        double missRatio = getVertexCacheMissRatio(mesh.indices, 16);
+        double optimizedMissRatio = getVertexCacheMissRatio(indices, 16);
+        assertTrue(missRatio > 2.5);
+        assertTrue(optimizedMissRatio < 0.8);
+
+        // Degenerate triangles and empty meshes
+        int[] degenerate = ModelUtil.optimizeVertexCache(new int[] {0, 0, 1, 1, 2, 3, 3, 3, 3}, 4);
+        assertEquals(9, degenerate.length);
+        assertEquals(0, ModelUtil.optimizeVertexCache(new int[0], 0).length);
+    }
+
     /*
      * Tests that an invalid collada file is handled
      */
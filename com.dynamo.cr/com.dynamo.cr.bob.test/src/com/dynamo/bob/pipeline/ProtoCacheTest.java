@@ -0,0 +1,103 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
+
+public class ProtoCacheTest {
+
+    private MockFileSystem fileSystem;
+    private ProtoCache cache;
+
+    @Before
+    public void setUp() {
+        fileSystem = new MockFileSystem();
+        cache = new ProtoCache();
+    }
+
+    @Test
+    public void testCachedMerge() throws Exception {
+        String src = "name: \"sub\"\ninstances {\n  id: \"go\"\n  prototype: \"/test.go\"\n}\n";
+        IResource a = fileSystem.addFile("/a.collection", src.getBytes());
+        IResource b = fileSystem.addFile("/b.collection", src.getBytes());
+
+        CollectionDesc.Builder first = CollectionDesc.newBuilder();
+        cache.merge(a, first);
+        CollectionDesc.Builder second = CollectionDesc.newBuilder();
+        cache.merge(b, second);
+        CollectionDesc.Builder third = CollectionDesc.newBuilder();
+        cache.merge(a, third);
+
+        // Resources with the same content share the parsed message
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(first.build(), second.build());
+        assertEquals(first.build(), third.build());
+        assertEquals("go", third.getInstances(0).getId());
+
+        // Changes to a builder do not affect the cached message
+        first.setName("changed");
+        CollectionDesc.Builder fourth = CollectionDesc.newBuilder();
+        cache.merge(a, fourth);
+        assertEquals("sub", fourth.getName());
+
+        cache.clear();
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testSeparateCaches() throws Exception {
+        IResource a = fileSystem.addFile("/a.collection", "name: \"sub\"\n".getBytes());
+        cache.merge(a, CollectionDesc.newBuilder());
+
+        // Each project has its own cache
+        ProtoCache other = new ProtoCache();
+        CollectionDesc.Builder builder = CollectionDesc.newBuilder();
+        other.merge(a, builder);
+        assertEquals("sub", builder.getName());
+        assertEquals(1, other.getMisses());
+        assertEquals(0, other.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testParseError() throws Exception {
+        IResource resource = fileSystem.addFile("/bad.collection", "name: \"bad\"\ninstances {\n  id \"go\"\n}\n".getBytes());
+        try {
+            cache.merge(resource, CollectionDesc.newBuilder());
+            assertTrue(false);
+        } catch (CompileExceptionError e) {
+            assertEquals(3, e.getLineNumber());
+        }
+        // Failed sources are not cached
+        try {
+            cache.merge(resource, CollectionDesc.newBuilder());
+            assertTrue(false);
+        } catch (CompileExceptionError e) {
+            assertEquals(3, e.getLineNumber());
+        }
+        assertEquals(0, cache.getHits());
+    }
+}
@@ -17,13 +17,19 @@ package com.dynamo.bob.pipeline;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
+import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 import com.google.protobuf.Message;
 
@@ -139,6 +145,42 @@ public class ShaderProgramBuilderTest extends AbstractProtoBuilderTest {
         doTest(true);
     }
 
+    private static void assertSameResources(List<ShaderUtil.SPIRVReflector.Resource> expected, List<ShaderUtil.SPIRVReflector.Resource> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).name, actual.get(i).name);
+            assertEquals(expected.get(i).type, actual.get(i).type);
+            assertEquals(expected.get(i).binding, actual.get(i).binding);
+            assertEquals(expected.get(i).set, actual.get(i).set);
+        }
+    }
+
+    @Test
+    public void testCachedSPIRV() throws Exception {
+        File cacheDir = Files.createTempDirectory("shader_cache").toFile();
+        try {
+            ResourceCache cache = new ResourceCache();
+            cache.init(cacheDir.getAbsolutePath(), null);
+
+            ShaderUtil.ES2ToES3Converter.ShaderType type = ShaderUtil.ES2ToES3Converter.ShaderType.VERTEX_SHADER;
+            ShaderProgramBuilder.SPIRVCompileResult expected = ShaderProgramBuilder.compileGLSLToSPIRV(vp, type, "test_shader.vpc", "", false, false);
+            ShaderProgramBuilder.SPIRVCompileResult first = ShaderProgramBuilder.compileGLSLToSPIRV(vp, type, "test_shader.vpc", "", false, false, cache);
+            assertTrue(cache.getLocalCacheSize() > 0);
+            ShaderProgramBuilder.SPIRVCompileResult cached = ShaderProgramBuilder.compileGLSLToSPIRV(vp, type, "test_shader.vpc", "", false, false, cache);
+
+            assertTrue(Arrays.equals(expected.source, first.source));
+            assertTrue(Arrays.equals(expected.source, cached.source));
+            assertSameResources(expected.attributes, cached.attributes);
+            assertSameResources(expected.resource_list, cached.resource_list);
+
+            // A different stage or profile must not share the cached output
+            ShaderProgramBuilder.SPIRVCompileResult es = ShaderProgramBuilder.compileGLSLToSPIRV(vp, type, "test_shader.vpc", "es", false, false, cache);
+            assertTrue(!Arrays.equals(cached.source, es.source));
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
     private void testOutput(String expected, String source) {
         if (!expected.equals(source)) {
             System.err.printf("EXPECTED:\n'%s'\n", expected);
@@ -15,18 +15,30 @@
 package com.dynamo.bob.pipeline;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
+import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
 import com.dynamo.graphics.proto.Graphics.TextureFormatAlternative;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
@@ -613,4 +625,122 @@ public class TextureGeneratorTest {
         assertEquals(TextureFormat.TEXTURE_FORMAT_RGBA_16BPP, texture.getAlternatives(1).getFormat());
         assertEquals(128*64*2, texture.getAlternatives(1).getData().toByteArray().length);
     }
+
+    @Test
+    public void testParallelEncodingDeterministic() throws TextureGeneratorException, IOException {
+        TextureProfile.Builder textureProfile = TextureProfile.newBuilder();
+        PlatformProfile.Builder platformProfile = PlatformProfile.newBuilder();
+        TextureFormat[] formats = { TextureFormat.TEXTURE_FORMAT_RGBA, TextureFormat.TEXTURE_FORMAT_RGB_16BPP, TextureFormat.TEXTURE_FORMAT_RGBA_16BPP, TextureFormat.TEXTURE_FORMAT_LUMINANCE };
+        for (TextureFormat format : formats) {
+            TextureFormatAlternative.Builder textureFormatAlt = TextureFormatAlternative.newBuilder();
+            textureFormatAlt.setFormat(format);
+            textureFormatAlt.setCompressionLevel(CompressionLevel.FAST);
+            platformProfile.addFormats(textureFormatAlt.build());
+        }
+        platformProfile.setOs(PlatformProfile.OS.OS_ID_GENERIC);
+        platformProfile.setMipmaps(true);
+        platformProfile.setMaxTextureSize(0);
+
+        textureProfile.setName("Test Profile");
+        textureProfile.addPlatforms(platformProfile.build());
+
+        TextureImage expected = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), textureProfile.build(), true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TextureImage texture = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), textureProfile.build(), true, EnumSet.of(FlipAxis.FLIP_AXIS_Y), executor);
+            assertEquals(formats.length, texture.getAlternativesCount());
+            assertTrue(Arrays.equals(expected.toByteArray(), texture.toByteArray()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCachedTexture() throws TextureGeneratorException, IOException {
+        File cacheDir = Files.createTempDirectory("texture_cache").toFile();
+        try {
+            ResourceCache cache = new ResourceCache();
+            cache.init(cacheDir.getAbsolutePath(), null);
+
+            TextureImage expected = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), null, false, EnumSet.of(FlipAxis.FLIP_AXIS_Y));
+            TextureImage first = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), null, false, EnumSet.of(FlipAxis.FLIP_AXIS_Y), null, cache);
+            TextureImage cached = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), null, false, EnumSet.of(FlipAxis.FLIP_AXIS_Y), null, cache);
+            assertTrue(Arrays.equals(expected.toByteArray(), first.toByteArray()));
+            assertTrue(Arrays.equals(expected.toByteArray(), cached.toByteArray()));
+
+            // Different settings must not share cached images
+            TextureImage flipped = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), null, false, EnumSet.noneOf(FlipAxis.class), null, cache);
+            assertFalse(Arrays.equals(cached.toByteArray(), flipped.toByteArray()));
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testCachedTextureSharedByFileAndPixels() throws TextureGeneratorException, IOException {
+        File cacheDir = Files.createTempDirectory("texture_cache").toFile();
+        try {
+            ResourceCache cache = new ResourceCache();
+            cache.init(cacheDir.getAbsolutePath(), null);
+
+            // Cached from the decoded pixels, as for atlas and tile source pages
+            BufferedImage image = ImageIO.read(getClass().getResourceAsStream("128_64_rgba.png"));
+            TextureImage fromPixels = TextureGenerator.generate(image, null, false, EnumSet.of(FlipAxis.FLIP_AXIS_Y), null, cache);
+            long size = cache.getLocalCacheSize();
+
+            // The same image read from the file uses the cached images, only the hash of its pixels is added
+            TextureImage fromFile = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), null, false, EnumSet.of(FlipAxis.FLIP_AXIS_Y), null, cache);
+            assertTrue(Arrays.equals(fromPixels.toByteArray(), fromFile.toByteArray()));
+            assertEquals(size + 20, cache.getLocalCacheSize());
+
+            TextureImage cached = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), null, false, EnumSet.of(FlipAxis.FLIP_AXIS_Y), null, cache);
+            assertTrue(Arrays.equals(fromPixels.toByteArray(), cached.toByteArray()));
+            assertEquals(size + 20, cache.getLocalCacheSize());
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    static BufferedImage createRandomImage(int width, int height, int type, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    static BufferedImage copyImage(BufferedImage image, int type) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g2d = copy.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return copy;
+    }
+
+    @Test
+    public void testImageTypes() throws TextureGeneratorException, IOException {
+        // Opaque images are converted straight into the texture pixels
+        BufferedImage rgb = createRandomImage(64, 32, BufferedImage.TYPE_INT_RGB, 1234);
+        TextureImage expected = TextureGenerator.generate(copyImage(rgb, BufferedImage.TYPE_4BYTE_ABGR), null, false);
+        TextureImage texture = TextureGenerator.generate(rgb, null, false);
+        assertTrue(Arrays.equals(expected.toByteArray(), texture.toByteArray()));
+
+        // Images with alpha are drawn into an ABGR image first
+        BufferedImage argb = createRandomImage(64, 32, BufferedImage.TYPE_INT_ARGB, 4321);
+        expected = TextureGenerator.generate(copyImage(argb, BufferedImage.TYPE_4BYTE_ABGR), null, false);
+        texture = TextureGenerator.generate(argb, null, false);
+        assertTrue(Arrays.equals(expected.toByteArray(), texture.toByteArray()));
+
+        // A part of a larger image doesn't share the layout of the whole image
+        BufferedImage abgr = createRandomImage(64, 64, BufferedImage.TYPE_4BYTE_ABGR, 5678);
+        BufferedImage subImage = abgr.getSubimage(16, 8, 32, 16);
+        BufferedImage copy = new BufferedImage(subImage.getWidth(), subImage.getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+        subImage.copyData(copy.getRaster());
+        expected = TextureGenerator.generate(copy, null, false);
+        texture = TextureGenerator.generate(subImage, null, false);
+        assertTrue(Arrays.equals(expected.toByteArray(), texture.toByteArray()));
+    }
 }
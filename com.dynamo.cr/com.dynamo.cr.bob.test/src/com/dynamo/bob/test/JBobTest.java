@@ -283,6 +283,54 @@ public class JBobTest {
         assertThat(result.get(0).isOk(), is(false));
     }
 
+    @Test
+    public void testTaskFailingSkipsDependants() throws Exception {
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("test1.in_err", "A".getBytes());
+        fileSystem.addFile("test2.in", "B".getBytes());
+        project.setInputs(Arrays.asList("test.proj", "test1.in_err", "test2.in"));
+        List<TaskResult> result = build();
+        // the independent task is still built, the archive depending on the failing task is not
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0).isOk() ^ result.get(1).isOk(), is(true));
+        assertTrue(fileSystem.get("test2.out").output().exists());
+        assertFalse(fileSystem.get("test.arc").output().exists());
+    }
+
+    private List<String> buildNumbered(int threads) throws Exception {
+        fileSystem = new MockFileSystem();
+        project = new Project(fileSystem);
+        project.scan(new ClassLoaderScanner(), "com.dynamo.bob.test");
+        project.setOption("max-cpu-threads", Integer.toString(threads));
+        List<String> inputs = new ArrayList<String>();
+        fileSystem.addFile("test.proj", "".getBytes());
+        inputs.add("test.proj");
+        for (int i = 0; i < 64; ++i) {
+            String name = String.format("test%d.dynamic", i);
+            fileSystem.addFile(name, String.format("%d\n%d\n", i, i + 1).getBytes());
+            inputs.add(name);
+        }
+        project.setInputs(inputs);
+        List<String> outputs = new ArrayList<String>();
+        for (TaskResult r : build()) {
+            assertTrue(r.isOk());
+            outputs.add(r.getTask().getOutputsString());
+        }
+        outputs.add(getResourceString("test.arc"));
+        project.dispose();
+        return outputs;
+    }
+
+    @Test
+    public void testParallelBuildDeterministic() throws Exception {
+        List<String> sequential = buildNumbered(1);
+        // 64 dynamic tasks, 128 number tasks, the archive and its content
+        assertThat(sequential.size(), is(64 + 128 + 1 + 1));
+        for (int i = 0; i < 4; ++i) {
+            assertThat(buildNumbered(8), is(sequential));
+        }
+    }
+
     @Test
     public void testAbsPath() throws Exception {
         fileSystem.addFile("/root/test.in", "test data".getBytes());
@@ -315,6 +363,33 @@ public class JBobTest {
         assertThat(result.size(), is(1));
     }
 
+    @Test
+    public void testChangeInputRebuildsDirtyTasks() throws Exception {
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("test1.dynamic", "1\n2\n".getBytes());
+        fileSystem.addFile("test2.dynamic", "3\n4\n".getBytes());
+        project.setInputs(Arrays.asList("test.proj", "test1.dynamic", "test2.dynamic"));
+        List<TaskResult> result;
+
+        // build, 2 dynamic tasks, 4 number tasks and the archive
+        result = build();
+        assertThat(result.size(), is(7));
+
+        // rebuild with same input
+        result = build();
+        assertThat(result.size(), is(0));
+
+        // rebuild with one changed number, the unchanged numbers are not rebuilt
+        MockResource testIn = (MockResource) fileSystem.get("test1.dynamic");
+        testIn.setContent("1\n5\n".getBytes());
+        result = build();
+        assertThat(result.size(), is(3));
+        assertThat(getResourceString("test1_1.numberc"), is("50"));
+
+        result = build();
+        assertThat(result.size(), is(0));
+    }
+
     @Test
     public void testRemoveOutput() throws Exception {
         fileSystem.addFile("test.in", "test data".getBytes());
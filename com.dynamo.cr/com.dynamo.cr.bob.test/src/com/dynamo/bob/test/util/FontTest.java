@@ -19,6 +19,8 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 
 import java.awt.FontFormatException;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
@@ -34,6 +36,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -43,11 +48,13 @@ import com.dynamo.bob.font.BMFont;
 import com.dynamo.bob.font.BMFont.BMFontFormatException;
 import com.dynamo.bob.font.BMFont.ChannelData;
 import com.dynamo.bob.font.BMFont.Char;
+import com.dynamo.bob.font.DistanceFieldGenerator;
 import com.dynamo.bob.font.Fontc;
 import com.dynamo.bob.font.Fontc.FontResourceResolver;
 import com.dynamo.render.proto.Font.FontDesc;
 import com.dynamo.render.proto.Font.FontMap;
 import com.dynamo.render.proto.Font.FontMap.Glyph;
+import com.dynamo.render.proto.Font.FontTextureFormat;
 
 public class FontTest {
 
@@ -459,4 +466,100 @@ public class FontTest {
         int expectedCharCount = 96; // Taken from bmfont.fnt
         assertEquals(expectedCharCount, fontMap.getGlyphsCount());
     }
+
+    @Test
+    public void testDistanceField() throws Exception {
+        // A star that overlaps itself, so the winding rules give different results in the middle
+        int points = 5;
+        for (int windingRule : new int[] { PathIterator.WIND_NON_ZERO, PathIterator.WIND_EVEN_ODD }) {
+            Path2D.Double path = new Path2D.Double(windingRule);
+            DistanceFieldGenerator df = new DistanceFieldGenerator();
+            double lastX = 0, lastY = 0;
+            for (int i = 0; i <= points; ++i) {
+                double angle = 2 * Math.PI * 2 * i / points;
+                double x = 16 + 12 * Math.sin(angle);
+                double y = 16 - 12 * Math.cos(angle);
+                if (i == 0) {
+                    path.moveTo(x, y);
+                } else {
+                    path.lineTo(x, y);
+                    df.addLine(lastX, lastY, x, y);
+                }
+                lastX = x;
+                lastY = y;
+            }
+            path.closePath();
+
+            int width = 40;
+            int height = 36;
+            double x0 = -4.25, y0 = -2.5;
+            double[] distances = new double[width * height];
+            double[] maxDistances = new double[width * height];
+            boolean[] inside = new boolean[width * height];
+            df.render(distances, x0, y0, x0 + width, y0 + height, width, height);
+            df.render(maxDistances, x0, y0, x0 + width, y0 + height, width, height, 3.0);
+            df.renderInside(inside, x0, y0, x0 + width, y0 + height, width, height, windingRule);
+
+            int ofs = 0;
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x, ++ofs) {
+                    double expected = Math.sqrt(df.distSqr(x0 + x, y0 + y));
+                    assertEquals(expected, distances[ofs], EPSILON);
+                    assertEquals(Math.min(expected, 3.0), maxDistances[ofs], EPSILON);
+                    if (expected > EPSILON) {
+                        assertEquals(path.contains(x0 + x, y0 + y), inside[ofs]);
+                    }
+                }
+            }
+        }
+    }
+
+    private FontMap compileFont(FontDesc fontDesc, Executor executor) throws Exception {
+        Fontc fontc = new Fontc();
+        fontc.setExecutor(executor);
+        InputStream fontInputStream = getClass().getResourceAsStream(fontDesc.getFont());
+        final String searchPath = FilenameUtils.getBaseName(fontDesc.getFont());
+        try {
+            fontc.compile(fontInputStream, fontDesc, false, new FontResourceResolver() {
+                    @Override
+                    public InputStream getResource(String resourceName)
+                            throws FileNotFoundException {
+                        return new FileInputStream(Paths.get(searchPath, resourceName).toString());
+                    }
+                });
+        } finally {
+            fontInputStream.close();
+        }
+        return fontc.getFontMap();
+    }
+
+    @Test
+    public void testParallelGlyphs() throws Exception {
+        FontDesc bitmapDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(24)
+            .setOutlineWidth(2.0f)
+            .setOutlineAlpha(1.0f)
+            .setShadowAlpha(0.5f)
+            .setShadowBlur(2)
+            .setAllChars(true)
+            .build();
+        FontDesc distanceFieldDesc = FontDesc.newBuilder(bitmapDesc)
+            .setOutputFormat(FontTextureFormat.TYPE_DISTANCE_FIELD)
+            .build();
+
+        // The glyphs must be the same, and in the same order, as when they are generated one by one
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (FontDesc fontDesc : new FontDesc[] { bitmapDesc, distanceFieldDesc }) {
+                FontMap expected = compileFont(fontDesc, null);
+                FontMap fontMap = compileFont(fontDesc, executor);
+                assertTrue(expected.getGlyphsCount() > 0);
+                assertEquals(expected, fontMap);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -272,6 +272,41 @@ public class TextureSetLayoutTest {
         }
     }
 
+    // Enough rects for the sizes and heuristics to be packed concurrently
+    @Test
+    public void testManyRects() {
+        List<Rect> rectangles = new ArrayList<Rect>();
+        for (int i = 0; i < 300; ++i) {
+            rectangles.add(rect(String.format("%d", i), i, 4 + (i * 37) % 61, 4 + (i * 53) % 47));
+        }
+        Layout layout = packedLayout(2, rectangles).get(0);
+        List<Rect> outputRectangles = layout.getRectangles();
+        int numRectangles = outputRectangles.size();
+        assertEquals(rectangles.size(), numRectangles);
+
+        for (int i=0; i<numRectangles; ++i) {
+            Rect a = outputRectangles.get(i);
+            assertTrue(a.x >= 0 && a.x + a.width <= layout.getWidth());
+            assertTrue(a.y >= 0 && a.y + a.height <= layout.getHeight());
+            for (int j=i+1; j<numRectangles; ++j) {
+                assertFalse(isOverlapping(a, outputRectangles.get(j)));
+            }
+        }
+
+        // The same layout every time
+        Layout layout2 = packedLayout(2, rectangles).get(0);
+        assertEquals(layout.getWidth(), layout2.getWidth());
+        assertEquals(layout.getHeight(), layout2.getHeight());
+        for (int i=0; i<numRectangles; ++i) {
+            Rect a = outputRectangles.get(i);
+            Rect b = layout2.getRectangles().get(i);
+            assertEquals(a.id, b.id);
+            assertEquals(a.x, b.x);
+            assertEquals(a.y, b.y);
+            assertEquals(a.rotated, b.rotated);
+        }
+    }
+
     @Test
     public void testGridLayout1() {
 
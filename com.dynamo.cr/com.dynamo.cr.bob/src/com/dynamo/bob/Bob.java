@@ -532,6 +532,9 @@ public class Bob {
         addOption(options, null, "build-artifacts", true, "If left out, will default to build the engine. Choices: 'engine', 'plugins'. Comma separated list.", false);
 
         addOption(options, null, "resource-cache-local", true, "Path to local resource cache.", false);
+        addOption(options, null, "resource-cache-local-max-size", true, "Max size in megabytes of the local resource cache. The least recently used resources are removed when the cache grows larger. Default is no limit.", false);
+        addOption(options, null, "texture-cache-max-size", true, "Max size in megabytes of the cache of encoded textures in the build directory. The least recently used textures are removed when the cache grows larger. 0 means no limit. Default is 1024.", false);
+        addOption(options, null, "shader-cache-max-size", true, "Max size in megabytes of the cache of compiled shaders in the build directory. The least recently used shaders are removed when the cache grows larger. 0 means no limit. Default is 256.", false);
         addOption(options, null, "resource-cache-remote", true, "URL to remote resource cache.", false);
         addOption(options, null, "resource-cache-remote-user", true, "Username to authenticate access to the remote resource cache.", false);
         addOption(options, null, "resource-cache-remote-pass", true, "Password/token to authenticate access to the remote resource cache.", false);
@@ -539,6 +542,8 @@ public class Bob {
         addOption(options, null, "manifest-private-key", true, "Private key to use when signing manifest and archive.", false);
         addOption(options, null, "manifest-public-key", true, "Public key to use when signing manifest and archive.", false);
 
+        addOption(options, null, "max-cpu-threads", true, "Max count of threads that bob.jar can use when building. A negative value is subtracted from the number of available processors. Default is all available processors", false);
+
         // debug options
         addOption(options, null, "debug-ne-upload", false, "Outputs the files sent to build server as upload.zip", false);
 
@@ -836,6 +841,30 @@ public class Bob {
             project.setOption("archive-resource-padding", resourcePaddingStr);
         }
 
+        if (cmd.hasOption("max-cpu-threads")) {
+            String maxCpuThreadsStr = cmd.getOptionValue("max-cpu-threads");
+            try {
+                Integer.parseInt(maxCpuThreadsStr);
+            } catch (Exception e) {
+                System.out.printf("Could not parse --max-cpu-threads='%s' into a valid integer\n", maxCpuThreadsStr);
+                System.exit(1);
+                return;
+            }
+        }
+
+        for (String maxSizeOption : new String[] {"resource-cache-local-max-size", "texture-cache-max-size", "shader-cache-max-size"}) {
+            if (cmd.hasOption(maxSizeOption)) {
+                String maxSizeStr = cmd.getOptionValue(maxSizeOption);
+                try {
+                    Long.parseLong(maxSizeStr);
+                } catch (Exception e) {
+                    System.out.printf("Could not parse --%s='%s' into a valid integer\n", maxSizeOption, maxSizeStr);
+                    System.exit(1);
+                    return;
+                }
+            }
+        }
+
         if (project.hasOption("build-artifacts")) {
             String[] validArtifacts = {"engine", "plugins"};
             validateChoicesList(project, "build-artifacts", validArtifacts);
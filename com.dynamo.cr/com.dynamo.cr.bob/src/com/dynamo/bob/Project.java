@@ -25,16 +25,22 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -45,7 +51,18 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -75,11 +92,14 @@ import com.dynamo.bob.bundle.BundleHelper;
 import com.dynamo.bob.bundle.IBundler;
 import com.dynamo.bob.bundle.BundlerParams;
 import com.dynamo.bob.fs.ClassLoaderMountPoint;
+import com.dynamo.bob.fs.DefaultResource;
 import com.dynamo.bob.fs.FileSystemWalker;
 import com.dynamo.bob.fs.IFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.ZipMountPoint;
 import com.dynamo.bob.pipeline.ExtenderUtil;
+import com.dynamo.bob.pipeline.ProtoCache;
+import com.dynamo.bob.pipeline.TextureGenerator;
 import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.util.ReportGenerator;
@@ -100,6 +120,11 @@ public class Project {
     public final static String LIB_DIR = ".internal/lib";
     public final static String CACHE_DIR = ".internal/cache";
     public final static String PLUGINS_DIR = "./build/plugins";
+    // Smaller outputs are not worth replacing with hard links
+    private final static long MIN_LINKED_OUTPUT_SIZE = 4096;
+    // Default max sizes in megabytes of the caches in the build directory
+    private final static long DEFAULT_TEXTURE_CACHE_MAX_SIZE = 1024;
+    private final static long DEFAULT_SHADER_CACHE_MAX_SIZE = 256;
     private static ClassLoaderScanner scanner = null;
 
     public enum OutputFlags {
@@ -109,13 +134,24 @@ public class Project {
     }
 
     private ResourceCache resourceCache = new ResourceCache();
+    // Encoded texture images keyed by the hash of their source and settings, shared by all texture builders
+    private ResourceCache textureCache = new ResourceCache();
+    // Compiled SPIR-V and reflection data keyed by the hash of the shader source and compiler options
+    private ResourceCache shaderCache = new ResourceCache();
+    // Parsed text format sources shared by the builders, cleared for every build
+    private ProtoCache protoCache = new ProtoCache();
     private IFileSystem fileSystem;
     private Map<String, Class<? extends Builder<?>>> extToBuilder = new HashMap<String, Class<? extends Builder<?>>>();
     private Map<String, String> inextToOutext = new HashMap<>();
     private List<Class<? extends Builder<?>>> ignoreTaskAutoCreation = new ArrayList<Class<? extends Builder<?>>>();
     private List<String> inputs = new ArrayList<String>();
-    private HashMap<String, EnumSet<OutputFlags>> outputs = new HashMap<String, EnumSet<OutputFlags>>();
+    // Flags of all outputs, set by builders running concurrently. The flag sets are replaced, never modified.
+    private Map<String, EnumSet<OutputFlags>> outputs = new ConcurrentHashMap<String, EnumSet<OutputFlags>>();
     private HashMap<String, Task<?>> tasks;
+    // First output built with a given content, used to hard link identical outputs
+    private Map<String, IResource> outputsByContent = new ConcurrentHashMap<>();
+    private AtomicLong linkedOutputBytes = new AtomicLong();
+    private ExecutorService taskExecutor = null;
     private State state;
     private String rootDirectory = ".";
     private String buildDirectory = "build";
@@ -191,6 +227,84 @@ public class Project {
         return option("resource-cache-local", null);
     }
 
+    /**
+     * Get the max size of the local resource cache
+     * @return max size in bytes, or 0 if there is no limit
+     */
+    public long getLocalResourceCacheMaxSize() {
+        return getCacheMaxSize("resource-cache-local-max-size", 0);
+    }
+
+    // Max cache size option in megabytes, 0 for no limit
+    private long getCacheMaxSize(String optionName, long defaultMaxSize) {
+        String maxSizeOpt = option(optionName, null);
+        if (maxSizeOpt == null) {
+            return defaultMaxSize * 1024 * 1024;
+        }
+        long maxSize;
+        try {
+            maxSize = Long.parseLong(maxSizeOpt);
+        } catch (NumberFormatException e) {
+            logWarning("Could not parse --%s='%s' into a valid integer, using %d", optionName, maxSizeOpt, defaultMaxSize);
+            return defaultMaxSize * 1024 * 1024;
+        }
+        // clamp before converting to bytes, so the size can't overflow
+        maxSize = Math.min(Math.max(0, maxSize), Long.MAX_VALUE / (1024 * 1024));
+        return maxSize * 1024 * 1024;
+    }
+
+    private String getTextureCacheDirectory() {
+        return FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "texture_cache");
+    }
+
+    /**
+     * Get the cache of encoded texture images. The cache is kept in the build
+     * directory and reused between builds and between texture builders.
+     * @return the texture cache
+     */
+    public ResourceCache getTextureCache() {
+        return textureCache;
+    }
+
+    /**
+     * Get the max size of the texture cache
+     * @return max size in bytes, or 0 if there is no limit
+     */
+    public long getTextureCacheMaxSize() {
+        return getCacheMaxSize("texture-cache-max-size", DEFAULT_TEXTURE_CACHE_MAX_SIZE);
+    }
+
+    private String getShaderCacheDirectory() {
+        return FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "shader_cache");
+    }
+
+    /**
+     * Get the cache of SPIR-V shaders and their reflection data. The cache is
+     * kept in the build directory and reused between builds and between the
+     * shader program and material builders.
+     * @return the shader cache
+     */
+    public ResourceCache getShaderCache() {
+        return shaderCache;
+    }
+
+    /**
+     * Get the max size of the shader cache
+     * @return max size in bytes, or 0 if there is no limit
+     */
+    public long getShaderCacheMaxSize() {
+        return getCacheMaxSize("shader-cache-max-size", DEFAULT_SHADER_CACHE_MAX_SIZE);
+    }
+
+    /**
+     * Get the cache of parsed text format sources that builders merge through ProtoUtil.
+     * The cache is only kept during a build.
+     * @return the proto cache
+     */
+    public ProtoCache getProtoCache() {
+        return protoCache;
+    }
+
     public String getRemoteResourceCacheDirectory() {
         return option("resource-cache-remote", null);
     }
@@ -667,6 +781,10 @@ public class Project {
         } catch (Throwable e) {
             throw new CompileExceptionError(null, 0, e.getMessage(), e);
         } finally {
+            // also when the build failed or was cancelled, so that failed uploads are reported
+            resourceCache.waitForUploads();
+            protoCache.clear();
+            TextureGenerator.releaseBuffers();
             TimeProfiler.createReport(true);
         }
     }
@@ -1122,8 +1240,11 @@ public class Project {
     }
 
     private List<TaskResult> doBuild(IProgress monitor, String... commands) throws IOException, CompileExceptionError, MultipleCompileException {
-        resourceCache.init(getLocalResourceCacheDirectory(), getRemoteResourceCacheDirectory());
+        resourceCache.init(getLocalResourceCacheDirectory(), getRemoteResourceCacheDirectory(), getLocalResourceCacheMaxSize());
         resourceCache.setRemoteAuthentication(getRemoteResourceCacheUser(), getRemoteResourceCachePass());
+        textureCache.init(getTextureCacheDirectory(), null, getTextureCacheMaxSize());
+        shaderCache.init(getShaderCacheDirectory(), null, getShaderCacheMaxSize());
+        protoCache.clear();
         fileSystem.loadCache();
         IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "state"));
         state = State.load(stateResource);
@@ -1244,6 +1365,8 @@ public class Project {
                     result = runTasks(m);
                     m.done();
 
+                    TimeProfiler.addData("ProtoCacheHits", protoCache.getHits());
+                    TimeProfiler.addData("ProtoCacheMisses", protoCache.getMisses());
                     TimeProfiler.stop();
 
                     if (anyFailing(result)) {
@@ -1297,7 +1420,12 @@ public class Project {
                     IProgress m = monitor.subProgress(1);
                     m.beginTask("Cleaning...", 1);
                     BundleHelper.throwIfCanceled(monitor);
+                    // Release the state and digest cache files before the build folder is removed
+                    state.close();
+                    fileSystem.saveCache();
                     FileUtils.deleteDirectory(new File(FilenameUtils.concat(rootDirectory, buildDirectory)));
+                    fileSystem.loadCache();
+                    state = State.load(stateResource);
                     m.worked(1);
                     m.done();
                     break;
@@ -1319,207 +1447,646 @@ public class Project {
 
 
 
+    /**
+     * Get the executor tasks are built on, for builders that split the work of a
+     * task into jobs that can run in parallel, such as encoding the pages of an atlas.
+     * Sharing the executor keeps the number of threads within {@link #getMaxCpuThreads()}.
+     * A builder waiting for its jobs must run the jobs that haven't been started yet
+     * itself, since all threads of the executor may be busy building tasks.
+     * @return the executor or null if tasks are built on the calling thread
+     */
+    public ExecutorService getTaskExecutor() {
+        return taskExecutor;
+    }
+
+    /**
+     * Get the number of threads bob may use for CPU bound work, as specified
+     * by the "max-cpu-threads" option. A positive value is used as is, zero or a
+     * missing option means all available processors and a negative value means
+     * all available processors minus that many (but never less than one).
+     * @return the number of threads to use
+     */
+    public int getMaxCpuThreads() {
+        int availableProcessors = Runtime.getRuntime().availableProcessors();
+        String maxThreadsOpt = option("max-cpu-threads", null);
+        if (maxThreadsOpt == null) {
+            return availableProcessors;
+        }
+        int maxThreads;
+        try {
+            maxThreads = Integer.parseInt(maxThreadsOpt);
+        } catch (NumberFormatException e) {
+            logWarning("Could not parse --max-cpu-threads='%s' into a valid integer, using %d threads", maxThreadsOpt, availableProcessors);
+            return availableProcessors;
+        }
+        if (maxThreads <= 0) {
+            maxThreads = availableProcessors + maxThreads;
+        }
+        return Math.max(1, maxThreads);
+    }
+
+    /**
+     * Build a single task, unless all of its outputs exist and have the same signature as
+     * in the previous build. May be called concurrently for tasks that don't depend on each other.
+     * @param task the task to build
+     * @return the result of the build or null if the task was up to date
+     */
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
-        // set of all completed tasks. The set includes both task run
-        // in this session and task already completed (output already exists with correct signatures, see below)
-        // the set also contains failed tasks
-        Set<Task> completedTasks = new HashSet<>();
+    private TaskResult runTask(Task<?> task) throws IOException {
+        final List<IResource> outputResources = task.getOutputs();
+
+        // do all output files exist?
+        boolean allOutputExists = true;
+        for (IResource r : outputResources) {
+            if (!r.exists()) {
+                allOutputExists = false;
+                break;
+            }
+        }
 
-        // the set of all output files generated
-        // in this or previous session
-        Set<IResource> completedOutputs = new HashSet<>();
+        // compare all task signature. current task signature between previous
+        // signature from state on disk
+        TimeProfiler.start("compare signatures");
+        TimeProfiler.addData("color", "#FFC0CB");
+        TimeProfiler.addData("main input", String.valueOf(task.input(0)));
+        byte[] taskSignature = task.calculateSignature();
+        boolean allSigsEquals = true;
+        for (IResource r : outputResources) {
+            byte[] s = state.getSignature(r.getAbsPath());
+            if (!Arrays.equals(s, taskSignature)) {
+                allSigsEquals = false;
+                break;
+            }
+        }
+        TimeProfiler.stop();
 
+        if (allOutputExists && allSigsEquals) {
+            // Task is successfully completed now or in a previous build.
+            return null;
+        }
+
+        TimeProfiler.start(task.getName());
+        TimeProfiler.addData("output", task.getOutputsString());
+        TimeProfiler.addData("type", "buildTask");
+
+        TaskResult taskResult = new TaskResult(task);
+        Builder builder = task.getBuilder();
+        boolean ok = true;
+        int lineNumber = 0;
+        String message = null;
+        Throwable exception = null;
+        Map<IResource, String> outputResourceToCacheKey = new HashMap<IResource, String>();
+        try {
+            if (task.isCacheable() && resourceCache.isCacheEnabled()) {
+                // check if all output resources exist in the resource cache
+                boolean allResourcesCacheable = true;
+                for (IResource r : outputResources) {
+                    final String key = ResourceCacheKey.calculate(task, options, r);
+                    outputResourceToCacheKey.put(r, key);
+                    if (!r.isCacheable()) {
+                        allResourcesCacheable = false;
+                    }
+                }
+                boolean allResourcesCached = allResourcesCacheable && resourceCache.containsAll(outputResourceToCacheKey.values());
+
+                // all resources exist in the cache
+                // load them, they may still have been evicted by another thread since
+                Map<IResource, byte[]> cachedContent = new HashMap<IResource, byte[]>();
+                if (allResourcesCached) {
+                    for (IResource r : outputResources) {
+                        byte[] content = resourceCache.get(outputResourceToCacheKey.get(r));
+                        if (content == null) {
+                            allResourcesCached = false;
+                            break;
+                        }
+                        cachedContent.put(r, content);
+                    }
+                }
+
+                // copy them to the output
+                if (allResourcesCached) {
+                    TimeProfiler.addData("takenFromCache", true);
+                    for (IResource r : outputResources) {
+                        r.setContent(cachedContent.get(r));
+                    }
+                }
+                // build task and cache output
+                else {
+                    builder.build(task);
+                    for (IResource r : outputResources) {
+                        state.putSignature(r.getAbsPath(), taskSignature);
+                        if (r.isCacheable()) {
+                            resourceCache.put(outputResourceToCacheKey.get(r), r.getContent());
+                        }
+                    }
+                }
+            }
+            else {
+                builder.build(task);
+                for (IResource r : outputResources) {
+                    state.putSignature(r.getAbsPath(), taskSignature);
+                }
+            }
+
+            for (IResource r : outputResources) {
+                if (!r.exists()) {
+                    message = String.format("Output '%s' not found", r.getAbsPath());
+                    ok = false;
+                    break;
+                }
+            }
+            if (ok) {
+                linkIdenticalOutputs(outputResources);
+            }
+            TimeProfiler.stop();
+
+        } catch (CompileExceptionError e) {
+            TimeProfiler.stop();
+            ok = false;
+            lineNumber = e.getLineNumber();
+            message = e.getMessage();
+        } catch (Throwable e) {
+            TimeProfiler.stop();
+            ok = false;
+            message = e.getMessage();
+            exception = e;
+
+            // to fix the issue it's easier to see the actual callstack
+            exception.printStackTrace(new java.io.PrintStream(System.out));
+        }
+        if (!ok) {
+            taskResult.setOk(ok);
+            taskResult.setLineNumber(lineNumber);
+            taskResult.setMessage(message);
+            taskResult.setException(exception);
+            // Clear sigs for all outputs when a task fails
+            for (IResource r : outputResources) {
+                state.putSignature(r.getAbsPath(), new byte[0]);
+            }
+        }
+        return taskResult;
+    }
+
+    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
         List<TaskResult> result = new ArrayList<>();
 
         List<Task<?>> buildTasks = new ArrayList<>(this.getTasks());
-        // set of *all* possible output files
-        Set<IResource> allOutputs = new HashSet<>();
-        for (Task<?> task : this.getTasks()) {
-            allOutputs.addAll(task.getOutputs());
-        }
         tasks.clear();
 
         // Keep track of the paths for all outputs
-        outputs = new HashMap<>(allOutputs.size());
-        for (IResource res : allOutputs) {
-            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+        outputs = new ConcurrentHashMap<>();
+        outputsByContent.clear();
+        linkedOutputBytes.set(0);
+        for (Task<?> task : buildTasks) {
+            for (IResource res : task.getOutputs()) {
+                outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+            }
         }
 
-        // This flag is set to true as soon as one task has failed. This will
-        // break out of the outer loop after the remaining tasks has been tried once.
-        // NOTE The underlying problem is that if a task fails and has dependent
-        // tasks, the dependent tasks will be tried forever. It should be solved
-        // by marking all dependent tasks as failed instead of this flag.
-        boolean taskFailed = false;
-run:
-        while (completedTasks.size() < buildTasks.size()) {
-            for (Task<?> task : buildTasks) {
-                BundleHelper.throwIfCanceled(monitor);
-
-                // deps are the task input files generated by another task not yet completed,
-                // i.e. "solve" the dependency graph
-                Set<IResource> deps = new HashSet<>(task.getInputs());
-                deps.retainAll(allOutputs);
-                deps.removeAll(completedOutputs);
-                if (deps.size() > 0) {
-                    // postpone task. dependent input not yet generated
+        int threadCount = getMaxCpuThreads();
+        ExecutorService executor = null;
+        if (threadCount > 1) {
+            executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                private int count = 0;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, String.format("bob-task-%d", count++));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        TimeProfiler.addData("threads", threadCount);
+        taskExecutor = executor;
+
+        try {
+            while (!buildTasks.isEmpty()) {
+                if (!runTaskGraph(buildTasks, executor, monitor, result)) {
+                    break;
+                }
+                // Tasks are not expected to be created while building, but if it
+                // happens they are built in a separate pass
+                buildTasks = new ArrayList<>(this.getTasks());
+                tasks.clear();
+            }
+        } finally {
+            taskExecutor = null;
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        TimeProfiler.addData("linkedOutputMB", (float) (linkedOutputBytes.get() / (1024.0 * 1024.0)));
+        return result;
+    }
+
+    /**
+     * Replace outputs with the same content as an output built earlier in this build
+     * with hard links to it, to save disk space and writes for duplicated assets.
+     * Outputs are always replaced with new files when written, see {@link DefaultResource#setContent},
+     * so writing one of the linked outputs doesn't change the others.
+     * Outputs are kept as they are if the file system doesn't support hard links.
+     * @param outputResources the outputs of a task that was just built
+     */
+    private void linkIdenticalOutputs(List<IResource> outputResources) throws IOException {
+        for (IResource r : outputResources) {
+            // the archive and other non cacheable outputs are written in other ways
+            if (!(r instanceof DefaultResource) || !r.isCacheable()) {
+                continue;
+            }
+            Path path = Paths.get(r.getAbsPath());
+            long size = Files.size(path);
+            if (size < MIN_LINKED_OUTPUT_SIZE) {
+                continue;
+            }
+            String key = Base64.encodeBase64String(r.sha1()) + ":" + size;
+            IResource original = outputsByContent.putIfAbsent(key, r);
+            if (original == null || original.equals(r)) {
+                continue;
+            }
+            Path originalPath = Paths.get(original.getAbsPath());
+            Path tmpPath = path.resolveSibling(path.getFileName() + ".link");
+            try {
+                if (Files.isSameFile(path, originalPath)) {
                     continue;
                 }
+                Files.deleteIfExists(tmpPath);
+                Files.createLink(tmpPath, originalPath);
+                Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                linkedOutputBytes.addAndGet(size);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.deleteIfExists(tmpPath);
+            }
+        }
+    }
 
-                final List<IResource> outputResources = task.getOutputs();
+    /**
+     * Build a set of tasks in dependency order. A task depends on the tasks producing its
+     * inputs and is dispatched as soon as all of those have completed. Tasks whose inputs are
+     * unchanged since the previous build are found up front and completed without being
+     * dispatched, see {@link #findUpToDateTasks}. When a task fails
+     * its dependent tasks are skipped while independent tasks continue to build. An
+     * unexpected exception stops the dispatch of new tasks.
+     * Results are appended in (dependency depth, task order) order, which doesn't depend
+     * on the number of threads used.
+     * @param buildTasks tasks to build
+     * @param executor executor to build the tasks on or null to build them on the calling thread
+     * @param monitor progress monitor
+     * @param result list to append the task results to
+     * @return true if all tasks were built successfully
+     */
+    private boolean runTaskGraph(List<Task<?>> buildTasks, ExecutorService executor, IProgress monitor, List<TaskResult> result) throws IOException {
+        final int taskCount = buildTasks.size();
+
+        // index the tasks by the outputs they produce
+        Map<IResource, List<Integer>> producers = new HashMap<>();
+        for (int i = 0; i < taskCount; ++i) {
+            for (IResource output : buildTasks.get(i).getOutputs()) {
+                producers.computeIfAbsent(output, k -> new ArrayList<>()).add(i);
+            }
+        }
 
-                // do all output files exist?
-                boolean allOutputExists = true;
-                for (IResource r : outputResources) {
-                    if (!r.exists()) {
-                        allOutputExists = false;
-                        break;
-                    }
+        // deps are the tasks generating the input files of a task,
+        // i.e. "solve" the dependency graph once
+        List<List<Integer>> dependants = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; ++i) {
+            dependants.add(new ArrayList<>());
+        }
+        final int[] pendingDeps = new int[taskCount];
+        for (int i = 0; i < taskCount; ++i) {
+            Set<Integer> deps = new HashSet<>();
+            for (IResource input : buildTasks.get(i).getInputs()) {
+                List<Integer> inputProducers = producers.get(input);
+                if (inputProducers != null) {
+                    deps.addAll(inputProducers);
                 }
+            }
+            deps.remove(i);
+            pendingDeps[i] = deps.size();
+            for (Integer dep : deps) {
+                dependants.get(dep).add(i);
+            }
+        }
 
-                // compare all task signature. current task signature between previous
-                // signature from state on disk
-                TimeProfiler.start("compare signatures");
-                TimeProfiler.addData("color", "#FFC0CB");
-                TimeProfiler.addData("main input", String.valueOf(task.input(0)));
-                byte[] taskSignature = task.calculateSignature();
-                boolean allSigsEquals = true;
-                for (IResource r : outputResources) {
-                    byte[] s = state.getSignature(r.getAbsPath());
-                    if (!Arrays.equals(s, taskSignature)) {
-                        allSigsEquals = false;
+        // stat all source files and outputs once and find the tasks that don't need to run
+        TimeProfiler.start("Check changes");
+        Map<IResource, long[]> stamps = statResources(buildTasks, producers, executor);
+        final boolean[] upToDate = findUpToDateTasks(buildTasks, producers, dependants, pendingDeps, stamps);
+        TimeProfiler.stop();
+        final byte[][] fingerprints = new byte[taskCount][];
+
+        final int[] depth = new int[taskCount];
+        Comparator<Integer> scheduleOrder = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (depth[a] != depth[b]) {
+                    return Integer.compare(depth[a], depth[b]);
+                }
+                return Integer.compare(a, b);
+            }
+        };
+
+        PriorityQueue<Integer> ready = new PriorityQueue<>(scheduleOrder);
+        for (int i = 0; i < taskCount; ++i) {
+            if (pendingDeps[i] == 0) {
+                ready.add(i);
+            }
+        }
+
+        TaskResult[] taskResults = new TaskResult[taskCount];
+        boolean[] done = new boolean[taskCount];
+        boolean taskFailed = false;
+        boolean abort = false;
+        CompletionService<Integer> completionService = executor != null ? new ExecutorCompletionService<Integer>(executor) : null;
+        int running = 0;
+
+        while (!ready.isEmpty() || running > 0) {
+            BundleHelper.throwIfCanceled(monitor);
+
+            int completed = -1;
+            if (completionService == null) {
+                if (abort) {
+                    break;
+                }
+                completed = ready.poll();
+                if (!upToDate[completed]) {
+                    Task<?> task = buildTasks.get(completed);
+                    fingerprints[completed] = calculateInputFingerprint(task, producers, stamps);
+                    taskResults[completed] = runTask(task);
+                }
+            } else {
+                while (!abort && !ready.isEmpty()) {
+                    final int index = ready.poll();
+                    if (upToDate[index]) {
+                        completed = index;
                         break;
                     }
+                    final Task<?> task = buildTasks.get(index);
+                    fingerprints[index] = calculateInputFingerprint(task, producers, stamps);
+                    completionService.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            taskResults[index] = runTask(task);
+                            return index;
+                        }
+                    });
+                    ++running;
                 }
-                TimeProfiler.stop();
+            }
+            if (completed < 0) {
+                if (running == 0) {
+                    break;
+                }
+                try {
+                    completed = completionService.take().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+                --running;
+            }
 
-                boolean shouldRun = (!allOutputExists || !allSigsEquals) && !completedTasks.contains(task);
+            done[completed] = true;
+            monitor.worked(1);
 
-                if (!shouldRun) {
-                    if (allOutputExists && allSigsEquals)
-                    {
-                        // Task is successfully completed now or in a previous build.
-                        // Only if the conditions in the if-statements are true add the task to the completed set and the
-                        // output files to the completed output set
-                        completedTasks.add(task);
-                        completedOutputs.addAll(outputResources);
+            TaskResult taskResult = taskResults[completed];
+            if (taskResult != null && !taskResult.isOk()) {
+                for (IResource output : buildTasks.get(completed).getOutputs()) {
+                    state.removeInputFingerprint(output.getAbsPath());
+                }
+                taskFailed = true;
+                abort |= taskResult.getException() != null;
+                // the outputs of the failed task will not be generated, skip all tasks depending on them
+                List<Integer> skipped = new ArrayList<>(dependants.get(completed));
+                while (!skipped.isEmpty()) {
+                    int index = skipped.remove(skipped.size() - 1);
+                    if (!done[index]) {
+                        done[index] = true;
+                        monitor.worked(1);
+                        skipped.addAll(dependants.get(index));
                     }
+                }
+                continue;
+            }
 
-                    monitor.worked(1);
-                    continue;
+            // the task was built or verified against its signature, remember which inputs it was done for
+            if (fingerprints[completed] != null) {
+                for (IResource output : buildTasks.get(completed).getOutputs()) {
+                    state.putInputFingerprint(output.getAbsPath(), fingerprints[completed]);
                 }
+            }
 
-                TimeProfiler.start(task.getName());
-                TimeProfiler.addData("output", task.getOutputsString());
-                TimeProfiler.addData("type", "buildTask");
-
-                completedTasks.add(task);
-
-                TaskResult taskResult = new TaskResult(task);
-                result.add(taskResult);
-                Builder builder = task.getBuilder();
-                boolean ok = true;
-                int lineNumber = 0;
-                String message = null;
-                Throwable exception = null;
-                boolean abort = false;
-                Map<IResource, String> outputResourceToCacheKey = new HashMap<IResource, String>();
-                try {
-                    if (task.isCacheable() && resourceCache.isCacheEnabled()) {
-                        // check if all output resources exist in the resource cache
-                        boolean allResourcesCached = true;
-                        for (IResource r : outputResources) {
-                            final String key = ResourceCacheKey.calculate(task, options, r);
-                            outputResourceToCacheKey.put(r, key);
-                            if (!r.isCacheable()) {
-                                allResourcesCached = false;
-                            }
-                            else if (!resourceCache.contains(key)) {
-                                allResourcesCached = false;
-                            }
-                        }
+            for (int dependant : dependants.get(completed)) {
+                depth[dependant] = Math.max(depth[dependant], depth[completed] + 1);
+                if (--pendingDeps[dependant] == 0 && !done[dependant]) {
+                    ready.add(dependant);
+                }
+            }
+        }
 
-                        // all resources exist in the cache
-                        // copy them to the output
-                        if (allResourcesCached) {
-                            TimeProfiler.addData("takenFromCache", true);
-                            for (IResource r : outputResources) {
-                                r.setContent(resourceCache.get(outputResourceToCacheKey.get(r)));
-                            }
-                        }
-                        // build task and cache output
-                        else {
-                            builder.build(task);
-                            for (IResource r : outputResources) {
-                                state.putSignature(r.getAbsPath(), taskSignature);
-                                if (r.isCacheable()) {
-                                    resourceCache.put(outputResourceToCacheKey.get(r), r.getContent());
-                                }
-                            }
-                        }
-                    }
-                    else {
-                        builder.build(task);
-                        for (IResource r : outputResources) {
-                            state.putSignature(r.getAbsPath(), taskSignature);
-                        }
-                    }
-                    monitor.worked(1);
+        if (!taskFailed) {
+            for (int i = 0; i < taskCount; ++i) {
+                if (!done[i]) {
+                    // only possible if there is a cycle in the dependency graph
+                    TaskResult taskResult = new TaskResult(buildTasks.get(i));
+                    taskResult.setOk(false);
+                    taskResult.setMessage(String.format("Unable to resolve dependencies of task '%s'", buildTasks.get(i).getName()));
+                    taskResults[i] = taskResult;
+                    taskFailed = true;
+                }
+            }
+        }
 
-                    for (IResource r : outputResources) {
-                        if (!r.exists()) {
-                            message = String.format("Output '%s' not found", r.getAbsPath());
-                            ok = false;
-                            break;
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < taskCount; ++i) {
+            if (taskResults[i] != null) {
+                order.add(i);
+            }
+        }
+        Collections.sort(order, scheduleOrder);
+        for (int index : order) {
+            result.add(taskResults[index]);
+        }
+        return !taskFailed;
+    }
+
+    /**
+     * Read the modification time and size of the source files and outputs of a set of tasks.
+     * Resources not on disk are not included, neither are files that don't exist.
+     * @param buildTasks tasks to read the files of
+     * @param producers tasks indexed by their outputs
+     * @param executor executor to read the files on or null to read them on the calling thread
+     * @return map of resource to modification time and size
+     */
+    private Map<IResource, long[]> statResources(List<Task<?>> buildTasks, Map<IResource, List<Integer>> producers, ExecutorService executor) throws IOException {
+        Set<IResource> resources = new HashSet<>(producers.keySet());
+        for (Task<?> task : buildTasks) {
+            resources.addAll(task.getInputs());
+        }
+        final List<IResource> files = new ArrayList<>();
+        for (IResource resource : resources) {
+            if (resource instanceof DefaultResource) {
+                files.add(resource);
+            }
+        }
+
+        final Map<IResource, long[]> stamps = new ConcurrentHashMap<>();
+        int chunkCount = executor != null ? getMaxCpuThreads() : 1;
+        final int chunkSize = (files.size() + chunkCount - 1) / chunkCount;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < files.size(); start += chunkSize) {
+            final List<IResource> chunk = files.subList(start, Math.min(start + chunkSize, files.size()));
+            Runnable stat = new Runnable() {
+                @Override
+                public void run() {
+                    for (IResource file : chunk) {
+                        try {
+                            BasicFileAttributes attributes = Files.readAttributes(Paths.get(file.getAbsPath()), BasicFileAttributes.class);
+                            stamps.put(file, new long[] { attributes.lastModifiedTime().toMillis(), attributes.size() });
+                        } catch (IOException e) {
+                            // file doesn't exist
                         }
                     }
-                    completedOutputs.addAll(outputResources);
-                    TimeProfiler.stop();
+                }
+            };
+            if (executor != null) {
+                futures.add(executor.submit(stat));
+            } else {
+                stat.run();
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return stamps;
+    }
 
-                } catch (CompileExceptionError e) {
-                    TimeProfiler.stop();
-                    ok = false;
-                    lineNumber = e.getLineNumber();
-                    message = e.getMessage();
-                } catch (Throwable e) {
-                    TimeProfiler.stop();
-                    ok = false;
-                    message = e.getMessage();
-                    exception = e;
-                    abort = true;
+    /**
+     * Calculate a fingerprint of the inputs of a task without reading their content. Source
+     * files contribute their modification time and size and generated inputs the current
+     * signature of the task producing them. The task signature is a function of the same
+     * inputs, so if the fingerprint is unchanged since the outputs were built the signature
+     * is unchanged as well.
+     * @param task task to calculate the fingerprint for
+     * @param producers tasks indexed by their outputs
+     * @param stamps modification time and size of the files on disk
+     * @return the fingerprint
+     */
+    private byte[] calculateInputFingerprint(Task<?> task, Map<IResource, List<Integer>> producers, Map<IResource, long[]> stamps) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
 
-                    // to fix the issue it's easier to see the actual callstack
-                    exception.printStackTrace(new java.io.PrintStream(System.out));
+        byte[] stamp = new byte[17];
+        for (IResource input : task.getInputs()) {
+            digest.update(input.getAbsPath().getBytes(StandardCharsets.UTF_8));
+            if (producers.containsKey(input)) {
+                stamp[0] = 1;
+                digest.update(stamp, 0, 1);
+                byte[] signature = state.getSignature(input.getAbsPath());
+                if (signature != null) {
+                    digest.update(signature);
                 }
-                if (!ok) {
-                    taskFailed = true;
-                    taskResult.setOk(ok);
-                    taskResult.setLineNumber(lineNumber);
-                    taskResult.setMessage(message);
-                    taskResult.setException(exception);
-                    // Clear sigs for all outputs when a task fails
-                    for (IResource r : outputResources) {
-                        state.putSignature(r.getAbsPath(), new byte[0]);
+            } else if (input instanceof DefaultResource) {
+                long[] fileStamp = stamps.get(input);
+                stamp[0] = 2;
+                if (fileStamp != null) {
+                    for (int i = 0; i < 8; ++i) {
+                        stamp[1 + i] = (byte) (fileStamp[0] >>> (56 - i * 8));
+                        stamp[9 + i] = (byte) (fileStamp[1] >>> (56 - i * 8));
                     }
-                    if (abort) {
-                        break run;
+                    digest.update(stamp, 0, 17);
+                } else {
+                    digest.update(stamp, 0, 1);
+                }
+            } else if (input.exists()) {
+                // builtins and other resources not on disk are comparably cheap to hash
+                stamp[0] = 3;
+                digest.update(stamp, 0, 1);
+                digest.update(input.sha1());
+            }
+        }
+        for (String key : task.getExtraCacheKeys()) {
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+        }
+        task.getBuilder().signature(digest);
+        return digest.digest();
+    }
+
+    /**
+     * Find the tasks that are up to date without calculating their signatures. A task is up
+     * to date when all its outputs exist, its input fingerprint is the same as when its
+     * outputs were built and all tasks it depends on are up to date as well. All other tasks
+     * form the dirty part of the graph and are built, or verified against their signatures,
+     * as usual.
+     * @param buildTasks tasks to check
+     * @param producers tasks indexed by their outputs
+     * @param dependants indices of the tasks depending on each task
+     * @param pendingDeps number of tasks each task depends on
+     * @param stamps modification time and size of the files on disk
+     * @return true for each task that is up to date
+     */
+    private boolean[] findUpToDateTasks(List<Task<?>> buildTasks, Map<IResource, List<Integer>> producers, List<List<Integer>> dependants, int[] pendingDeps, Map<IResource, long[]> stamps) throws IOException {
+        final int taskCount = buildTasks.size();
+        boolean[] upToDate = new boolean[taskCount];
+        boolean[] dirtyDeps = new boolean[taskCount];
+        int[] remainingDeps = pendingDeps.clone();
+
+        // visit the tasks in dependency order, tasks in a cycle are never visited and stay dirty
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < taskCount; ++i) {
+            if (remainingDeps[i] == 0) {
+                queue.add(i);
+            }
+        }
+        int upToDateCount = 0;
+        while (!queue.isEmpty()) {
+            int index = queue.poll();
+            Task<?> task = buildTasks.get(index);
+            if (!dirtyDeps[index] && !task.getOutputs().isEmpty()) {
+                byte[] fingerprint = calculateInputFingerprint(task, producers, stamps);
+                boolean same = true;
+                for (IResource output : task.getOutputs()) {
+                    boolean exists = output instanceof DefaultResource ? stamps.containsKey(output) : output.exists();
+                    if (!exists || !Arrays.equals(fingerprint, state.getInputFingerprint(output.getAbsPath()))) {
+                        same = false;
+                        break;
                     }
                 }
+                upToDate[index] = same;
             }
-            if (taskFailed) {
-                break;
+            if (upToDate[index]) {
+                ++upToDateCount;
             }
-            // set of *all* possible output files
-            // TODO: do we really need this?
-            // It seems like we never create new tasks during building process
-            for (Task<?> task : this.getTasks()) {
-                allOutputs.addAll(task.getOutputs());
+            for (int dependant : dependants.get(index)) {
+                dirtyDeps[dependant] |= !upToDate[index];
+                if (--remainingDeps[dependant] == 0) {
+                    queue.add(dependant);
+                }
             }
-            buildTasks.addAll(this.getTasks());
-            tasks.clear();
         }
-        return result;
+
+        TimeProfiler.addData("cleanTasks", upToDateCount);
+        TimeProfiler.addData("dirtyTasks", taskCount - upToDateCount);
+        return upToDate;
     }
 
     /**
@@ -1530,7 +2097,7 @@ run:
         this.inputs = new ArrayList<String>(inputs);
     }
 
-    public HashMap<String, EnumSet<OutputFlags>> getOutputs() {
+    public Map<String, EnumSet<OutputFlags>> getOutputs() {
         return outputs;
     }
 
@@ -1539,18 +2106,18 @@ run:
     }
 
     /**
-     * Add output flag to resource
+     * Add output flag to resource. Safe to call from builders running concurrently.
      * @param resourcePath output resource absolute path
      * @param flag OutputFlag to add
      */
     public boolean addOutputFlags(String resourcePath, OutputFlags flag) {
-        EnumSet<OutputFlags> currentFlags = outputs.get(resourcePath);
-        if(currentFlags == null) {
-            return false;
-        }
-        currentFlags.add(flag);
-        outputs.replace(resourcePath, currentFlags);
-        return true;
+        EnumSet<OutputFlags> flags = outputs.computeIfPresent(resourcePath, (path, currentFlags) -> {
+            // copy the flags, since the current set may be read by other threads
+            EnumSet<OutputFlags> newFlags = EnumSet.copyOf(currentFlags);
+            newFlags.add(flag);
+            return newFlags;
+        });
+        return flags != null;
     }
 
     /**
@@ -88,7 +88,7 @@ public abstract class ProtoBuilder<B extends GeneratedMessageV3.Builder<B>> exte
             throw new RuntimeException(e);
         }
 
-        ProtoUtil.merge(task.input(0), builder);
+        ProtoUtil.merge(project, task.input(0), builder);
         builder = transform(task, task.input(0), builder);
 
         Message msg = builder.build();
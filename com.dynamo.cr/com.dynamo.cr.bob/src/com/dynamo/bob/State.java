@@ -14,17 +14,14 @@
 
 package com.dynamo.bob;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.ArrayList;
 
+import com.dynamo.bob.cache.BuildDatabase;
+import com.dynamo.bob.fs.DefaultResource;
 import com.dynamo.bob.fs.IResource;
 
 /**
@@ -32,19 +29,33 @@ import com.dynamo.bob.fs.IResource;
  * @author Christian Murray
  *
  */
-public class State implements Serializable {
+public class State {
 
-    private static final long serialVersionUID = -275410118302470802L;
-    private Map<String, byte[]> signatures = new HashMap<String, byte[]>();
+    // Not valid paths, so they can't collide with any signature
+    private static final String RESERVED_KEY_PREFIX = "\0";
+    private static final String EXCLUDED_COLLECTION_PROXIES_KEY = RESERVED_KEY_PREFIX + "excluded_collection_proxies";
+    private static final String INPUT_FINGERPRINT_KEY_PREFIX = RESERVED_KEY_PREFIX + "fingerprint:";
+
+    private final BuildDatabase database;
     private final List<String> excludedCollectionProxies = new ArrayList<String>();
 
+    private State(BuildDatabase database) {
+        this.database = database;
+        byte[] proxies = database.get(EXCLUDED_COLLECTION_PROXIES_KEY);
+        if (proxies != null && proxies.length > 0) {
+            for (String path : new String(proxies, StandardCharsets.UTF_8).split("\n")) {
+                excludedCollectionProxies.add(path);
+            }
+        }
+    }
+
     /**
      * Get signature for path
      * @param path path to get sha1 for
      * @return signature or null of no mapping exists
      */
     public byte[] getSignature(String path) {
-        return signatures.get(path);
+        return database.get(path);
     }
 
     /**
@@ -53,31 +64,64 @@ public class State implements Serializable {
      * @param signature signature to set
      */
     public void putSignature(String path, byte[] signature) {
-        signatures.put(path, signature);
+        database.put(path, signature);
     }
 
     /**
      * Remove signature
      * @param path path to set sha1 for
      */
-    public void removeSignature(String path) {
-        signatures.remove(path);
+    public synchronized void removeSignature(String path) {
+        database.remove(path);
+        database.remove(INPUT_FINGERPRINT_KEY_PREFIX + path);
         excludedCollectionProxies.remove(path);
     }
 
+    /**
+     * Get the fingerprint of the task inputs the output was last built or verified from
+     * @param path path to the output
+     * @return fingerprint or null if no mapping exists
+     */
+    public byte[] getInputFingerprint(String path) {
+        return database.get(INPUT_FINGERPRINT_KEY_PREFIX + path);
+    }
+
+    /**
+     * Set the fingerprint of the task inputs the output was built or verified from
+     * @param path path to the output
+     * @param fingerprint fingerprint to set
+     */
+    public void putInputFingerprint(String path, byte[] fingerprint) {
+        database.put(INPUT_FINGERPRINT_KEY_PREFIX + path, fingerprint);
+    }
+
+    /**
+     * Remove input fingerprint
+     * @param path path to the output
+     */
+    public void removeInputFingerprint(String path) {
+        database.remove(INPUT_FINGERPRINT_KEY_PREFIX + path);
+    }
+
     /**
      * Get all registered paths
      * @return list of all registered paths
      */
     public List<String> getPaths() {
-        return new ArrayList<>(signatures.keySet());
+        List<String> paths = new ArrayList<String>();
+        for (String path : database.getPaths()) {
+            if (!path.startsWith(RESERVED_KEY_PREFIX)) {
+                paths.add(path);
+            }
+        }
+        return paths;
     }
 
     /**
      * Add excluded collection proxy
      * @param path path to the collection proxy
      */
-    public void addExcludedCollectionProxy(String path) {
+    public synchronized void addExcludedCollectionProxy(String path) {
         excludedCollectionProxies.add(path);
     }
 
@@ -96,33 +140,47 @@ public class State implements Serializable {
      * @throws IOException
      */
     public static State load(IResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            return new State();
-        } else {
-            try {
-                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
-                State state = (State) is.readObject();
-                return state;
-            } catch (Throwable e) {
-                System.err.println("Unable to load state");
-                e.printStackTrace();
-                return new State();
+        try {
+            // Resources on disk are memory mapped and only the changes are written on save
+            if (resource instanceof DefaultResource) {
+                return new State(BuildDatabase.open(new File(resource.getAbsPath())));
+            }
+            byte[] content = resource.getContent();
+            if (content == null) {
+                return new State(new BuildDatabase());
             }
+            return new State(BuildDatabase.fromByteArray(content));
+        } catch (Throwable e) {
+            System.err.println("Unable to load state");
+            e.printStackTrace();
+            return new State(new BuildDatabase());
         }
     }
 
     /**
-     * Save state
+     * Save state. The state can't be used after it has been saved.
      * @param resource state resource
      * @throws IOException
      */
-    public void save(IResource resource) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128 * 1024);
-        ObjectOutputStream os = new ObjectOutputStream(bos);
-        os.writeObject(this);
-        os.close();
-        resource.setContent(bos.toByteArray());
+    public synchronized void save(IResource resource) throws IOException {
+        if (excludedCollectionProxies.isEmpty()) {
+            database.remove(EXCLUDED_COLLECTION_PROXIES_KEY);
+        } else {
+            database.put(EXCLUDED_COLLECTION_PROXIES_KEY, String.join("\n", excludedCollectionProxies).getBytes(StandardCharsets.UTF_8));
+        }
+        if (resource instanceof DefaultResource && database.isFileBacked()) {
+            database.commit();
+        } else {
+            resource.setContent(database.toByteArray());
+        }
+        database.close();
+    }
+
+    /**
+     * Release the state without saving it
+     */
+    public synchronized void close() {
+        database.close();
     }
 
 }
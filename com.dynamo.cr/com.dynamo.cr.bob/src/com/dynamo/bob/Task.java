@@ -146,6 +146,10 @@ public class Task<T> {
         return outputs.size() > i ? outputs.get(i) : null;
     }
 
+    public List<String> getExtraCacheKeys() {
+        return Collections.unmodifiableList(extraCacheKeys);
+    }
+
     public boolean isCacheable() {
         return cacheable;
     }
@@ -20,8 +20,10 @@ package com.dynamo.bob.archive;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
@@ -29,8 +31,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -38,13 +46,11 @@ import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.pipeline.ResourceNode;
+import com.dynamo.bob.util.ExecutorUtil;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.SignAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntryFlag;
 
-import net.jpountz.lz4.LZ4Compressor;
-import net.jpountz.lz4.LZ4Factory;
-
 public class ArchiveBuilder {
 
     public static final int VERSION = 4;
@@ -52,41 +58,81 @@ public class ArchiveBuilder {
     public static final int HASH_LENGTH = 20;
     public static final int MD5_HASH_DIGEST_BYTE_LENGTH = 16; // 128 bits
 
+    // Max amount of resource data, and max number of entries, processed in parallel before being written
+    private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+    private static final int MAX_PENDING_ENTRIES = 64;
+
     private List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
     private Set<String> lookup = new HashSet<String>(); // To see if a resource has already been added
     private String root;
     private ManifestBuilder manifestBuilder = null;
-    private LZ4Compressor lz4Compressor;
+    private ResourceCompression defaultCompression;
     private byte[] archiveIndexMD5 = new byte[MD5_HASH_DIGEST_BYTE_LENGTH];
     private int resourcePadding = 4;
-
-    public ArchiveBuilder(String root, ManifestBuilder manifestBuilder, int resourcePadding) {
+    private Executor executor;
+    private ArchiveCache archiveCache = null;
+
+    /**
+     * Create an archive builder
+     * @param root root directory of the resources
+     * @param manifestBuilder manifest builder to add the resources to
+     * @param resourcePadding alignment of the resources in the data archive
+     * @param executor executor to compress, encrypt and hash the resources on, e.g. the task
+     * executor of the project, or null to process them on the calling thread
+     */
+    public ArchiveBuilder(String root, ManifestBuilder manifestBuilder, int resourcePadding, Executor executor) {
         this.root = new File(root).getAbsolutePath();
         this.manifestBuilder = manifestBuilder;
-        this.lz4Compressor = LZ4Factory.fastestInstance().highCompressor();
+        this.defaultCompression = ResourceCompression.get(ResourceCompression.DEFAULT);
         this.resourcePadding = resourcePadding;
+        this.executor = executor;
     }
 
-    private void add(String fileName, boolean compress, boolean encrypt, boolean isLiveUpdate) throws IOException {
-        ArchiveEntry e = new ArchiveEntry(root, fileName, compress, encrypt, isLiveUpdate);
+    public ArchiveBuilder(String root, ManifestBuilder manifestBuilder, int resourcePadding) {
+        this(root, manifestBuilder, resourcePadding, null);
+    }
+
+    private void add(String fileName, ResourceCompression compression, boolean encrypt, boolean isLiveUpdate) throws IOException {
+        ArchiveEntry e = new ArchiveEntry(root, fileName, compression != null, encrypt, isLiveUpdate);
+        e.compression = compression;
         if (!contains(e)) {
             lookup.add(e.relName);
             entries.add(e);
         }
     }
 
+    /**
+     * Add a resource to the archive
+     * @param fileName path to the resource
+     * @param compression codec to compress the resource with, or null to store it uncompressed
+     * @param encrypt true if the resource should be encrypted
+     */
+    public void add(String fileName, ResourceCompression compression, boolean encrypt) throws IOException {
+        add(fileName, compression, encrypt, false);
+    }
+
     public void add(String fileName, boolean compress, boolean encrypt) throws IOException {
-        add(fileName, compress, encrypt, false);
+        add(fileName, compress ? defaultCompression : null, encrypt, false);
     }
 
     public void add(String fileName) throws IOException {
-        add(fileName, false, false, false);
+        add(fileName, null, false, false);
     }
 
     private boolean contains(ArchiveEntry e) {
         return lookup.contains(e.relName);
     }
 
+    /**
+     * Reuse the data of resources that haven't changed since the previous archive
+     * instead of compressing and hashing them again. Encrypted resources are always processed.
+     * @param archiveCache cache to find the previous data in and to store the new data in,
+     * or null to process all resources
+     */
+    public void setArchiveCache(ArchiveCache archiveCache) {
+        this.archiveCache = archiveCache;
+    }
+
     public ArchiveEntry getArchiveEntry(int index) {
         return this.entries.get(index);
     }
@@ -105,10 +151,7 @@ public class ArchiveBuilder {
     }
 
     public byte[] compressResourceData(byte[] buffer) {
-        int maximumCompressedSize = lz4Compressor.maxCompressedLength(buffer.length);
-        byte[] compressedContent = new byte[maximumCompressedSize];
-        int compressedSize = lz4Compressor.compress(buffer, compressedContent);
-        return Arrays.copyOfRange(compressedContent, 0, compressedSize);
+        return defaultCompression.compress(buffer);
     }
 
     public boolean shouldUseCompressedResourceData(byte[] original, byte[] compressed) {
@@ -150,20 +193,12 @@ public class ArchiveBuilder {
         return false;
     }
 
+    // As long as one tree path requires this resource, we cannot exclude it
     public boolean excludeResource(String filepath, List<String> excludedResources) {
-        boolean result = false;
         if (this.manifestBuilder != null) {
-            List<ArrayList<String>> parentChains = this.manifestBuilder.getParentCollections(filepath);
-            for (List<String> parents : parentChains) {
-                boolean excluded = isTreeExcluded(parents, excludedResources);
-                if (!excluded) {
-                    return false; // as long as one tree path requires this resource, we cannot exclude it
-                }
-                result = true;
-            }
+            return this.manifestBuilder.isResourceExcluded(filepath, excludedResources);
         }
-
-        return result;
+        return false;
     }
 
     public void write(RandomAccessFile archiveIndex, RandomAccessFile archiveData, Path resourcePackDirectory, List<String> excludedResources) throws IOException, CompileExceptionError {
@@ -181,55 +216,71 @@ public class ArchiveBuilder {
 
         Collections.sort(entries); // Since it has no hash, it sorts on path
 
-        for (int i = entries.size() - 1; i >= 0; --i) {
-            ArchiveEntry entry = entries.get(i);
-            byte[] buffer = this.loadResourceData(entry.fileName);
-            byte archiveEntryFlags = (byte) entry.flags;
-            int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
-            if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
-                // Compress data
-                byte[] compressed = this.compressResourceData(buffer);
-                if (this.shouldUseCompressedResourceData(buffer, compressed)) {
-                    archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
-                    buffer = compressed;
-                    entry.compressedSize = compressed.length;
+        // Entries are loaded, compressed, encrypted and hashed in parallel, in batches
+        // that are written before the next batch is processed. They are written in the
+        // same order as when built serially, so the output doesn't depend on the executor.
+        final HashAlgorithm hashAlgorithm = manifestBuilder.getResourceHashAlgorithm();
+        FileChannel dataChannel = archiveData.getChannel();
+        boolean[] excluded = new boolean[entries.size()];
+        // Entries with identical data share a single copy of it in the data archive.
+        // Every entry keeps its own index entry and manifest entry.
+        Map<String, ArchiveEntry> writtenData = new HashMap<String, ArchiveEntry>();
+        int next = entries.size() - 1;
+        while (next >= 0) {
+            List<Callable<ProcessedEntry>> jobs = new ArrayList<Callable<ProcessedEntry>>();
+            long pendingBytes = 0;
+            while (next >= 0 && (jobs.isEmpty() || (jobs.size() < MAX_PENDING_ENTRIES && pendingBytes + entries.get(next).size <= MAX_PENDING_BYTES))) {
+                final ArchiveEntry nextEntry = entries.get(next--);
+                jobs.add(new Callable<ProcessedEntry>() {
+                    @Override
+                    public ProcessedEntry call() throws Exception {
+                        return processEntry(nextEntry, hashAlgorithm);
+                    }
+                });
+                pendingBytes += nextEntry.size;
+            }
+            List<ProcessedEntry> batch = processEntries(jobs);
+
+            for (int j = 0; j < batch.size(); ++j) {
+                int i = next + batch.size() - j;
+                ArchiveEntry entry = entries.get(i);
+                ProcessedEntry processed = batch.get(j);
+                byte[] buffer = processed.buffer;
+                int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
+
+                // Add entry to manifest
+                String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
+
+                // Write resource to data archive
+                if (this.excludeResource(normalisedPath, excludedResources)) {
+                    resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
+                    this.writeResourcePack(processed.hexDigest, resourcePackDirectory.toString(), buffer, processed.flags, entry.size);
+                    excluded[i] = true;
                 } else {
-                    entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+                    String dataKey = processed.hexDigest + ":" + processed.flags + ":" + buffer.length;
+                    ArchiveEntry written = writtenData.get(dataKey);
+                    if (written != null) {
+                        entry.resourceOffset = written.resourceOffset;
+                    } else {
+                        alignChannel(dataChannel, this.resourcePadding);
+                        entry.resourceOffset = (int) dataChannel.position();
+                        writeFully(dataChannel, ByteBuffer.wrap(buffer));
+                        writtenData.put(dataKey, entry);
+                    }
                 }
-            }
-
-            // Encrypt data
-            if ((archiveEntryFlags & ArchiveEntry.FLAG_ENCRYPTED) != 0) {
-                buffer = this.encryptResourceData(buffer);
-            }
-
-            // Add entry to manifest
-            String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
 
-            // Calculate hash digest values for resource
-            String hexDigest = null;
-            try {
-                byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
-                entry.hash = new byte[HASH_MAX_LENGTH];
-                System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
-                hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
-            } catch (NoSuchAlgorithmException exception) {
-                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+                // The data is already hashed with the resource hash algorithm of the manifest
+                manifestBuilder.addResourceEntry(normalisedPath, ManifestBuilder.CryptographicOperations.createHashDigest(processed.hashDigest), resourceEntryFlags);
             }
+        }
 
-            // Write resource to data archive
-            if (this.excludeResource(normalisedPath, excludedResources)) {
-                resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
-                this.writeResourcePack(hexDigest, resourcePackDirectory.toString(), buffer, archiveEntryFlags, entry.size);
-                entries.remove(i);
-            } else {
-                alignBuffer(archiveData, this.resourcePadding);
-                entry.resourceOffset = (int) archiveData.getFilePointer();
-                archiveData.write(buffer, 0, buffer.length);
+        List<ArchiveEntry> bundledEntries = new ArrayList<ArchiveEntry>(entries.size());
+        for (int i = 0; i < entries.size(); ++i) {
+            if (!excluded[i]) {
+                bundledEntries.add(entries.get(i));
             }
-
-            manifestBuilder.addResourceEntry(normalisedPath, buffer, resourceEntryFlags);
         }
+        entries = bundledEntries;
 
         Collections.sort(entries); // Since it has a hash, it sorts on hash
 
@@ -276,6 +327,110 @@ public class ArchiveBuilder {
         archiveIndex.write(this.archiveIndexMD5);
     }
 
+    /**
+     * Resource data of an entry, compressed, encrypted and hashed
+     */
+    private static class ProcessedEntry {
+        byte[] buffer;
+        byte flags;
+        byte[] hashDigest;
+        String hexDigest;
+    }
+
+    private ProcessedEntry processEntry(ArchiveEntry entry, HashAlgorithm hashAlgorithm) throws IOException, CompileExceptionError {
+        ResourceCompression compression = entry.compression != null ? entry.compression : defaultCompression;
+        String cacheKey = null;
+        // The encryption plugin and its key aren't known here, so encrypted data is never reused
+        boolean useCache = archiveCache != null && (entry.flags & ArchiveEntry.FLAG_ENCRYPTED) == 0;
+        if (useCache) {
+            cacheKey = archiveCache.getKey(entry, compression, hashAlgorithm);
+            ArchiveCache.CachedData cached = archiveCache.get(cacheKey, entry);
+            if (cached != null) {
+                ProcessedEntry processed = new ProcessedEntry();
+                processed.buffer = cached.data;
+                processed.flags = (byte) entry.flags;
+                if (cached.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
+                    processed.flags = (byte)(processed.flags | ArchiveEntry.FLAG_COMPRESSED);
+                }
+                processed.hashDigest = cached.hash;
+                processed.hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(cached.hash);
+                entry.compressedSize = cached.compressedSize;
+                entry.hash = Arrays.copyOf(cached.hash, HASH_MAX_LENGTH);
+                return processed;
+            }
+        }
+
+        byte[] content = this.loadResourceData(entry.fileName);
+        byte[] buffer = content;
+        byte archiveEntryFlags = (byte) entry.flags;
+        if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
+            // Compress data
+            byte[] compressed = compression.compress(buffer);
+            if (this.shouldUseCompressedResourceData(buffer, compressed)) {
+                archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
+                buffer = compressed;
+                entry.compressedSize = compressed.length;
+            } else {
+                entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+            }
+        }
+
+        // Encrypt data
+        if ((archiveEntryFlags & ArchiveEntry.FLAG_ENCRYPTED) != 0) {
+            buffer = this.encryptResourceData(buffer);
+        }
+
+        // Calculate hash digest values for resource
+        ProcessedEntry processed = new ProcessedEntry();
+        try {
+            byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, hashAlgorithm);
+            entry.hash = new byte[HASH_MAX_LENGTH];
+            System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
+            processed.hashDigest = hashDigest;
+            processed.hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
+            if (useCache) {
+                archiveCache.put(cacheKey, entry, content, hashDigest);
+            }
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        }
+        processed.buffer = buffer;
+        processed.flags = archiveEntryFlags;
+        return processed;
+    }
+
+    private List<ProcessedEntry> processEntries(List<Callable<ProcessedEntry>> jobs) throws IOException, CompileExceptionError {
+        try {
+            return ExecutorUtil.runJobs(executor, jobs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = ExecutorUtil.getCheckedCause(e);
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof CompileExceptionError) {
+                throw (CompileExceptionError) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void alignChannel(FileChannel channel, int align) throws IOException {
+        int pos = (int) channel.position();
+        int newPos = (pos + (align - 1)) & ~(align - 1);
+        if (newPos != pos) {
+            writeFully(channel, ByteBuffer.allocate(newPos - pos));
+        }
+    }
+
     private void alignBuffer(RandomAccessFile outFile, int align) throws IOException {
         int pos = (int) outFile.getFilePointer();
         int newPos = (int) (outFile.getFilePointer() + (align - 1));
@@ -286,6 +441,54 @@ public class ArchiveBuilder {
         }
     }
 
+    /**
+     * Compress the files with each supported codec and print the compression ratio,
+     * and the compression and decompression speed, per resource type
+     */
+    private static void benchmarkCompression(List<File> inputs, PrintStream out) throws IOException {
+        final String[] codecNames = { ResourceCompression.LZ4, ResourceCompression.LZ4HC, ResourceCompression.LZ4HC + ":" + ResourceCompression.LZ4HC_MAX_LEVEL };
+        final int decompressRuns = 5;
+
+        Map<String, List<byte[]>> types = new TreeMap<String, List<byte[]>>();
+        for (File input : inputs) {
+            String ext = FilenameUtils.getExtension(input.getName());
+            List<byte[]> files = types.get(ext);
+            if (files == null) {
+                files = new ArrayList<byte[]>();
+                types.put(ext, files);
+            }
+            files.add(FileUtils.readFileToByteArray(input));
+        }
+
+        out.println(String.format("%-16s %-10s %6s %12s %12s %7s %12s %12s", "type", "codec", "files", "size", "compressed", "ratio", "comp MB/s", "decomp MB/s"));
+        for (Map.Entry<String, List<byte[]>> type : types.entrySet()) {
+            for (String codecName : codecNames) {
+                ResourceCompression codec = ResourceCompression.get(codecName);
+                long size = 0;
+                long compressedSize = 0;
+                long compressTime = 0;
+                long decompressTime = 0;
+                for (byte[] data : type.getValue()) {
+                    long start = System.nanoTime();
+                    byte[] compressed = codec.compress(data);
+                    compressTime += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    for (int i = 0; i < decompressRuns; ++i) {
+                        codec.decompress(compressed, data.length);
+                    }
+                    decompressTime += System.nanoTime() - start;
+                    size += data.length;
+                    compressedSize += compressed.length;
+                }
+                double megabytes = size / (1024.0 * 1024.0);
+                out.println(String.format("%-16s %-10s %6d %12d %12d %7.3f %12.1f %12.1f", type.getKey(), codecName, type.getValue().size(), size, compressedSize,
+                        size > 0 ? (double) compressedSize / size : 1.0,
+                        megabytes / Math.max(compressTime / 1e9, 1e-9),
+                        megabytes * decompressRuns / Math.max(decompressTime / 1e9, 1e-9)));
+            }
+        }
+    }
+
     private static void printUsageAndTerminate(String message) {
         System.err.println("Usage: ArchiveBuilder <root> <output> [-c] <file> [<file> ...]\n");
         System.err.println("  <root>            - directorypath to root of input files (<file>)");
@@ -293,6 +496,7 @@ public class ArchiveBuilder {
         System.err.println("                      Three files (arci, arcd, dmanifest) will be generated.");
         System.err.println("  <file>            - filepath relative to <root> of file to build.");
         System.err.println("  -c                - Compress archive (default false).");
+        System.err.println("  -b                - Print compression ratio and speed per resource type for the supported codecs.");
         if (message != null) {
             System.err.println("\nError: " + message);
         }
@@ -319,6 +523,7 @@ public class ArchiveBuilder {
         }
 
         boolean doCompress = false;
+        boolean doBenchmark = false;
         boolean doOutputManifestHashFile = false;
         List<File> inputs = new ArrayList<File>();
         for (int i = 2; i < args.length; ++i) {
@@ -326,6 +531,8 @@ public class ArchiveBuilder {
                 doCompress = true;
             } else if (args[i].equals("-m")) {
                 doOutputManifestHashFile = true;
+            } else if (args[i].equals("-b")) {
+                doBenchmark = true;
             } else {
                 File currentInput = new File(args[i]);
                 if (!currentInput.isFile()) {
@@ -340,6 +547,10 @@ public class ArchiveBuilder {
             printUsageAndTerminate("There must be at least one file");
         }
 
+        if (doBenchmark) {
+            benchmarkCompression(inputs, System.out);
+        }
+
         // Create manifest and archive
 
         ManifestBuilder manifestBuilder = new ManifestBuilder(doOutputManifestHashFile);
@@ -365,10 +576,10 @@ public class ArchiveBuilder {
             boolean encrypt = (absolutePath.endsWith("luac") || absolutePath.endsWith("scriptc") || absolutePath.endsWith("gui_scriptc") || absolutePath.endsWith("render_scriptc"));
             if (currentInput.getName().startsWith("liveupdate.")){
                 excludedEntries++;
-                archiveBuilder.add(absolutePath, doCompress, encrypt, true);
+                archiveBuilder.add(absolutePath, doCompress ? archiveBuilder.defaultCompression : null, encrypt, true);
             } else {
                 archivedEntries++;
-                archiveBuilder.add(absolutePath, doCompress, encrypt, false);
+                archiveBuilder.add(absolutePath, doCompress ? archiveBuilder.defaultCompression : null, encrypt, false);
             }
             ResourceNode currentNode = new ResourceNode(currentInput.getPath(), absolutePath);
             rootNode.addChild(currentNode);
@@ -0,0 +1,229 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.dynamo.bob.cache.BuildDatabase;
+import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+
+/**
+ * Keeps track of the archive data of the resources in the previous archive, so
+ * that resources that haven't changed since then don't have to be compressed
+ * and hashed again. For each resource the modification time, size and
+ * sha1 of the file is stored together with the hash of its archive data, which
+ * is used to find the data in the previous archive.
+ *
+ * Entries are keyed by path and archive settings, and the cache is cleared when
+ * bob is updated, so the reused data is identical to what building it again
+ * would produce. Encrypted entries are not cached, as the data also depends on
+ * the encryption plugin and key.
+ */
+public class ArchiveCache {
+
+    private static final String VERSION_KEY = "\0version";
+    private static final int SOURCE_DIGEST_LENGTH = 16 + 20; // mtime, size, sha1
+
+    /**
+     * Archive data of a resource, as found in the previous archive
+     */
+    public static class CachedData {
+        public byte[] data;
+        public byte[] hash;
+        public int compressedSize;
+    }
+
+    private final BuildDatabase database;
+    private final ArchiveReader previousArchive;
+    private final Set<String> usedKeys = Collections.synchronizedSet(new HashSet<String>());
+    private int reusedEntries = 0;
+
+    private ArchiveCache(BuildDatabase database, ArchiveReader previousArchive) {
+        this.database = database;
+        this.previousArchive = previousArchive;
+    }
+
+    /**
+     * Open the cache
+     * @param cacheFile file to store the cache in
+     * @param previousIndex index file of the previous archive
+     * @param previousData data file of the previous archive
+     * @return the cache, empty if the previous archive or the cache doesn't exist or can't be read
+     */
+    public static ArchiveCache open(File cacheFile, File previousIndex, File previousData) {
+        BuildDatabase database;
+        try {
+            database = BuildDatabase.open(cacheFile);
+        } catch (IOException e) {
+            cacheFile.delete();
+            try {
+                database = BuildDatabase.open(cacheFile);
+            } catch (IOException e2) {
+                database = new BuildDatabase();
+            }
+        }
+
+        byte[] version = EngineVersion.sha1.getBytes(StandardCharsets.UTF_8);
+        if (!Arrays.equals(version, database.get(VERSION_KEY))) {
+            for (String path : database.getPaths()) {
+                database.remove(path);
+            }
+            database.put(VERSION_KEY, version);
+        }
+
+        ArchiveReader previousArchive = null;
+        if (previousIndex.isFile() && previousData.isFile()) {
+            previousArchive = new ArchiveReader(previousIndex.getAbsolutePath(), previousData.getAbsolutePath(), null);
+            try {
+                previousArchive.read();
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(previousArchive);
+                previousArchive = null;
+            }
+        }
+        return new ArchiveCache(database, previousArchive);
+    }
+
+    private static void closeQuietly(ArchiveReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+
+    /**
+     * Get the key of an entry, before it is processed. Entries whose keys are not
+     * requested are removed from the cache when it is closed.
+     * @param entry entry to get the key of
+     * @param compression codec used to compress the entry
+     * @param hashAlgorithm algorithm used to hash archive data
+     * @return key to get and put the entry with
+     */
+    public String getKey(ArchiveEntry entry, ResourceCompression compression, HashAlgorithm hashAlgorithm) {
+        String codec = entry.compressedSize == ArchiveEntry.FLAG_UNCOMPRESSED ? "none" : compression.getName();
+        String key = entry.relName + "\0" + codec + "\0" + entry.flags + "\0" + hashAlgorithm.getNumber();
+        usedKeys.add(key);
+        return key;
+    }
+
+    private static byte[] sha1(byte[] data) {
+        try {
+            return ManifestBuilder.CryptographicOperations.hash(data, HashAlgorithm.HASH_SHA1);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get the archive data of an entry from the previous archive
+     * @param key key of the entry
+     * @param entry entry to get the data of
+     * @return the data or null if the entry has changed or wasn't in the previous archive
+     */
+    public CachedData get(String key, ArchiveEntry entry) throws IOException {
+        if (previousArchive == null) {
+            return null;
+        }
+        byte[] value = database.get(key);
+        if (value == null || value.length <= SOURCE_DIGEST_LENGTH) {
+            return null;
+        }
+
+        // compare the modification time and size first, and the content if they differ
+        File file = new File(entry.fileName);
+        ByteBuffer source = ByteBuffer.wrap(value);
+        long mtime = source.getLong();
+        long size = source.getLong();
+        if (mtime != file.lastModified() || size != file.length()) {
+            byte[] sha1 = Arrays.copyOfRange(value, 16, SOURCE_DIGEST_LENGTH);
+            if (size != file.length() || !Arrays.equals(sha1, sha1(Files.readAllBytes(file.toPath())))) {
+                return null;
+            }
+        }
+
+        byte[] hash = Arrays.copyOfRange(value, SOURCE_DIGEST_LENGTH, value.length);
+        ArchiveEntry previous = previousArchive.findEntry(hash);
+        if (previous == null || previous.size != entry.size) {
+            return null;
+        }
+        CachedData cached = new CachedData();
+        ByteBuffer data = previousArchive.getEntryData(previous);
+        cached.data = new byte[data.remaining()];
+        data.get(cached.data);
+        cached.hash = hash;
+        cached.compressedSize = previous.compressedSize;
+        synchronized (this) {
+            ++reusedEntries;
+        }
+        return cached;
+    }
+
+    /**
+     * Store the hash of the archive data of an entry
+     * @param key key of the entry
+     * @param entry entry that was added to the archive
+     * @param content the uncompressed content of the entry
+     * @param hash hash of the archive data of the entry
+     */
+    public void put(String key, ArchiveEntry entry, byte[] content, byte[] hash) {
+        File file = new File(entry.fileName);
+        ByteBuffer value = ByteBuffer.allocate(SOURCE_DIGEST_LENGTH + hash.length);
+        value.putLong(file.lastModified());
+        value.putLong(file.length());
+        value.put(sha1(content));
+        value.put(hash);
+        database.put(key, value.array());
+    }
+
+    /**
+     * Get the number of entries found in the previous archive
+     * @return number of reused entries
+     */
+    public synchronized int getReusedEntryCount() {
+        return reusedEntries;
+    }
+
+    /**
+     * Close the previous archive, remove the entries that weren't used since the
+     * cache was opened and save the cache. The previous archive can be replaced after this.
+     */
+    public void close() throws IOException {
+        if (previousArchive != null) {
+            previousArchive.close();
+        }
+        try {
+            for (String path : database.getPaths()) {
+                if (!path.equals(VERSION_KEY) && !usedKeys.contains(path)) {
+                    database.remove(path);
+                }
+            }
+            if (database.isFileBacked()) {
+                database.commit();
+            }
+        } finally {
+            database.close();
+        }
+    }
+}
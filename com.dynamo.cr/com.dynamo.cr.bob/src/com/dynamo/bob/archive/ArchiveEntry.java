@@ -33,6 +33,8 @@ public class ArchiveEntry implements Comparable<ArchiveEntry> {
     public String relName;
     public String fileName;
     public byte[] hash = null;
+    // Codec to compress with, or null for the default one
+    public ResourceCompression compression = null;
 
     public ArchiveEntry(String fileName) throws IOException {
         this.fileName = fileName;
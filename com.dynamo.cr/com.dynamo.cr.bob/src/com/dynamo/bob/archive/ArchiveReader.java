@@ -19,14 +19,26 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import com.dynamo.bob.util.BufferUtil;
 import com.dynamo.liveupdate.proto.Manifest.ManifestData;
 import com.dynamo.liveupdate.proto.Manifest.ManifestFile;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntry;
 
+/**
+ * Reads an archive index and data file. Both files are memory mapped, entries
+ * are looked up by hash with a binary search of the sorted hash table and entry
+ * data is accessed without copying it.
+ */
 public class ArchiveReader {
     public static final int VERSION = 4;
     public static final int HASH_BUFFER_BYTESIZE = 64; // 512 bits
@@ -41,8 +53,8 @@ public class ArchiveReader {
     private final String archiveIndexFilepath;
     private final String archiveDataFilepath;
     private final String manifestFilepath;
-    private RandomAccessFile archiveIndexFile = null;
-    private RandomAccessFile archiveDataFile = null;
+    private MappedByteBuffer archiveIndex = null;
+    private MappedByteBuffer archiveData = null;
     private ManifestFile manifestFile = null;
 
     public ArchiveReader(String archiveIndexFilepath, String archiveDataFilepath, String manifestFilepath) {
@@ -51,91 +63,97 @@ public class ArchiveReader {
         this.manifestFilepath = manifestFilepath;
     }
 
+    private static MappedByteBuffer map(String filepath) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
     public void read() throws IOException {
-    	this.archiveIndexFile = new RandomAccessFile(this.archiveIndexFilepath, "r");
-        this.archiveDataFile = new RandomAccessFile(this.archiveDataFilepath, "r");
-        
-        this.archiveIndexFile.seek(0);
-        this.archiveDataFile.seek(0);
-        
+        this.archiveIndex = map(this.archiveIndexFilepath);
+        this.archiveData = map(this.archiveDataFilepath);
+
         if (this.manifestFilepath != null) {
-	        InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
-	        this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
-	        manifestInputStream.close();
+            InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
+            try {
+                this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
+            } finally {
+                manifestInputStream.close();
+            }
         }
 
         // Version
-        int indexVersion = this.archiveIndexFile.readInt();
+        int indexVersion = this.archiveIndex.getInt(0);
         if (indexVersion == ArchiveReader.VERSION) {
             readArchiveData();
         } else {
             throw new IOException("Unsupported archive index version: " + indexVersion);
         }
     }
-    
-    private boolean matchHash(byte[] a, byte[] b, int hlen) {
-    	if (a.length < hlen || b.length < hlen) {
-    		return false;
-    	}
-    	
-    	for (int i = 0; i < hlen; ++i) {
-    		if (a[i] != b[i]) {
-    			return false;
-    		}
-    	}
-    	
-    	return true;
+
+    // Resource urls by hash. Resources with the same content have the same hash,
+    // their urls are listed in manifest order.
+    private Map<ByteBuffer, List<String>> readResourceUrls() throws IOException {
+        Map<ByteBuffer, List<String>> urls = new HashMap<ByteBuffer, List<String>>();
+        ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
+        for (ResourceEntry resource : manifestData.getResourcesList()) {
+            byte[] hash = resource.getHash().getData().toByteArray();
+            if (hash.length < this.hashLength) {
+                continue;
+            }
+            ByteBuffer key = ByteBuffer.wrap(hash, 0, this.hashLength).slice();
+            List<String> hashUrls = urls.get(key);
+            if (hashUrls == null) {
+                hashUrls = new ArrayList<String>(1);
+                urls.put(key, hashUrls);
+            }
+            hashUrls.add(resource.getUrl());
+        }
+        return urls;
     }
 
     private void readArchiveData() throws IOException {
         // INDEX
-        archiveIndexFile.readInt(); // Pad
-        archiveIndexFile.readLong(); // UserData, should be 0
-        entryCount = archiveIndexFile.readInt();
-        entryOffset = archiveIndexFile.readInt();
-        hashOffset = archiveIndexFile.readInt();
-        hashLength = archiveIndexFile.readInt();
+        // Version(4) Pad(4) UserData(8), UserData should be 0
+        entryCount = archiveIndex.getInt(16);
+        entryOffset = archiveIndex.getInt(20);
+        hashOffset = archiveIndex.getInt(24);
+        hashLength = archiveIndex.getInt(28);
 
         entries = new ArrayList<ArchiveEntry>(entryCount);
 
-        // Hashes are stored linearly in memory instead of within each entry, so the hashes are read in a separate loop.
-        // Once the hashes are read, the rest of the entries are read.
+        // some tests do not initialize this.manifestFile
+        Map<ByteBuffer, List<String>> urls = this.manifestFile != null ? readResourceUrls() : null;
+        Map<ByteBuffer, Integer> urlsUsed = new HashMap<ByteBuffer, Integer>();
 
-        ManifestData manifestData = null;
-        if (this.manifestFile != null) {    // some tests do not initialize this.manifestFile
-            manifestData = ManifestData.parseFrom(this.manifestFile.getData());
-        }
-
-        // Read entry hashes
-        archiveIndexFile.seek(hashOffset);
+        // Hashes are stored linearly in memory instead of within each entry
+        ByteBuffer index = archiveIndex.duplicate();
         for (int i = 0; i < entryCount; ++i) {
-            archiveIndexFile.seek(hashOffset + i * HASH_BUFFER_BYTESIZE);
             ArchiveEntry e = new ArchiveEntry("");
             e.hash = new byte[HASH_BUFFER_BYTESIZE];
-            archiveIndexFile.read(e.hash, 0, hashLength);
-
-            if (this.manifestFile != null) {
-                for (ResourceEntry resource : manifestData.getResourcesList()) {
-	            	if (matchHash(e.hash, resource.getHash().getData().toByteArray(), this.hashLength)) {
-	            		e.fileName = resource.getUrl();
-	            		e.relName = resource.getUrl();
-                        break;
-	            	}
-	            }
+            index.position(hashOffset + i * HASH_BUFFER_BYTESIZE);
+            index.get(e.hash, 0, hashLength);
+
+            if (urls != null) {
+                ByteBuffer key = ByteBuffer.wrap(e.hash, 0, hashLength).slice();
+                List<String> hashUrls = urls.get(key);
+                if (hashUrls != null) {
+                    Integer used = urlsUsed.get(key);
+                    int url = used != null ? Math.min(used + 1, hashUrls.size() - 1) : 0;
+                    urlsUsed.put(key, url);
+                    e.fileName = hashUrls.get(url);
+                    e.relName = hashUrls.get(url);
+                }
             }
-            
-            entries.add(e);
-        }
 
-        // Read entries
-        archiveIndexFile.seek(entryOffset);
-        for (int i=0; i<entryCount; ++i) {
-            ArchiveEntry e = entries.get(i);
+            int entry = entryOffset + i * 16;
+            e.resourceOffset = archiveIndex.getInt(entry);
+            e.size = archiveIndex.getInt(entry + 4);
+            e.compressedSize = archiveIndex.getInt(entry + 8);
+            e.flags = archiveIndex.getInt(entry + 12);
 
-            e.resourceOffset = archiveIndexFile.readInt();
-            e.size = archiveIndexFile.readInt();
-            e.compressedSize = archiveIndexFile.readInt();
-            e.flags = archiveIndexFile.readInt();
+            entries.add(e);
         }
     }
 
@@ -143,11 +161,104 @@ public class ArchiveReader {
         return entries;
     }
 
+    private int compareHash(int index, byte[] hash) {
+        int offset = hashOffset + index * HASH_BUFFER_BYTESIZE;
+        for (int i = 0; i < hashLength; ++i) {
+            int a = archiveIndex.get(offset + i) & 0xff;
+            int b = i < hash.length ? hash[i] & 0xff : 0;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Find an entry by the hash of its content
+     * @param hash resource hash, as listed in the manifest
+     * @return the entry or null if there is no entry with the hash
+     */
+    public ArchiveEntry findEntry(byte[] hash) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareHash(mid, hash);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entries.get(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the data of an entry as it is stored in the archive, i.e. compressed
+     * and encrypted if the entry is. The buffer is a read only view of the mapped
+     * data file, which is valid until the reader is closed.
+     * @param entry entry to get the data of
+     * @return entry data
+     */
+    public ByteBuffer getEntryData(ArchiveEntry entry) {
+        boolean compressed = entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED;
+        int readSize = compressed ? entry.compressedSize : entry.size;
+        ByteBuffer data = archiveData.asReadOnlyBuffer();
+        data.position(entry.resourceOffset);
+        data.limit(entry.resourceOffset + readSize);
+        return data.slice();
+    }
+
+    /**
+     * Read the content of an entry into a buffer. Compressed entries are decompressed
+     * straight from the mapped data file, encrypted entries are read as they are stored
+     * in the archive. The same buffer can be reused for several entries.
+     * @param entry entry to read
+     * @param dest buffer to read into, must have at least entry.size bytes remaining
+     * for compressed entries. The position of the buffer is advanced.
+     */
+    public void readEntryContent(ArchiveEntry entry, ByteBuffer dest) {
+        ByteBuffer data = getEntryData(entry);
+        boolean compressed = entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED;
+        if (compressed && (entry.flags & ArchiveEntry.FLAG_ENCRYPTED) == 0) {
+            // all codecs produce LZ4 blocks
+            ByteBuffer content = dest.duplicate();
+            content.limit(content.position() + entry.size);
+            ResourceCompression.get(ResourceCompression.DEFAULT).decompress(data, content);
+            dest.position(dest.position() + entry.size);
+        } else {
+            dest.put(data);
+        }
+    }
+
+    /**
+     * Read entry.size bytes of an entry as they are stored in the archive, i.e.
+     * compressed and encrypted if the entry is. Use {@link #getDecodedEntryContent}
+     * to get the content of compressed entries.
+     * @param entry entry to read
+     * @return stored entry data
+     */
     public byte[] getEntryContent(ArchiveEntry entry) throws IOException {
         byte[] buf = new byte[entry.size];
-        archiveDataFile.seek(entry.resourceOffset);
-        archiveDataFile.read(buf, 0, entry.size);
+        ByteBuffer data = archiveData.duplicate();
+        data.position(entry.resourceOffset);
+        data.get(buf, 0, Math.min(entry.size, data.remaining()));
+        return buf;
+    }
 
+    /**
+     * Read the content of an entry. Compressed entries are decompressed, encrypted
+     * entries are returned as they are stored in the archive.
+     * @param entry entry to read
+     * @return entry content
+     */
+    public byte[] getDecodedEntryContent(ArchiveEntry entry) throws IOException {
+        boolean compressed = entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED;
+        int size = compressed && (entry.flags & ArchiveEntry.FLAG_ENCRYPTED) == 0 ? entry.size : getEntryData(entry).remaining();
+        byte[] buf = new byte[size];
+        readEntryContent(entry, ByteBuffer.wrap(buf));
         return buf;
     }
 
@@ -160,12 +271,9 @@ public class ArchiveReader {
             ArchiveEntry entry = entries.get(i);
             String outdir = path + entry.fileName;
             System.out.println("> " + entry.fileName);
-            int readSize = entry.compressedSize;
 
             // extract
-            byte[] buf = new byte[entry.size];
-            archiveDataFile.seek(entry.resourceOffset);
-            archiveDataFile.read(buf, 0, readSize);
+            byte[] buf = getDecodedEntryContent(entry);
 
             File fo = new File(outdir);
             fo.getParentFile().mkdirs();
@@ -175,15 +283,13 @@ public class ArchiveReader {
         }
     }
 
+    /**
+     * Close the reader. Buffers returned by {@link #getEntryData} must not be used after this.
+     */
     public void close() throws IOException {
-        if (archiveIndexFile != null) {
-            archiveIndexFile.close();
-            archiveIndexFile = null;
-        }
-
-        if (archiveDataFile != null) {
-            archiveDataFile.close();
-            archiveDataFile = null;
-        }
+        BufferUtil.unmap(archiveIndex);
+        BufferUtil.unmap(archiveData);
+        archiveIndex = null;
+        archiveData = null;
     }
 }
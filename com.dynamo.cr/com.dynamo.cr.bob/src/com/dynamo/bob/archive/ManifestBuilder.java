@@ -16,7 +16,6 @@ package com.dynamo.bob.archive;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -31,9 +30,12 @@ import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -58,6 +60,7 @@ import com.dynamo.liveupdate.proto.Manifest.ManifestHeader;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntry;
 import com.dynamo.liveupdate.proto.Manifest.SignAlgorithm;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 
 public class ManifestBuilder {
 
@@ -67,8 +70,22 @@ public class ManifestBuilder {
 
         }
 
-        public static byte[] hash(byte[] data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
-            MessageDigest messageDigest = null;
+        // Looking up a MessageDigest is slow compared to hashing a small resource,
+        // so each thread keeps the ones it has used
+        private static final ThreadLocal<EnumMap<HashAlgorithm, MessageDigest>> messageDigests = new ThreadLocal<EnumMap<HashAlgorithm, MessageDigest>>() {
+            @Override
+            protected EnumMap<HashAlgorithm, MessageDigest> initialValue() {
+                return new EnumMap<HashAlgorithm, MessageDigest>(HashAlgorithm.class);
+            }
+        };
+
+        private static MessageDigest getMessageDigest(HashAlgorithm algorithm) throws NoSuchAlgorithmException {
+            EnumMap<HashAlgorithm, MessageDigest> threadMessageDigests = messageDigests.get();
+            MessageDigest messageDigest = threadMessageDigests.get(algorithm);
+            if (messageDigest != null) {
+                return messageDigest;
+            }
+
             if (algorithm.equals(HashAlgorithm.HASH_MD5)) {
                 messageDigest = MessageDigest.getInstance("MD5");
             } else if (algorithm.equals(HashAlgorithm.HASH_SHA1)) {
@@ -80,7 +97,13 @@ public class ManifestBuilder {
             } else {
                 throw new NoSuchAlgorithmException("The algorithm specified is not supported!");
             }
+            threadMessageDigests.put(algorithm, messageDigest);
+            return messageDigest;
+        }
 
+        public static byte[] hash(byte[] data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
+            MessageDigest messageDigest = getMessageDigest(algorithm);
+            messageDigest.reset();
             messageDigest.update(data);
             return messageDigest.digest();
         }
@@ -158,6 +181,10 @@ public class ManifestBuilder {
 
         public static HashDigest createHashDigest(byte[] data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
             byte[] hashDigest = CryptographicOperations.hash(data, algorithm);
+            return createHashDigest(hashDigest);
+        }
+
+        public static HashDigest createHashDigest(byte[] hashDigest) {
             HashDigest.Builder builder = HashDigest.newBuilder();
             builder.setData(ByteString.copyFrom(hashDigest));
             return builder.build();
@@ -273,6 +300,140 @@ public class ManifestBuilder {
 
     }
 
+    // The resources of the project with a single node per resource, built from
+    // the tree of ResourceNodes which has a node for every place a resource is
+    // referenced from. Paths are interned to ids so that sets of resources can
+    // be kept in bitsets.
+    private static class ResourceGraph {
+        private final HashMap<String, Integer> pathToId = new HashMap<>();
+        private final List<String> paths = new ArrayList<>();
+        private int[][] children = new int[16][];
+        private int[] childCount = new int[16];
+        private final int rootId;
+
+        ResourceGraph(ResourceNode root) {
+            HashSet<Long> edges = new HashSet<>();
+            rootId = intern(root.relativeFilepath);
+            ArrayDeque<ResourceNode> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                ResourceNode node = stack.pop();
+                int id = pathToId.get(node.relativeFilepath);
+                for (ResourceNode child : node.getChildren()) {
+                    int childId = intern(child.relativeFilepath);
+                    if (edges.add(((long) id << 32) | childId)) {
+                        addEdge(id, childId);
+                    }
+                    stack.push(child);
+                }
+            }
+        }
+
+        private int intern(String path) {
+            Integer id = pathToId.get(path);
+            if (id != null) {
+                return id;
+            }
+            int newId = paths.size();
+            pathToId.put(path, newId);
+            paths.add(path);
+            if (newId == children.length) {
+                children = Arrays.copyOf(children, newId * 2);
+                childCount = Arrays.copyOf(childCount, newId * 2);
+            }
+            children[newId] = new int[2];
+            return newId;
+        }
+
+        private void addEdge(int parent, int child) {
+            int count = childCount[parent];
+            if (count == children[parent].length) {
+                children[parent] = Arrays.copyOf(children[parent], count * 2);
+            }
+            children[parent][count] = child;
+            childCount[parent] = count + 1;
+        }
+
+        int getId(String path) {
+            Integer id = pathToId.get(path);
+            return id != null ? id : -1;
+        }
+
+        // All resources that can be reached from the root without passing through
+        // an excluded collection or collection proxy. The excluded resources
+        // themselves are reached, but not what they reference.
+        BitSet getReachable(List<String> excludedResources) {
+            BitSet excluded = new BitSet(paths.size());
+            for (String path : excludedResources) {
+                int id = getId(path);
+                if (id != -1 && (path.endsWith("collectionproxyc") || path.endsWith("collectionc"))) {
+                    excluded.set(id);
+                }
+            }
+
+            BitSet reached = new BitSet(paths.size());
+            int[] stack = new int[paths.size()];
+            int stackSize = 0;
+            reached.set(rootId);
+            stack[stackSize++] = rootId;
+            while (stackSize > 0) {
+                int id = stack[--stackSize];
+                if (excluded.get(id)) {
+                    continue;
+                }
+                for (int i = 0; i < childCount[id]; ++i) {
+                    int child = children[id][i];
+                    if (!reached.get(child)) {
+                        reached.set(child);
+                        stack[stackSize++] = child;
+                    }
+                }
+            }
+            return reached;
+        }
+
+        // Everything referenced by a resource, depth first and without duplicates.
+        // What collection proxies reference is left out.
+        List<String> getDependants(int id) {
+            List<String> dependants = new ArrayList<>();
+            BitSet added = new BitSet(paths.size());
+            int[] nodeStack = new int[16];
+            int[] childStack = new int[16];
+            int stackSize = 0;
+            nodeStack[stackSize] = id;
+            childStack[stackSize] = 0;
+            ++stackSize;
+            while (stackSize > 0) {
+                int node = nodeStack[stackSize - 1];
+                int childIndex = childStack[stackSize - 1];
+                if (childIndex == childCount[node]) {
+                    --stackSize;
+                    continue;
+                }
+                childStack[stackSize - 1] = childIndex + 1;
+
+                int child = children[node][childIndex];
+                if (added.get(child)) {
+                    continue;
+                }
+                added.set(child);
+                String path = paths.get(child);
+                dependants.add(path);
+
+                if (!path.endsWith("collectionproxyc")) {
+                    if (stackSize == nodeStack.length) {
+                        nodeStack = Arrays.copyOf(nodeStack, stackSize * 2);
+                        childStack = Arrays.copyOf(childStack, stackSize * 2);
+                    }
+                    nodeStack[stackSize] = child;
+                    childStack[stackSize] = 0;
+                    ++stackSize;
+                }
+            }
+            return dependants;
+        }
+    }
+
     public static final int CONST_MAGIC_NUMBER = 0x43cb6d06;
     public static final int CONST_VERSION = 0x04;
 
@@ -287,31 +448,20 @@ public class ManifestBuilder {
     private byte[] manifestDataHash = null;
     private byte[] archiveIdentifier = new byte[ArchiveBuilder.MD5_HASH_DIGEST_BYTE_LENGTH];
     private Set<String> excludedResources = new HashSet<>();
-    private HashMap<String, ResourceNode> pathToNode = new HashMap<>();
+    private ResourceGraph resourceGraph = null; // We build it at first request
+    private List<String> reachableExcludedResources = null;
+    private BitSet reachableResources = null;
     private HashMap<String, List<String>> pathToDependants = new HashMap<>();
     private HashMap<String, ResourceEntry> urlToResource = new HashMap<>();
     private HashMap<String, List<ResourceNode>> pathToOccurrances = null; // We build it at first request
     private Set<HashDigest> supportedEngineVersions = new HashSet<HashDigest>();
     private Set<ResourceEntry> resourceEntries = new TreeSet<ResourceEntry>(new Comparator<ResourceEntry>() {
         // We need to make sure the entries are sorted properly in order to do the binary search
-        private int compare(byte[] left, byte[] right) {
-            for (int i = 0, j = 0; i < left.length && j < right.length; i++, j++) {
-                int a = (left[i] & 0xff);
-                int b = (right[j] & 0xff);
-                if (a != b) {
-                    return a - b;
-                }
-            }
-            return left.length - right.length;
-        }
-
         public int compare(ResourceEntry s1, ResourceEntry s2) {
             // We want a set sorted on hashes, so we can do binary search at runtime
 
-            // byte compare, because java does not have unsigned types
-            byte[] s1_bytes = ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(s1.getUrlHash()).array();
-            byte[] s2_bytes = ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(s2.getUrlHash()).array();
-            return compare(s1_bytes, s2_bytes);
+            // unsigned compare, the same order as comparing the big endian bytes of the hashes
+            return Long.compareUnsigned(s1.getUrlHash(), s2.getUrlHash());
         }
     });
 
@@ -353,6 +503,10 @@ public class ManifestBuilder {
 
     public void setRoot(ResourceNode root) {
         this.root = root;
+        this.resourceGraph = null;
+        this.reachableResources = null;
+        this.pathToOccurrances = null;
+        this.pathToDependants.clear();
     }
 
     public ResourceNode getRoot() {
@@ -402,18 +556,23 @@ public class ManifestBuilder {
 
     public void addResourceEntry(String url, byte[] data, int flags) throws IOException {
         try {
-            ResourceEntry.Builder builder = ResourceEntry.newBuilder();
-            builder.setUrl(url);
-            builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
             HashDigest hash = CryptographicOperations.createHashDigest(data, this.resourceHashAlgorithm);
-            builder.setHash(hash);
-            builder.setFlags(flags);
-            this.resourceEntries.add(builder.buildPartial());
+            addResourceEntry(url, hash, flags);
         } catch (NoSuchAlgorithmException exception) {
             throw new IOException("Unable to create Manifest, hashing algorithm is not supported!");
         }
     }
 
+    // For resources that are already hashed with the resource hash algorithm, e.g. when archived
+    public void addResourceEntry(String url, HashDigest hash, int flags) {
+        ResourceEntry.Builder builder = ResourceEntry.newBuilder();
+        builder.setUrl(url);
+        builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
+        builder.setHash(hash);
+        builder.setFlags(flags);
+        this.resourceEntries.add(builder.buildPartial());
+    }
+
     private void buildResourceOccurrancesMap(ResourceNode node) {
         // The resource may occur at many instances in the tree
         // This map contains the mapping url -> occurrances (i.e. nodes)
@@ -448,23 +607,49 @@ public class ManifestBuilder {
         if (candidates == null)
             return result;
 
-        int i = 0;
-        while (!candidates.isEmpty()) {
-            ResourceNode current = candidates.remove(0).getParent();
-            result.add(new ArrayList<String>());
+        for (ResourceNode candidate : candidates) {
+            ResourceNode current = candidate.getParent();
+            ArrayList<String> parents = new ArrayList<String>();
             while (current != null) {
                 if (current.relativeFilepath.endsWith("collectionproxyc") ||
                     current.relativeFilepath.endsWith("collectionc")) {
-                    result.get(i).add(current.relativeFilepath);
+                    parents.add(current.relativeFilepath);
                 }
 
                 current = current.getParent();
             }
-            ++i;
+            result.add(parents);
         }
         return result;
     }
 
+    private ResourceGraph getResourceGraph() {
+        if (resourceGraph == null && root != null) {
+            resourceGraph = new ResourceGraph(root);
+        }
+        return resourceGraph;
+    }
+
+    // A resource is excluded if every place it is referenced from is inside an
+    // excluded collection or collection proxy.
+    // What can be reached is calculated once for a list of excluded resources,
+    // so each query is a lookup regardless of the size of the project.
+    public boolean isResourceExcluded(String filepath, List<String> excludedResources) {
+        ResourceGraph graph = getResourceGraph();
+        if (graph == null) {
+            return false;
+        }
+        int id = graph.getId(filepath);
+        if (id == -1) {
+            return false;
+        }
+        if (reachableResources == null || !excludedResources.equals(reachableExcludedResources)) {
+            reachableResources = graph.getReachable(excludedResources);
+            reachableExcludedResources = new ArrayList<String>(excludedResources);
+        }
+        return !reachableResources.get(id);
+    }
+
     public List<String> getDependants(String filepath) throws IOException {
         /* Once a candidate has been found the children, the children, and so
            on are added to the list of dependants. If a CollectionProxy is
@@ -478,9 +663,10 @@ public class ManifestBuilder {
            LiveUpdate) before that CollectionProxy can be loaded.
         */
 
-        ResourceNode candidate = pathToNode.get(filepath);
+        ResourceGraph graph = getResourceGraph();
+        int id = graph != null ? graph.getId(filepath) : -1;
 
-        if (candidate == null)
+        if (id == -1)
             return new ArrayList<String>();
 
         List<String> dependants = pathToDependants.get(filepath);
@@ -488,15 +674,7 @@ public class ManifestBuilder {
             return dependants;
         }
 
-        dependants = new ArrayList<String>();
-
-        for (ResourceNode child : candidate.getChildren()) {
-            dependants.add(child.relativeFilepath);
-
-            if (!child.relativeFilepath.endsWith("collectionproxyc")) {
-                dependants.addAll(getDependants(child.relativeFilepath));
-            }
-        }
+        dependants = graph.getDependants(id);
 
         pathToDependants.put(filepath, dependants);
 
@@ -521,13 +699,6 @@ public class ManifestBuilder {
         return builder.build();
     }
 
-    private void buildPathToNodeMap(ResourceNode node) {
-        pathToNode.put(node.relativeFilepath, node);
-        for (ResourceNode child : node.getChildren()) {
-            buildPathToNodeMap(child);
-        }
-    }
-
     private void buildUrlToResourceMap(Set<ResourceEntry> entries) throws IOException {
         for (ResourceEntry entry : entries) {
             if (entry.hasHash()) {
@@ -552,7 +723,6 @@ public class ManifestBuilder {
         ManifestHeader manifestHeader = this.buildManifestHeader();
         builder.setHeader(manifestHeader);
 
-        buildPathToNodeMap(getRoot());
         buildUrlToResourceMap(this.resourceEntries);
 
         builder.addAllEngineVersions(this.supportedEngineVersions);
@@ -600,16 +770,17 @@ public class ManifestBuilder {
     public ManifestFile buildManifestFile() throws IOException {
         ManifestFile.Builder builder = ManifestFile.newBuilder();
 
-        ManifestData manifestData = this.buildManifestData();
-        builder.setData(ByteString.copyFrom(manifestData.toByteArray()));
+        // Serialized once, for the payload, the signature and the hash
+        byte[] manifestData = this.buildManifestData().toByteArray();
+        builder.setData(UnsafeByteOperations.unsafeWrap(manifestData));
         builder.setArchiveIdentifier(ByteString.copyFrom(this.archiveIdentifier));
         PrivateKey privateKey = null;
         try {
             privateKey = CryptographicOperations.loadPrivateKey(this.privateKeyFilepath, this.signatureSignAlgorithm);
-            byte[] signature = CryptographicOperations.sign(manifestData.toByteArray(), this.signatureHashAlgorithm, this.signatureSignAlgorithm, privateKey);
+            byte[] signature = CryptographicOperations.sign(manifestData, this.signatureHashAlgorithm, this.signatureSignAlgorithm, privateKey);
             builder.setSignature(ByteString.copyFrom(signature));
             if (this.outputManifestHash) {
-                this.manifestDataHash = CryptographicOperations.hash(manifestData.toByteArray(), this.signatureHashAlgorithm);
+                this.manifestDataHash = CryptographicOperations.hash(manifestData, this.signatureHashAlgorithm);
             }
         } catch (NoSuchAlgorithmException exception) {
             throw new IOException("Unable to create ManifestFile, hashing algorithm is not supported!");
@@ -0,0 +1,184 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Compression codec for archive resources. The codecs trade compression speed
+ * for ratio but all of them produce LZ4 blocks, which is the format the engine
+ * decompresses, so the codec doesn't have to be stored in the archive.
+ * Codecs are thread safe.
+ */
+public abstract class ResourceCompression {
+
+    public static final String LZ4 = "lz4";
+    public static final String LZ4HC = "lz4hc";
+
+    public static final int LZ4HC_MIN_LEVEL = 1;
+    public static final int LZ4HC_MAX_LEVEL = 17;
+    public static final int LZ4HC_DEFAULT_LEVEL = 9;
+
+    /**
+     * Codec used when nothing else is specified
+     */
+    public static final String DEFAULT = LZ4HC;
+
+    private static class LZ4Compression extends ResourceCompression {
+        private final String name;
+        private final LZ4Compressor compressor;
+        private final LZ4FastDecompressor decompressor;
+
+        LZ4Compression(String name, LZ4Compressor compressor) {
+            this.name = name;
+            this.compressor = compressor;
+            this.decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public byte[] compress(byte[] data) {
+            int maximumCompressedSize = compressor.maxCompressedLength(data.length);
+            byte[] compressedContent = new byte[maximumCompressedSize];
+            int compressedSize = compressor.compress(data, compressedContent);
+            return Arrays.copyOfRange(compressedContent, 0, compressedSize);
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int size) {
+            return decompressor.decompress(data, size);
+        }
+
+        @Override
+        public void decompress(ByteBuffer data, ByteBuffer dest) {
+            decompressor.decompress(data, dest);
+        }
+    }
+
+    private static final Map<String, ResourceCompression> codecs = new HashMap<String, ResourceCompression>();
+
+    /**
+     * Get the name of the codec, as accepted by {@link #get(String)}
+     * @return codec name
+     */
+    public abstract String getName();
+
+    /**
+     * Compress resource data
+     * @param data data to compress
+     * @return compressed data
+     */
+    public abstract byte[] compress(byte[] data);
+
+    /**
+     * Decompress resource data
+     * @param data compressed data
+     * @param size size of the decompressed data
+     * @return decompressed data
+     */
+    public abstract byte[] decompress(byte[] data, int size);
+
+    /**
+     * Decompress resource data from one buffer into another, without copying the
+     * compressed data. The positions of both buffers are advanced.
+     * @param data compressed data, from the position of the buffer
+     * @param dest buffer to decompress into, the remaining bytes of the buffer are filled
+     */
+    public abstract void decompress(ByteBuffer data, ByteBuffer dest);
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    /**
+     * Get a codec by name. Supported codecs are "lz4", which is fast, and "lz4hc"
+     * which gives better compression. The compression level of lz4hc can be given
+     * as "lz4hc:level", between 1 and 17. The default level is 9.
+     * @param name codec name
+     * @return the codec
+     * @throws IllegalArgumentException if the codec isn't supported
+     */
+    public static synchronized ResourceCompression get(String name) {
+        name = name.trim().toLowerCase();
+        ResourceCompression codec = codecs.get(name);
+        if (codec != null) {
+            return codec;
+        }
+
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        if (name.equals(LZ4)) {
+            codec = new LZ4Compression(LZ4, factory.fastCompressor());
+        } else if (name.equals(LZ4HC)) {
+            codec = new LZ4Compression(LZ4HC, factory.highCompressor());
+        } else if (name.startsWith(LZ4HC + ":")) {
+            int level;
+            try {
+                level = Integer.parseInt(name.substring(LZ4HC.length() + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid compression level in '%s'", name));
+            }
+            if (level < LZ4HC_MIN_LEVEL || level > LZ4HC_MAX_LEVEL) {
+                throw new IllegalArgumentException(String.format("Compression level of '%s' must be between %d and %d", name, LZ4HC_MIN_LEVEL, LZ4HC_MAX_LEVEL));
+            }
+            codec = new LZ4Compression(name, factory.highCompressor(level));
+        } else {
+            throw new IllegalArgumentException(String.format("Unsupported compression codec '%s'", name));
+        }
+        codecs.put(name, codec);
+        return codec;
+    }
+
+    /**
+     * Parse a comma separated list of resource type specific codecs,
+     * e.g. "texturec=lz4,luac=lz4hc:12"
+     * @param types list of resource types and codecs
+     * @return map from resource type (file extension without the dot) to codec
+     * @throws IllegalArgumentException if the list is malformed or a codec isn't supported
+     */
+    public static Map<String, ResourceCompression> parseTypes(String types) {
+        Map<String, ResourceCompression> result = new HashMap<String, ResourceCompression>();
+        if (types == null) {
+            return result;
+        }
+        for (String type : types.split(",")) {
+            type = type.trim();
+            if (type.isEmpty()) {
+                continue;
+            }
+            int separator = type.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException(String.format("Expected 'type=codec' but got '%s'", type));
+            }
+            String ext = type.substring(0, separator).trim();
+            if (ext.startsWith(".")) {
+                ext = ext.substring(1);
+            }
+            result.put(ext, get(type.substring(separator + 1)));
+        }
+        return result;
+    }
+}
@@ -45,12 +45,16 @@ public class ResourceEncryption {
 	public static byte[] encrypt(byte[] resource) throws CompileExceptionError {
 		try {
 			ResourceEncryptionPlugin encryptionPlugin = PluginScanner.getOrCreatePlugin("com.dynamo.bob.archive", ResourceEncryptionPlugin.class);
-				
-			// default or custom encryption
-			encryptionPlugin = encryptionPlugin == null ? defaultEncryption : encryptionPlugin;
 
-			// do the encryption
-			return encryptionPlugin.encrypt(resource);
+			// the default encryption is thread safe
+			if (encryptionPlugin == null) {
+				return defaultEncryption.encrypt(resource);
+			}
+
+			// resources are encrypted in parallel, but custom plugins may not be thread safe
+			synchronized (encryptionPlugin) {
+				return encryptionPlugin.encrypt(resource);
+			}
 		}
 		catch (Exception e) {
 			e.printStackTrace();
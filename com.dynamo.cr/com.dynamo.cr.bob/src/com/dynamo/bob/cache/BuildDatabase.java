@@ -0,0 +1,518 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.dynamo.bob.util.BufferUtil;
+import com.dynamo.bob.util.MurmurHash;
+
+/**
+ * Persistent path to value store for build state, such as task signatures and
+ * source file digests.
+ *
+ * The file consists of a compacted snapshot followed by an append-only journal:
+ *
+ *   header   magic, version, slot count, record count, journal offset
+ *   slots    open addressed table of (path hash, record offset), linear probing
+ *   records  (path, value) pairs referenced from the slots
+ *   journal  batches of put/remove records, each one ending with a crc32
+ *
+ * Lookups in the snapshot are done directly in the memory mapped file. Changes
+ * are kept in memory until {@link #commit()} which appends them as one journal
+ * batch, or writes a new snapshot and atomically replaces the old file when the
+ * journal has grown too large. A batch that was only partially written, e.g.
+ * because bob was killed, fails its checksum and is ignored when loading.
+ */
+public class BuildDatabase {
+
+	private static final int MAGIC = 0x42444230; // "BDB0"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int SLOT_SIZE = 12;
+	private static final int MIN_SLOT_COUNT = 16;
+
+	private static final int BATCH_MAGIC = 0x4a524e4c; // "JRNL"
+	private static final int BATCH_HEADER_SIZE = 12;
+	private static final byte OP_PUT = 1;
+	private static final byte OP_REMOVE = 2;
+
+	// Compact when there are more batches than this, or when the journal is
+	// larger than the snapshot
+	private static final int MAX_JOURNAL_BATCHES = 32;
+	private static final int MIN_COMPACT_SIZE = 64 * 1024;
+
+	private final File file;
+
+	private ByteBuffer snapshot;
+	private int slotCount;
+	private int recordCount;
+	private long journalOffset;
+	private long validSize;
+	private int journalBatches;
+	private boolean closed;
+
+	// Changes read from the journal or made since the database was opened.
+	// A null value means that the path was removed.
+	private Map<String, byte[]> changes = new HashMap<String, byte[]>();
+	// Changes not yet committed, in the order they were made
+	private Map<String, byte[]> pending = new LinkedHashMap<String, byte[]>();
+
+	private BuildDatabase(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Create an empty database which is not backed by a file
+	 */
+	public BuildDatabase() {
+		this(null);
+	}
+
+	/**
+	 * Open a database backed by a file. A missing, corrupt or incompatible
+	 * file results in an empty database which replaces the file on commit.
+	 * @param file the database file
+	 * @return the database
+	 */
+	public static BuildDatabase open(File file) throws IOException {
+		BuildDatabase db = new BuildDatabase(file);
+		if (!file.isFile() || file.length() < HEADER_SIZE) {
+			return db;
+		}
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (!db.load(buffer)) {
+			BufferUtil.unmap(buffer);
+		}
+		return db;
+	}
+
+	/**
+	 * Create a database, which is not backed by a file, from the content of
+	 * a database file
+	 * @param data file content, see {@link #toByteArray()}
+	 * @return the database. Empty if the data isn't a valid database
+	 */
+	public static BuildDatabase fromByteArray(byte[] data) {
+		BuildDatabase db = new BuildDatabase(null);
+		db.load(ByteBuffer.wrap(data));
+		return db;
+	}
+
+	private boolean load(ByteBuffer buffer) {
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			return false;
+		}
+		int slots = buffer.getInt(8);
+		int records = buffer.getInt(12);
+		long offset = buffer.getLong(16);
+		if (slots < MIN_SLOT_COUNT || Integer.bitCount(slots) != 1 || offset < HEADER_SIZE + (long) slots * SLOT_SIZE || offset > buffer.limit()) {
+			return false;
+		}
+		snapshot = buffer;
+		slotCount = slots;
+		recordCount = records;
+		journalOffset = offset;
+		validSize = offset;
+		readJournal();
+		return true;
+	}
+
+	private void readJournal() {
+		int position = (int) journalOffset;
+		int limit = snapshot.limit();
+		CRC32 crc = new CRC32();
+		while (position + BATCH_HEADER_SIZE + 4 <= limit) {
+			if (snapshot.getInt(position) != BATCH_MAGIC) {
+				break;
+			}
+			int count = snapshot.getInt(position + 4);
+			int length = snapshot.getInt(position + 8);
+			int start = position + BATCH_HEADER_SIZE;
+			if (count < 0 || length < 0 || (long) start + length + 4 > limit) {
+				break;
+			}
+			ByteBuffer batch = snapshot.duplicate();
+			batch.position(start).limit(start + length);
+			crc.reset();
+			crc.update(batch);
+			if ((int) crc.getValue() != snapshot.getInt(start + length)) {
+				break;
+			}
+
+			Map<String, byte[]> batchChanges = new HashMap<String, byte[]>();
+			batch.position(start);
+			try {
+				for (int i = 0; i < count; ++i) {
+					byte op = batch.get();
+					String path = readString(batch);
+					if (op == OP_PUT) {
+						batchChanges.put(path, readBytes(batch));
+					} else {
+						batchChanges.put(path, null);
+					}
+				}
+			} catch (RuntimeException e) {
+				break;
+			}
+			changes.putAll(batchChanges);
+			position = start + length + 4;
+			validSize = position;
+			++journalBatches;
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		return new String(readBytes(buffer), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static long hash(byte[] path) {
+		return MurmurHash.hash64(path, path.length);
+	}
+
+	private static int slotIndex(long hash, int slotCount) {
+		return (int) (hash ^ (hash >>> 32)) & (slotCount - 1);
+	}
+
+	private boolean recordPathEquals(int recordOffset, byte[] path) {
+		if (snapshot.getInt(recordOffset) != path.length) {
+			return false;
+		}
+		int start = recordOffset + 4;
+		for (int i = 0; i < path.length; ++i) {
+			if (snapshot.get(start + i) != path[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int findRecord(String path) {
+		if (snapshot == null) {
+			return 0;
+		}
+		byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+		long hash = hash(pathBytes);
+		int slot = slotIndex(hash, slotCount);
+		for (int i = 0; i < slotCount; ++i) {
+			int position = HEADER_SIZE + slot * SLOT_SIZE;
+			int recordOffset = snapshot.getInt(position + 8);
+			if (recordOffset == 0) {
+				return 0;
+			}
+			if (snapshot.getLong(position) == hash && recordPathEquals(recordOffset, pathBytes)) {
+				return recordOffset;
+			}
+			slot = (slot + 1) & (slotCount - 1);
+		}
+		return 0;
+	}
+
+	private byte[] readRecordValue(int recordOffset) {
+		ByteBuffer record = snapshot.duplicate();
+		record.position(recordOffset + 4 + snapshot.getInt(recordOffset));
+		return readBytes(record);
+	}
+
+	/**
+	 * Get the value stored for a path
+	 * @param path the path
+	 * @return a copy of the value or null if no value exists
+	 */
+	public synchronized byte[] get(String path) {
+		checkOpen();
+		if (changes.containsKey(path)) {
+			return changes.get(path);
+		}
+		int recordOffset = findRecord(path);
+		return recordOffset != 0 ? readRecordValue(recordOffset) : null;
+	}
+
+	/**
+	 * Store a value for a path. The change is persisted on {@link #commit()}
+	 * @param path the path
+	 * @param value the value
+	 */
+	public synchronized void put(String path, byte[] value) {
+		checkOpen();
+		changes.put(path, value);
+		pending.put(path, value);
+	}
+
+	/**
+	 * Remove the value stored for a path
+	 * @param path the path
+	 */
+	public synchronized void remove(String path) {
+		if (get(path) != null) {
+			changes.put(path, null);
+			pending.put(path, null);
+		}
+	}
+
+	private void forEachRecord(Map<String, byte[]> result) {
+		if (snapshot == null) {
+			return;
+		}
+		ByteBuffer records = snapshot.duplicate();
+		records.position(HEADER_SIZE + slotCount * SLOT_SIZE);
+		for (int i = 0; i < recordCount; ++i) {
+			String path = readString(records);
+			result.put(path, readBytes(records));
+		}
+	}
+
+	private Map<String, byte[]> getEntries() {
+		Map<String, byte[]> entries = new HashMap<String, byte[]>(recordCount + changes.size());
+		forEachRecord(entries);
+		for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+			if (change.getValue() != null) {
+				entries.put(change.getKey(), change.getValue());
+			} else {
+				entries.remove(change.getKey());
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Get all paths with a stored value
+	 * @return list of paths
+	 */
+	public synchronized List<String> getPaths() {
+		checkOpen();
+		return new ArrayList<String>(getEntries().keySet());
+	}
+
+	/**
+	 * Check if the database is backed by a file
+	 * @return true if the database was created with {@link #open(File)}
+	 */
+	public boolean isFileBacked() {
+		return file != null;
+	}
+
+	/**
+	 * Create a compacted database image with all current entries. The image
+	 * can be loaded with {@link #fromByteArray(byte[])}
+	 * @return database image
+	 */
+	public synchronized byte[] toByteArray() {
+		checkOpen();
+		return createSnapshot(getEntries()).array();
+	}
+
+	private static ByteBuffer createSnapshot(Map<String, byte[]> entries) {
+		List<String> paths = new ArrayList<String>(entries.keySet());
+		Collections.sort(paths);
+
+		int slots = MIN_SLOT_COUNT;
+		while (slots < paths.size() * 2) {
+			slots *= 2;
+		}
+
+		List<byte[]> encodedPaths = new ArrayList<byte[]>(paths.size());
+		long size = HEADER_SIZE + (long) slots * SLOT_SIZE;
+		for (String path : paths) {
+			byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+			encodedPaths.add(pathBytes);
+			size += 8 + pathBytes.length + entries.get(path).length;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Build database too large");
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) size);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(slots);
+		buffer.putInt(paths.size());
+		buffer.putLong(size);
+
+		int recordOffset = HEADER_SIZE + slots * SLOT_SIZE;
+		buffer.position(recordOffset);
+		for (int i = 0; i < paths.size(); ++i) {
+			byte[] pathBytes = encodedPaths.get(i);
+			byte[] value = entries.get(paths.get(i));
+
+			long hash = hash(pathBytes);
+			int slot = slotIndex(hash, slots);
+			while (buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 8) != 0) {
+				slot = (slot + 1) & (slots - 1);
+			}
+			buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE, hash);
+			buffer.putInt(HEADER_SIZE + slot * SLOT_SIZE + 8, recordOffset);
+
+			buffer.putInt(pathBytes.length);
+			buffer.put(pathBytes);
+			buffer.putInt(value.length);
+			buffer.put(value);
+			recordOffset = buffer.position();
+		}
+		return buffer;
+	}
+
+	private byte[] createJournalBatch() throws IOException {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(records);
+		for (Map.Entry<String, byte[]> change : pending.entrySet()) {
+			byte[] path = change.getKey().getBytes(StandardCharsets.UTF_8);
+			byte[] value = change.getValue();
+			os.writeByte(value != null ? OP_PUT : OP_REMOVE);
+			os.writeInt(path.length);
+			os.write(path);
+			if (value != null) {
+				os.writeInt(value.length);
+				os.write(value);
+			}
+		}
+		os.flush();
+		byte[] data = records.toByteArray();
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		ByteBuffer batch = ByteBuffer.allocate(BATCH_HEADER_SIZE + data.length + 4);
+		batch.putInt(BATCH_MAGIC);
+		batch.putInt(pending.size());
+		batch.putInt(data.length);
+		batch.put(data);
+		batch.putInt((int) crc.getValue());
+		return batch.array();
+	}
+
+	private boolean shouldCompact(long batchSize) {
+		if (snapshot == null || journalBatches >= MAX_JOURNAL_BATCHES) {
+			return true;
+		}
+		long journalSize = validSize - journalOffset + batchSize;
+		return journalSize > Math.max(journalOffset, MIN_COMPACT_SIZE);
+	}
+
+	/**
+	 * Persist all changes made since the database was opened or last committed.
+	 * Only valid for databases backed by a file.
+	 */
+	public synchronized void commit() throws IOException {
+		checkOpen();
+		if (file == null) {
+			throw new IllegalStateException("Build database is not backed by a file");
+		}
+		if (pending.isEmpty() && snapshot != null) {
+			return;
+		}
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+
+		byte[] batch = createJournalBatch();
+		// A partially written batch from an interrupted build is dropped by compacting
+		// rather than truncating the file, which can't be done while it is mapped on Windows
+		if (shouldCompact(batch.length) || file.length() != validSize) {
+			compact();
+		} else {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+				channel.position(validSize);
+				ByteBuffer data = ByteBuffer.wrap(batch);
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+				channel.force(true);
+			}
+			validSize += batch.length;
+			++journalBatches;
+		}
+		pending.clear();
+	}
+
+	private void compact() throws IOException {
+		ByteBuffer data = createSnapshot(getEntries());
+		Path target = file.toPath();
+		Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), file.getName(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				data.rewind();
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+				channel.force(true);
+			}
+			releaseSnapshot();
+			try {
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+
+		// continue with the new snapshot, kept in memory rather than mapping the new file
+		changes = new HashMap<String, byte[]>();
+		journalBatches = 0;
+		load(data);
+	}
+
+	/**
+	 * Close the database and release the memory mapping of the database file.
+	 * Uncommitted changes are discarded.
+	 */
+	public synchronized void close() {
+		releaseSnapshot();
+		changes.clear();
+		pending.clear();
+		closed = true;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Build database is closed");
+		}
+	}
+
+	private void releaseSnapshot() {
+		ByteBuffer buffer = snapshot;
+		snapshot = null;
+		BufferUtil.unmap(buffer);
+	}
+}
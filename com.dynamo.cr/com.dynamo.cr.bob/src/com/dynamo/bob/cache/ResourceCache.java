@@ -18,86 +18,427 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.MalformedURLException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.dynamo.bob.Bob;
 import com.dynamo.bob.util.HttpUtil;
+import com.dynamo.bob.util.TimeProfiler;
 
+/**
+ * Cache of build outputs, shared between builds and projects.
+ *
+ * The local cache stores one file per key, in sub directories named after the
+ * first two characters of the key. The present keys are kept in an in-memory
+ * index, so lookups don't touch the disk. When a max size is set, the least
+ * recently used resources are removed when the cache grows larger than that.
+ *
+ * Resources missing locally are downloaded from the remote cache, if there is one,
+ * and kept in the local cache. New resources are uploaded to the remote cache in
+ * the background, see {@link #waitForUploads()}. All methods may be called
+ * concurrently.
+ */
 public class ResourceCache {
 
+	// Max number of concurrent requests to the remote cache
+	private static final int REMOTE_THREADS = 8;
+
+	// The access time of a resource on disk is only updated this often, to keep cache hits cheap
+	private static final long ACCESS_TIME_RESOLUTION = 60 * 60 * 1000;
+
+	// The cache is reduced to this fraction of the max size when it has grown too large
+	private static final double EVICTION_TARGET = 0.9;
+
+	// Max number of uploads waiting for a thread. When the queue is full put()
+	// uploads on the calling thread, which slows the build down to the upload rate.
+	private static final int UPLOAD_QUEUE_SIZE = 256;
+
+	// A failed upload is retried after a delay which is doubled for each attempt
+	private static final int UPLOAD_ATTEMPTS = 3;
+	private static final long UPLOAD_RETRY_DELAY = 500;
+
+	private static class Entry {
+		final long size;
+		volatile long lastAccess;
+
+		Entry(long size, long lastAccess) {
+			this.size = size;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	private static class AccessTime {
+		final String key;
+		final long lastAccess;
+
+		AccessTime(String key, long lastAccess) {
+			this.key = key;
+			this.lastAccess = lastAccess;
+		}
+	}
+
 	private String localCacheDir;
 
 	private String remoteCacheUrl;
 
+	private long maxSize = 0;
+
 	private HttpUtil http = new HttpUtil();
 
 	private boolean enabled = false;
 
+	// keys in the local cache
+	private final Map<String, Entry> index = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong size = new AtomicLong();
+	private String indexedCacheDir;
+
+	private ExecutorService remoteExecutor;
+	private ExecutorService uploadExecutor;
+
+	private final Object uploadLock = new Object();
+	private int pendingUploads = 0;
+	private final AtomicInteger uploadCount = new AtomicInteger();
+	private final AtomicInteger uploadFailures = new AtomicInteger();
+	private final AtomicLong uploadBytes = new AtomicLong();
+	private final AtomicLong uploadTime = new AtomicLong();
+
 	public ResourceCache() {}
 
 	public void init(String localCacheDir, String remoteCacheUrl) {
+		init(localCacheDir, remoteCacheUrl, 0);
+	}
+
+	/**
+	 * Initialise the cache
+	 * @param localCacheDir path to the local cache or null to disable the cache
+	 * @param remoteCacheUrl URL to the remote cache or null if there is none
+	 * @param maxSize max size in bytes of the local cache, or 0 for no limit
+	 */
+	public synchronized void init(String localCacheDir, String remoteCacheUrl, long maxSize) {
 		Bob.verbose("Initialising resource cache with local cache dir '%s' and remote '%s'", localCacheDir, remoteCacheUrl);
 		this.localCacheDir = localCacheDir;
 		this.remoteCacheUrl = remoteCacheUrl;
+		this.maxSize = maxSize;
 		this.enabled = localCacheDir != null;
 		if (localCacheDir != null) {
 			File f = new File(localCacheDir);
 			if (!f.exists()) {
 				f.mkdirs();
 			}
+			if (!localCacheDir.equals(indexedCacheDir)) {
+				scanLocalCache();
+				indexedCacheDir = localCacheDir;
+			}
+			evictIfNeeded();
+		}
+		if (remoteCacheUrl != null && remoteExecutor == null) {
+			remoteExecutor = Executors.newFixedThreadPool(REMOTE_THREADS, createThreadFactory("bob-resource-cache-%d"));
+			uploadExecutor = new ThreadPoolExecutor(REMOTE_THREADS, REMOTE_THREADS, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(UPLOAD_QUEUE_SIZE),
+				createThreadFactory("bob-resource-cache-upload-%d"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
 		}
 	}
 
+	private static ThreadFactory createThreadFactory(final String nameFormat) {
+		return new ThreadFactory() {
+			private int count = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, String.format(nameFormat, count++));
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static String shardFromKey(String key) {
+		return key.length() > 2 ? key.substring(0, 2) : "_";
+	}
+
 	private File fileFromKey(String key) {
-		return new File(localCacheDir, key);
+		return new File(new File(localCacheDir, shardFromKey(key)), key);
 	}
 
-	private URL urlFromFile(File file) throws MalformedURLException {
-		return new URL(remoteCacheUrl + "/" + file.getName());
+	private URL urlFromKey(String key) throws MalformedURLException {
+		return new URL(remoteCacheUrl + "/" + key);
 	}
 
-	private void saveToLocalCache(File file, byte[] data) throws IOException {
-		Bob.verbose("Resource '%s' saved to the local cache", file);
-		Files.write(file.toPath(), data);
+	// Build the index of the local cache. Resources stored directly in the cache
+	// directory by earlier versions are moved to their sub directory.
+	private void scanLocalCache() {
+		index.clear();
+		size.set(0);
+		File[] files = new File(localCacheDir).listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				File[] shardFiles = file.listFiles();
+				if (shardFiles == null) {
+					continue;
+				}
+				for (File shardFile : shardFiles) {
+					String key = shardFile.getName();
+					if (key.endsWith(".tmp")) {
+						// left behind by an interrupted build, unless it is still being written
+						if (System.currentTimeMillis() - shardFile.lastModified() > ACCESS_TIME_RESOLUTION) {
+							shardFile.delete();
+						}
+					} else {
+						addToIndex(key, shardFile.length(), shardFile.lastModified());
+					}
+				}
+			} else {
+				String key = file.getName();
+				File target = fileFromKey(key);
+				target.getParentFile().mkdirs();
+				if (file.renameTo(target)) {
+					addToIndex(key, target.length(), target.lastModified());
+				}
+			}
+		}
 	}
 
-	private byte[] loadFromLocalCache(File file) throws IOException {
-		if (file.exists()) {
-			Bob.verbose("Resource '%s' loaded from the local cache", file);
-			return Files.readAllBytes(file.toPath());
+	private void addToIndex(String key, long entrySize, long lastAccess) {
+		if (index.putIfAbsent(key, new Entry(entrySize, lastAccess)) == null) {
+			size.addAndGet(entrySize);
 		}
-		return null;
 	}
 
-	private void uploadToRemoteCache(File file) throws MalformedURLException {
-		if (remoteCacheUrl == null) {
+	private void removeFromIndex(String key) {
+		Entry entry = index.remove(key);
+		if (entry != null) {
+			size.addAndGet(-entry.size);
+		}
+	}
+
+	// Mark a resource in the local cache as recently used, so that it isn't the next to be evicted
+	private boolean touch(String key) {
+		Entry entry = index.get(key);
+		if (entry == null) {
+			return false;
+		}
+		entry.lastAccess = Math.max(entry.lastAccess, System.currentTimeMillis());
+		return true;
+	}
+
+	private void evictIfNeeded() {
+		if (maxSize <= 0 || size.get() <= maxSize) {
 			return;
 		}
+		synchronized (index) {
+			if (size.get() <= maxSize) {
+				return;
+			}
+			// the access times are copied, other threads may update them while sorting
+			List<AccessTime> entries = new ArrayList<AccessTime>(index.size());
+			for (Map.Entry<String, Entry> entry : index.entrySet()) {
+				entries.add(new AccessTime(entry.getKey(), entry.getValue().lastAccess));
+			}
+			Collections.sort(entries, new Comparator<AccessTime>() {
+				@Override
+				public int compare(AccessTime a, AccessTime b) {
+					return Long.compare(a.lastAccess, b.lastAccess);
+				}
+			});
+			long target = (long) (maxSize * EVICTION_TARGET);
+			for (AccessTime entry : entries) {
+				if (size.get() <= target) {
+					break;
+				}
+				String key = entry.key;
+				Entry current = index.get(key);
+				if (current == null || current.lastAccess != entry.lastAccess) {
+					// accessed since the copy, e.g. found by contains()
+					continue;
+				}
+				File file = fileFromKey(key);
+				if (!file.delete() && file.exists()) {
+					// e.g. locked by another process, it still counts towards the size and is retried later
+					Bob.verbose("Resource '%s' could not be evicted from the local cache", key);
+					continue;
+				}
+				removeFromIndex(key);
+				Bob.verbose("Resource '%s' evicted from the local cache", key);
+			}
+		}
+	}
+
+	private void saveToLocalCache(String key, byte[] data) throws IOException {
+		File file = fileFromKey(key);
+		Bob.verbose("Resource '%s' saved to the local cache", file);
+		File dir = file.getParentFile();
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		// other threads and processes must never see a partially written file
+		Path tmp = Files.createTempFile(dir.toPath(), key, ".tmp");
+		try {
+			Files.write(tmp, data);
+			try {
+				Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		addToIndex(key, data.length, System.currentTimeMillis());
+		evictIfNeeded();
+	}
+
+	private byte[] loadFromLocalCache(String key) throws IOException {
+		Entry entry = index.get(key);
+		if (entry == null) {
+			return null;
+		}
+		File file = fileFromKey(key);
+		byte[] data;
+		try {
+			data = Files.readAllBytes(file.toPath());
+		} catch (NoSuchFileException e) {
+			// removed by another process sharing the cache
+			removeFromIndex(key);
+			return null;
+		}
+		Bob.verbose("Resource '%s' loaded from the local cache", file);
+		long now = System.currentTimeMillis();
+		if (now - entry.lastAccess > ACCESS_TIME_RESOLUTION) {
+			file.setLastModified(now);
+		}
+		entry.lastAccess = now;
+		return data;
+	}
+
+	private void uploadToRemoteCache(String key) throws MalformedURLException {
+		File file = fileFromKey(key);
 		if (!file.exists()) {
 			return;
 		}
-		URL url = urlFromFile(file);
-		if (!http.exists(url)) {
-			http.uploadFile(url, file);
-			Bob.verbose("Resource '%s' uploaded to the remote cache", file);
+		// Resources are only uploaded when they are built, after they weren't found in the
+		// remote cache, so they are put without checking if they exist first. Keys are
+		// content hashes, so overwriting a resource uploaded by someone else is harmless.
+		URL url = urlFromKey(key);
+		long start = System.nanoTime();
+		http.uploadFile(url, file);
+		uploadTime.addAndGet(System.nanoTime() - start);
+		uploadBytes.addAndGet(file.length());
+		uploadCount.incrementAndGet();
+		Bob.verbose("Resource '%s' uploaded to the remote cache", file);
+	}
+
+	// Upload a resource in the background, retrying a few times if it fails
+	private void queueUpload(final String key) {
+		if (remoteCacheUrl == null) {
+			return;
 		}
-		else {
-			Bob.verbose("Resource '%s' already exists in the remote cache", file);
+		synchronized (uploadLock) {
+			++pendingUploads;
 		}
+		uploadExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					long delay = UPLOAD_RETRY_DELAY;
+					for (int attempt = 1; ; ++attempt) {
+						try {
+							uploadToRemoteCache(key);
+							break;
+						} catch (Exception e) {
+							if (attempt == UPLOAD_ATTEMPTS) {
+								uploadFailures.incrementAndGet();
+								Bob.verbose("Resource '%s' could not be uploaded to the remote cache: %s", key, e.getMessage());
+								break;
+							}
+							Thread.sleep(delay);
+							delay *= 2;
+						}
+					}
+				} catch (InterruptedException e) {
+					uploadFailures.incrementAndGet();
+					Thread.currentThread().interrupt();
+				} finally {
+					synchronized (uploadLock) {
+						--pendingUploads;
+						uploadLock.notifyAll();
+					}
+				}
+			}
+		});
 	}
 
-	private void downloadFromRemoteCache(File file) throws MalformedURLException {
-		if (remoteCacheUrl == null) {
+	/**
+	 * Wait for all queued uploads to the remote cache to finish and report
+	 * the upload throughput and failures since the last call to the time profiler
+	 */
+	public void waitForUploads() {
+		if (uploadExecutor == null) {
 			return;
 		}
-		URL url = urlFromFile(file);
-		if (http.exists(url)) {
-			http.downloadToFile(url, file);
-			Bob.verbose("Resource '%s' downloaded from the remote cache", file);
+		TimeProfiler.start("Wait for resource cache uploads");
+		synchronized (uploadLock) {
+			while (pendingUploads > 0) {
+				try {
+					uploadLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		int count = uploadCount.getAndSet(0);
+		int failures = uploadFailures.getAndSet(0);
+		long bytes = uploadBytes.getAndSet(0);
+		long time = uploadTime.getAndSet(0);
+		TimeProfiler.addData("uploads", count);
+		TimeProfiler.addData("uploadFailures", failures);
+		TimeProfiler.addData("uploadedMB", (float) (bytes / (1024.0 * 1024.0)));
+		if (time > 0) {
+			// per connection, uploads run concurrently
+			TimeProfiler.addData("uploadMBPerSecond", (float) (bytes / (1024.0 * 1024.0) / (time / 1e9)));
+		}
+		TimeProfiler.stop();
+		if (failures > 0) {
+			System.err.println(String.format("%d resources could not be uploaded to the remote resource cache", failures));
 		}
-		else {
-			Bob.verbose("Resource '%s' does not exist in the remote cache", file);
+	}
+
+	// Download a resource to the local cache, returns false if it doesn't exist in the remote cache
+	private boolean downloadFromRemoteCache(String key) throws IOException {
+		if (remoteCacheUrl == null) {
+			return false;
+		}
+		URL url = urlFromKey(key);
+		byte[] data = http.downloadIfExists(url);
+		if (data == null) {
+			Bob.verbose("Resource '%s' does not exist in the remote cache", key);
+			return false;
 		}
+		saveToLocalCache(key, data);
+		Bob.verbose("Resource '%s' downloaded from the remote cache", key);
+		return true;
 	}
 
 	/**
@@ -121,6 +462,14 @@ public class ResourceCache {
 		http.setAuthentication(user, pass);
 	}
 
+	/**
+	 * Get the total size of the resources in the local cache
+	 * @return size in bytes
+	 */
+	public long getLocalCacheSize() {
+		return size.get();
+	}
+
 	/**
 	 * Put data in the resource cache
 	 * @param key Key to associate data with
@@ -130,15 +479,14 @@ public class ResourceCache {
 		if (!enabled) {
 			return;
 		}
-		File file = fileFromKey(key);
-		if (file.exists()) {
+		if (index.containsKey(key)) {
 			// file is already in the local cache
 			return;
 		}
 
-		Bob.verbose("Caching resource '%s'", file);
-		saveToLocalCache(file, data);
-		uploadToRemoteCache(file);
+		Bob.verbose("Caching resource '%s'", key);
+		saveToLocalCache(key, data);
+		queueUpload(key);
 	}
 
 	/**
@@ -150,16 +498,16 @@ public class ResourceCache {
 		if (!enabled) {
 			return null;
 		}
-		File file = fileFromKey(key);
-		if (!file.exists()) {
-			downloadFromRemoteCache(file);
+		byte[] data = loadFromLocalCache(key);
+		if (data == null && downloadFromRemoteCache(key)) {
+			data = loadFromLocalCache(key);
 		}
-
-		return loadFromLocalCache(file);
+		return data;
 	}
 
 	/**
-	 * Check if the cache contains a resource
+	 * Check if the cache contains a resource. A resource found in the remote
+	 * cache is downloaded to the local cache.
 	 * @param key The key to check for in the cache
 	 * @return true if a resource with the specified key exists
 	 */
@@ -167,7 +515,60 @@ public class ResourceCache {
 		if (!enabled) {
 			return false;
 		}
-		File f = fileFromKey(key);
-		return f.exists() || (remoteCacheUrl != null && http.exists(urlFromFile(f)));
+		return touch(key) || downloadFromRemoteCache(key);
+	}
+
+	/**
+	 * Check if the cache contains all of a set of resources. The resources
+	 * missing in the local cache are requested from the remote cache concurrently
+	 * and downloaded to the local cache. The resources that are found are
+	 * marked as recently used, but as other threads may still evict them
+	 * get() should be prepared to return null.
+	 * @param keys The keys to check for in the cache
+	 * @return true if resources with all the specified keys exist
+	 */
+	public boolean containsAll(Collection<String> keys) throws IOException {
+		if (!enabled) {
+			return false;
+		}
+		List<String> missing = new ArrayList<String>();
+		for (String key : keys) {
+			if (!touch(key)) {
+				missing.add(key);
+			}
+		}
+		if (missing.isEmpty()) {
+			return true;
+		}
+		if (remoteCacheUrl == null) {
+			return false;
+		}
+		if (missing.size() == 1) {
+			return downloadFromRemoteCache(missing.get(0));
+		}
+
+		List<Future<Boolean>> downloads = new ArrayList<Future<Boolean>>();
+		for (final String key : missing) {
+			downloads.add(remoteExecutor.submit(() -> downloadFromRemoteCache(key)));
+		}
+		boolean found = true;
+		for (Future<Boolean> download : downloads) {
+			try {
+				found &= download.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw new RuntimeException(cause);
+			}
+		}
+		return found;
 	}
 }
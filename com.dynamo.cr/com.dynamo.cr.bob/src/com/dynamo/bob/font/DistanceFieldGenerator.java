@@ -14,9 +14,17 @@
 
 package com.dynamo.bob.font;
 
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
 public class DistanceFieldGenerator
 {
-    public double[] lineSegments = new double[32768];
+    // Distance returned when there are no line segments
+    private static final double MAX_DIST_SQR = 10000000;
+    // Max number of grid cells along each axis
+    private static final int MAX_GRID_SIZE = 256;
+
+    public double[] lineSegments = new double[1280];
     public int lineSegmentsEnd = 0;
 
     public DistanceFieldGenerator()
@@ -26,6 +34,10 @@ public class DistanceFieldGenerator
 
     public void addLine(double x0, double y0, double x1, double y1)
     {
+        if (lineSegmentsEnd + 5 > lineSegments.length)
+        {
+            lineSegments = Arrays.copyOf(lineSegments, lineSegments.length * 2);
+        }
         lineSegments[lineSegmentsEnd+0] = x0;
         lineSegments[lineSegmentsEnd+1] = y0;
         lineSegments[lineSegmentsEnd+2] = x1 - x0;
@@ -34,62 +46,287 @@ public class DistanceFieldGenerator
         lineSegmentsEnd += 5;
     }
 
+    // Compute the distance from [x, y] to the line segment starting at index i
+    private static double segmentDistSqr(double[] lineSegments, int i, double x, double y)
+    {
+        double x0 = lineSegments[i];
+        double y0 = lineSegments[i+1];
+        double dx = lineSegments[i+2];
+        double dy = lineSegments[i+3];
+        double k = lineSegments[i+4];
+
+        double dx0 = x - x0;
+        double dy0 = y - y0;
+        double t = k * (dx * dx0 + dy * dy0);
+
+        if (t < 0)
+        {
+            // Closest point is t=0 of the line
+            return dx0 * dx0 + dy0 * dy0;
+        }
+        else if (t > 1)
+        {
+            // Closest point is t=1 of the line
+            double xx = x - (x0 + dx);
+            double yy = y - (y0 + dy);
+            return xx*xx + yy*yy;
+        }
+        else
+        {
+            // Case when the closest point is along the line, and t will be [0,1]
+            double px = x0 + t * dx - x;
+            double py = y0 + t * dy - y;
+            return px*px + py*py;
+        }
+    }
+
     // Compute the minimal distance from [x, y] to any of the line segments
     public double distSqr(double x, double y)
     {
-        double distMin = 10000000;
+        double distMin = MAX_DIST_SQR;
         for (int i=0;i<lineSegmentsEnd;i+=5)
+        {
+            double distSqr = segmentDistSqr(lineSegments, i, x, y);
+            if (distSqr < distMin)
+                distMin = distSqr;
+        }
+        return distMin;
+    }
+
+    // Uniform grid of the line segments. Each cell lists the segments whose bounding box
+    // overlaps the cell, so only the cells around a point need to be searched.
+    private static class Grid
+    {
+        final double[] lineSegments;
+        final double minX;
+        final double minY;
+        final double cellSize;
+        final int width;
+        final int height;
+        // Segments of cell c are cellSegments[cellStart[c]] to cellSegments[cellStart[c+1]-1]
+        final int[] cellStart;
+        final int[] cellSegments;
+
+        Grid(double[] lineSegments, int lineSegmentsEnd)
+        {
+            this.lineSegments = lineSegments;
+            int count = lineSegmentsEnd / 5;
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int i=0;i<lineSegmentsEnd;i+=5)
+            {
+                double x0 = lineSegments[i];
+                double y0 = lineSegments[i+1];
+                double x1 = x0 + lineSegments[i+2];
+                double y1 = y0 + lineSegments[i+3];
+                minX = Math.min(minX, Math.min(x0, x1));
+                minY = Math.min(minY, Math.min(y0, y1));
+                maxX = Math.max(maxX, Math.max(x0, x1));
+                maxY = Math.max(maxY, Math.max(y0, y1));
+            }
+            double extentX = maxX - minX;
+            double extentY = maxY - minY;
+
+            // Aim for about one segment per cell
+            double cellSize = Math.sqrt(Math.max(extentX * extentY, 1e-6) / count);
+            cellSize = Math.max(cellSize, Math.max(extentX, extentY) / MAX_GRID_SIZE);
+            cellSize = Math.max(cellSize, 1e-3);
+
+            this.minX = minX;
+            this.minY = minY;
+            this.cellSize = cellSize;
+            this.width = Math.min((int)(extentX / cellSize) + 1, MAX_GRID_SIZE + 1);
+            this.height = Math.min((int)(extentY / cellSize) + 1, MAX_GRID_SIZE + 1);
+
+            // Count the segments of each cell, then fill them in
+            int[] cellCount = new int[width * height + 1];
+            int[] cellRange = new int[4];
+            for (int i=0;i<lineSegmentsEnd;i+=5)
+            {
+                getCellRange(i, cellRange);
+                for (int cy=cellRange[2];cy<=cellRange[3];cy++)
+                    for (int cx=cellRange[0];cx<=cellRange[1];cx++)
+                        cellCount[cy * width + cx]++;
+            }
+            // Turn the counts into the end of each cell, they are decremented back to the start when filled in
+            for (int c=1;c<cellCount.length;c++)
+                cellCount[c] += cellCount[c-1];
+            this.cellSegments = new int[cellCount[cellCount.length - 1]];
+            for (int i=0;i<lineSegmentsEnd;i+=5)
+            {
+                getCellRange(i, cellRange);
+                for (int cy=cellRange[2];cy<=cellRange[3];cy++)
+                    for (int cx=cellRange[0];cx<=cellRange[1];cx++)
+                        cellSegments[--cellCount[cy * width + cx]] = i;
+            }
+            this.cellStart = cellCount;
+        }
+
+        // Get the cells overlapped by the bounding box of the line segment starting at index i
+        private void getCellRange(int i, int[] cellRange)
         {
             double x0 = lineSegments[i];
             double y0 = lineSegments[i+1];
-            double dx = lineSegments[i+2];
-            double dy = lineSegments[i+3];
-            double k = lineSegments[i+4];
+            double x1 = x0 + lineSegments[i+2];
+            double y1 = y0 + lineSegments[i+3];
+            cellRange[0] = cellX(Math.min(x0, x1));
+            cellRange[1] = cellX(Math.max(x0, x1));
+            cellRange[2] = cellY(Math.min(y0, y1));
+            cellRange[3] = cellY(Math.max(y0, y1));
+        }
 
-            double dx0 = x - x0;
-            double dy0 = y - y0;
-            double t = k * (dx * dx0 + dy * dy0);
+        private int cellX(double x)
+        {
+            return Math.max(0, Math.min(width - 1, (int)Math.floor((x - minX) / cellSize)));
+        }
 
-            if (t < 0)
+        private int cellY(double y)
+        {
+            return Math.max(0, Math.min(height - 1, (int)Math.floor((y - minY) / cellSize)));
+        }
+
+        private double searchCell(int cx, int cy, double x, double y, double distMin)
+        {
+            int cell = cy * width + cx;
+            for (int c=cellStart[cell];c<cellStart[cell+1];c++)
             {
-                // Closest point is t=0 of the line
-                double distSqr = dx0 * dx0 + dy0 * dy0;
+                double distSqr = segmentDistSqr(lineSegments, cellSegments[c], x, y);
                 if (distSqr < distMin)
                     distMin = distSqr;
             }
-            else if (t > 1)
+            return distMin;
+        }
+
+        // Search rings of cells around [x, y] until no closer segment can be found,
+        // or until the remaining segments are further away than maxDist
+        double distSqr(double x, double y, double maxDist)
+        {
+            int cx = (int)Math.floor((x - minX) / cellSize);
+            int cy = (int)Math.floor((y - minY) / cellSize);
+
+            // The first ring that touches the grid, and the ring that covers all of it
+            int rFirst = Math.max(Math.max(-cx, cx - (width - 1)), Math.max(-cy, cy - (height - 1)));
+            rFirst = Math.max(0, rFirst);
+            int rLast = Math.max(Math.max(cx, width - 1 - cx), Math.max(cy, height - 1 - cy));
+
+            double distMin = MAX_DIST_SQR;
+            for (int r=rFirst;r<=rLast;r++)
             {
-                // Closest point is t=1 of the line
-                double xx = x - (x0 + dx);
-                double yy = y - (y0 + dy);
-                double distSqr = xx*xx + yy*yy;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                int x0 = cx - r, x1 = cx + r;
+                int y0 = cy - r, y1 = cy + r;
+                int ix0 = Math.max(x0, 0), ix1 = Math.min(x1, width - 1);
+                int iy0 = Math.max(y0, 0), iy1 = Math.min(y1, height - 1);
+                for (int iy=iy0;iy<=iy1;iy++)
+                {
+                    if (iy == y0 || iy == y1)
+                    {
+                        for (int ix=ix0;ix<=ix1;ix++)
+                            distMin = searchCell(ix, iy, x, y, distMin);
+                    }
+                    else
+                    {
+                        if (x0 >= 0)
+                            distMin = searchCell(x0, iy, x, y, distMin);
+                        if (x1 < width && x1 != x0)
+                            distMin = searchCell(x1, iy, x, y, distMin);
+                    }
+                }
+
+                // Segments in cells outside the ring are at least this far away
+                double d = Math.min(Math.min(x - (minX + x0 * cellSize), minX + (x1 + 1) * cellSize - x),
+                                    Math.min(y - (minY + y0 * cellSize), minY + (y1 + 1) * cellSize - y));
+                d -= cellSize * 1e-9;
+                if (d > 0 && (distMin <= d * d || d >= maxDist))
+                    break;
             }
-            else
+            return Math.min(distMin, maxDist * maxDist);
+        }
+    }
+
+    // Render the distance to the closest line segment for each pixel of the rectangle [x0, y0] to [x1, y1].
+    // Gives the same result as calling distSqr for each pixel, but only the segments close to a pixel are searched.
+    public void render(double[] output, double x0, double y0, double x1, double y1, int width, int height)
+    {
+        render(output, x0, y0, x1, y1, width, height, Math.sqrt(MAX_DIST_SQR));
+    }
+
+    // Same as render above, but distances larger than maxDistance are written as maxDistance. Only the
+    // segments within maxDistance of a pixel are searched, which is much faster for a small distance.
+    public void render(double[] output, double x0, double y0, double x1, double y1, int width, int height, double maxDistance)
+    {
+        maxDistance = Math.min(maxDistance, Math.sqrt(MAX_DIST_SQR));
+        if (lineSegmentsEnd == 0)
+        {
+            Arrays.fill(output, 0, width * height, maxDistance);
+            return;
+        }
+
+        Grid grid = new Grid(lineSegments, lineSegmentsEnd);
+        int ofs = 0;
+        double dx = (x1 - x0) / (double)width;
+        for (int y=0;y<height;y++)
+        {
+            double py = y0 + y * (y1-y0) / (double)height;
+            double px = x0;
+            for (int x=0;x<width;x++)
             {
-                // Case when the closest point is along the line, and t will be [0,1]
-                double px = x0 + t * dx - x;
-                double py = y0 + t * dy - y;
-                double distSqr = px*px + py*py;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                output[ofs++] = Math.sqrt(grid.distSqr(px, py, maxDistance));
+                px += dx;
             }
         }
-        return distMin;
     }
 
-    public void render(double[] output, double x0, double y0, double x1, double y1, int width, int height)
+    // Render if each pixel of the rectangle [x0, y0] to [x1, y1] is inside the closed outline formed by
+    // the line segments, using the PathIterator winding rule. Each row is tested with a single scanline
+    // instead of testing every pixel against every segment.
+    public void renderInside(boolean[] output, double x0, double y0, double x1, double y1, int width, int height, int windingRule)
     {
+        double[] crossingX = new double[lineSegmentsEnd / 5];
+        int[] crossingDir = new int[lineSegmentsEnd / 5];
         int ofs = 0;
         double dx = (x1 - x0) / (double)width;
         for (int y=0;y<height;y++)
         {
             double py = y0 + y * (y1-y0) / (double)height;
+
+            // Find where the segments cross the row, sorted from left to right
+            int crossings = 0;
+            for (int i=0;i<lineSegmentsEnd;i+=5)
+            {
+                double sy0 = lineSegments[i+1];
+                double sy1 = sy0 + lineSegments[i+3];
+                int dir;
+                if (sy0 <= py && py < sy1)
+                    dir = 1;
+                else if (sy1 <= py && py < sy0)
+                    dir = -1;
+                else
+                    continue;
+
+                double cx = lineSegments[i] + lineSegments[i+2] * (py - sy0) / lineSegments[i+3];
+                int c = crossings++;
+                while (c > 0 && crossingX[c-1] > cx)
+                {
+                    crossingX[c] = crossingX[c-1];
+                    crossingDir[c] = crossingDir[c-1];
+                    c--;
+                }
+                crossingX[c] = cx;
+                crossingDir[c] = dir;
+            }
+
+            // The winding number of a pixel is the sum of the crossings to the left of it
+            int winding = 0;
+            int c = 0;
             double px = x0;
             for (int x=0;x<width;x++)
             {
-                output[ofs++] = Math.sqrt(distSqr(px, py));
+                while (c < crossings && crossingX[c] < px)
+                    winding += crossingDir[c++];
+                if (windingRule == PathIterator.WIND_EVEN_ODD)
+                    output[ofs++] = (winding & 1) != 0;
+                else
+                    output[ofs++] = winding != 0;
                 px += dx;
             }
         }
@@ -52,6 +52,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import javax.imageio.ImageIO;
 
@@ -64,6 +68,7 @@ import com.dynamo.bob.TexcLibrary.CompressionLevel;
 import com.dynamo.bob.TexcLibrary.CompressionType;
 
 import com.dynamo.bob.pipeline.TextureGeneratorException;
+import com.dynamo.bob.util.ExecutorUtil;
 
 import com.dynamo.bob.font.BMFont.BMFontFormatException;
 import com.dynamo.bob.font.BMFont.Char;
@@ -143,6 +148,15 @@ public class Fontc {
     static final int LAYER_SHADOW  = 0x4;
 
     static final float sdf_edge = 0.75f;
+    // Max distance between the glyph outline and the line segments used for the distance field
+    static final double SDF_FLATNESS = 0.1;
+
+    // How the glyph images are generated
+    private enum GlyphType {
+        BITMAP,
+        BMFONT,
+        DISTANCE_FIELD
+    }
 
     private InputFontFormat inputFormat = InputFontFormat.FORMAT_TRUETYPE;
     private Stroke outlineStroke = null;
@@ -153,6 +167,7 @@ public class Fontc {
 
     private Font font;
     private BMFont bmfont;
+    private Executor executor;
 
     public interface FontResourceResolver {
         public InputStream getResource(String resourceName) throws FileNotFoundException;
@@ -162,6 +177,15 @@ public class Fontc {
 
     }
 
+    /**
+     * Set the executor to generate the glyphs on. The glyphs are generated on the
+     * calling thread if there is no executor.
+     * @param executor executor, or null
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     public InputFontFormat getInputFormat() {
         return inputFormat;
     }
@@ -317,6 +341,23 @@ public class Fontc {
         return sdfLimitValue * (1.0f - sdf_edge) + sdf_edge;
     }
 
+    // Glyphs are generated in parallel, so each glyph creates its own shadow filter
+    private ConvolveOp createShadowConvolve() {
+        if (fontDesc.getShadowAlpha() <= 0.0f) {
+            return null;
+        }
+        float[] kernelData = {
+                0.0625f, 0.1250f, 0.0625f,
+                0.1250f, 0.2500f, 0.1250f,
+                0.0625f, 0.1250f, 0.0625f
+        };
+        Kernel kernel = new Kernel(3, 3, kernelData);
+        RenderingHints hints = new RenderingHints(null);
+        hints.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+        hints.put(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
+        return new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, hints);
+    }
+
     private ByteBuffer toByteArray(BufferedImage image, int width, int height, int bpp, int targetBpp) throws IOException {
         int dataSize = width * height * bpp;
         ByteBuffer buffer = ByteBuffer.allocateDirect(dataSize);
@@ -382,22 +423,8 @@ public class Fontc {
             padding = Math.min(4, fontDesc.getShadowBlur()) + (int)(fontDesc.getOutlineWidth());
         }
 
-        Color faceColor = new Color(fontDesc.getAlpha(), 0.0f, 0.0f);
-        Color outlineColor = new Color(0.0f, fontDesc.getOutlineAlpha(), 0.0f);
-        ConvolveOp shadowConvolve = null;
-        Composite blendComposite = new BlendComposite();
-        if (fontDesc.getShadowAlpha() > 0.0f) {
-            float[] kernelData = {
-                    0.0625f, 0.1250f, 0.0625f,
-                    0.1250f, 0.2500f, 0.1250f,
-                    0.0625f, 0.1250f, 0.0625f
-            };
-            Kernel kernel = new Kernel(3, 3, kernelData);
-            RenderingHints hints = new RenderingHints(null);
-            hints.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
-            hints.put(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
-            shadowConvolve = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, hints);
-        }
+        final Color faceColor = new Color(fontDesc.getAlpha(), 0.0f, 0.0f);
+        final Color outlineColor = new Color(0.0f, fontDesc.getOutlineAlpha(), 0.0f);
         if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD) {
             // Calculate edge values for both outline and shadow. We must treat them differently
             // so that we don't use the same precision range for both edges
@@ -536,112 +563,91 @@ public class Fontc {
         if (preview) {
             include_glyph_count = Math.min(glyphs.size(), cache_rows * cache_columns);
         }
+        // The glyphs are generated in parallel, each one into its own buffer. The buffers are then
+        // added to the glyph data bank in order, so the result is the same as when done one by one.
+        List<Callable<byte[]>> jobs = new ArrayList<Callable<byte[]>>(include_glyph_count);
+        List<Glyph> jobGlyphs = new ArrayList<Glyph>(include_glyph_count);
         for (int i = 0; i < include_glyph_count; i++) {
 
-            Glyph glyph = glyphs.get(i);
+            final Glyph glyph = glyphs.get(i);
             if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
                 continue;
             }
 
-            // Generate bitmap for each glyph depending on format
-            BufferedImage glyphImage = null;
+            // The font is only used from this thread, the glyph outlines are fetched up front
+            final GlyphType glyphType;
+            final Shape outline;
             if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
                 inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = drawGlyph(glyph, padding, font, blendComposite, faceColor, outlineColor, shadowConvolve);
+                glyphType = GlyphType.BITMAP;
+                outline = glyph.vector.getOutline(0, 0);
             } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
                        inputFormat == InputFontFormat.FORMAT_BMFONT) {
-                glyphImage = drawBMFontGlyph(glyph, imageBMFont);
+                glyphType = GlyphType.BMFONT;
+                outline = null;
             } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD &&
                        inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = makeDistanceField(glyph, padding, sdf_spread, sdf_shadow_spread, font, sdf_edge, shadowConvolve);
+                glyphType = GlyphType.DISTANCE_FIELD;
+                outline = glyph.vector.getGlyphOutline(0);
             } else {
                 throw new FontFormatException("Invalid font format combination!");
             }
 
-            if (preview) {
-
-                glyph.image = glyphImage;
-
-            } else {
-                BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
-                                                                    glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
-
-                int clearData = 0;
-                int mask = 0xFFFFFFFF;
-                if (channelCount==1)
-                    mask = 0xFF;
-                else if (channelCount==2)
-                    mask = 0xFFFF;
-                else if (channelCount==3)
-                    mask = 0xFFFFFF;
-
-                int py = 0;
-                // Get raster data from rendered glyph and store in glyph data bank
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
-                    paddedGlyphImage.setRGB(x, py, clearData);
-                py++;
-                for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
-                    int px = 0;
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                    for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
-                        int color = glyphImage.getRGB(x, y);
-                        int blue  = (color) & 0xff;
-                        int green = (color >> 8) & 0xff;
-                        int red   = (color >> 16) & 0xff;
-                        int alpha = (color >> 24) & 0xff;
-                        blue = (blue * alpha) / 255;
-                        green = (green * alpha) / 255;
-                        red = (red * alpha) / 255;
-                        color = ((alpha << 24) |
-                                (blue << 16) |
-                                (green << 8) |
-                                (red << 0)) & mask;
-
-                        paddedGlyphImage.setRGB(px, py, color);
+            final int glyphPadding = padding;
+            final int glyphCellPadding = cell_padding;
+            final float glyphSdfSpread = sdf_spread;
+            final float glyphSdfShadowSpread = sdf_shadow_spread;
+            final BufferedImage glyphImageBMFont = imageBMFont;
+            jobs.add(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws TextureGeneratorException {
+                    // Generate bitmap for each glyph depending on format
+                    BufferedImage glyphImage = null;
+                    switch (glyphType) {
+                        case BITMAP:
+                            glyphImage = drawGlyph(glyph, outline, glyphPadding, new BlendComposite(), faceColor, outlineColor, createShadowConvolve());
+                            break;
+                        case BMFONT:
+                            glyphImage = drawBMFontGlyph(glyph, glyphImageBMFont);
+                            break;
+                        case DISTANCE_FIELD:
+                            glyphImage = makeDistanceField(glyph, outline, glyphPadding, glyphSdfSpread, glyphSdfShadowSpread, sdf_edge, createShadowConvolve());
+                            break;
                     }
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                }
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
-                    paddedGlyphImage.setRGB(x, 0, clearData);
-
-                Pointer compressedTexture = null;
-                try {
-                    int width = paddedGlyphImage.getWidth();
-                    int height = paddedGlyphImage.getHeight();
-
-                    ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
-
-                    compressedTexture = TexcLibrary.TEXC_CompressBuffer(paddedBuffer, paddedBuffer.limit());
-                    int texcBufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
-                    ByteBuffer buffer = ByteBuffer.allocateDirect(texcBufferSize);
-                    TexcLibrary.TEXC_GetBufferData(compressedTexture, buffer, texcBufferSize);
-
-                    byte[] uncompressedBuffer = new byte[paddedBuffer.limit()];
-                    paddedBuffer.get(uncompressedBuffer);
 
-                    byte[] compressedBuffer = new byte[buffer.limit()];
-                    buffer.get(compressedBuffer);
-
-                    int size = uncompressedBuffer.length;
-                    int bufferSize = compressedBuffer.length;
-
-                    if (size < bufferSize)
-                    {
-                        bufferSize = size;
-                        compressedBuffer = uncompressedBuffer;
+                    if (preview) {
+                        glyph.image = glyphImage;
+                        return null;
                     }
+                    return compressGlyph(glyphImage, glyphCellPadding);
+                }
+            });
+            jobGlyphs.add(glyph);
+        }
 
-                    glyph.cache_entry_offset = dataOffset;
-                    glyph.cache_entry_size = compressedBuffer.length;
-                    dataOffset += glyph.cache_entry_size;
+        List<byte[]> glyphData;
+        try {
+            glyphData = ExecutorUtil.runJobs(executor, jobs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
+        } catch (ExecutionException e) {
+            Throwable cause = ExecutorUtil.getCheckedCause(e);
+            if (cause instanceof TextureGeneratorException) {
+                throw (TextureGeneratorException) cause;
+            }
+            throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", cause.getMessage()));
+        }
+        if (!preview) {
+            for (int i = 0; i < jobGlyphs.size(); i++) {
+                Glyph glyph = jobGlyphs.get(i);
+                byte[] data = glyphData.get(i);
 
-                    glyphDataBank.write(compressedBuffer);
+                glyph.cache_entry_offset = dataOffset;
+                glyph.cache_entry_size = data.length;
+                dataOffset += glyph.cache_entry_size;
 
-                } catch(IOException e) {
-                    throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
-                } finally {
-                    TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
-                }
+                glyphDataBank.write(data, 0, data.length);
             }
         }
 
@@ -697,17 +703,96 @@ public class Fontc {
 
     }
 
+    // Pad the glyph image with empty pixels, and compress it if that makes it smaller
+    private byte[] compressGlyph(BufferedImage glyphImage, int cell_padding) throws TextureGeneratorException {
+        BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
+                                                            glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
+
+        int clearData = 0;
+        int mask = 0xFFFFFFFF;
+        if (channelCount==1)
+            mask = 0xFF;
+        else if (channelCount==2)
+            mask = 0xFFFF;
+        else if (channelCount==3)
+            mask = 0xFFFFFF;
+
+        int py = 0;
+        // Get raster data from rendered glyph and store in glyph data bank
+        for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
+            paddedGlyphImage.setRGB(x, py, clearData);
+        py++;
+        for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
+            int px = 0;
+            paddedGlyphImage.setRGB(px++, py, clearData);
+            for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
+                int color = glyphImage.getRGB(x, y);
+                int blue  = (color) & 0xff;
+                int green = (color >> 8) & 0xff;
+                int red   = (color >> 16) & 0xff;
+                int alpha = (color >> 24) & 0xff;
+                blue = (blue * alpha) / 255;
+                green = (green * alpha) / 255;
+                red = (red * alpha) / 255;
+                color = ((alpha << 24) |
+                        (blue << 16) |
+                        (green << 8) |
+                        (red << 0)) & mask;
+
+                paddedGlyphImage.setRGB(px, py, color);
+            }
+            paddedGlyphImage.setRGB(px++, py, clearData);
+        }
+        for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
+            paddedGlyphImage.setRGB(x, 0, clearData);
+
+        Pointer compressedTexture = null;
+        try {
+            int width = paddedGlyphImage.getWidth();
+            int height = paddedGlyphImage.getHeight();
+
+            ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
+
+            compressedTexture = TexcLibrary.TEXC_CompressBuffer(paddedBuffer, paddedBuffer.limit());
+            int texcBufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(texcBufferSize);
+            TexcLibrary.TEXC_GetBufferData(compressedTexture, buffer, texcBufferSize);
+
+            byte[] uncompressedBuffer = new byte[paddedBuffer.limit()];
+            paddedBuffer.get(uncompressedBuffer);
+
+            byte[] compressedBuffer = new byte[buffer.limit()];
+            buffer.get(compressedBuffer);
+
+            int size = uncompressedBuffer.length;
+            int bufferSize = compressedBuffer.length;
+
+            if (size < bufferSize)
+            {
+                bufferSize = size;
+                compressedBuffer = uncompressedBuffer;
+            }
+
+            return compressedBuffer;
+
+        } catch(IOException e) {
+            throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
+        } finally {
+            TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
+        }
+    }
+
     private BufferedImage drawBMFontGlyph(Glyph glyph, BufferedImage imageBMFontInput) {
         return imageBMFontInput.getSubimage(glyph.x, glyph.y, glyph.width, glyph.ascent + glyph.descent);
     }
 
-    private BufferedImage makeDistanceField(Glyph glyph, int padding, float sdf_spread, float sdf_shadow_spread, Font font, float edge, ConvolveOp shadowConvolve) {
+    private BufferedImage makeDistanceField(Glyph glyph, Shape sh, int padding, float sdf_spread, float sdf_shadow_spread, float edge, ConvolveOp shadowConvolve) {
         int width = glyph.width + padding * 2;
         int height = glyph.ascent + glyph.descent + padding * 2;
 
-        Shape sh = glyph.vector.getGlyphOutline(0);
         PathIterator pi = sh.getPathIterator(new AffineTransform(1,0,0,1,0,0));
-        pi = new FlatteningPathIterator(pi,  0.1);
+        pi = new FlatteningPathIterator(pi,  SDF_FLATNESS);
+        int windingRule = pi.getWindingRule();
 
         double _x = 0, _y = 0;
         double _lastmx = 0, _lastmy = 0;
@@ -747,9 +832,16 @@ public class Fontc {
         double u1 = u0 + width;
         double v1 = v0 + height;
 
+        // Distances beyond the spread of the edge and the shadow are all mapped to the same values,
+        // so there is no need to find the closest segment for pixels further away than that
+        float outline_width = fontDesc.getOutlineWidth();
+        double max_distance = Math.max(3.0f * sdf_spread, Math.max(sdf_shadow_spread, outline_width + 3.0f * sdf_shadow_spread)) + 1.0;
+
         double[] distance_data = new double[width*height];
+        boolean[] inside_data = new boolean[width*height];
 
-        df.render(distance_data, u0, v0, u1, v1, width, height);
+        df.render(distance_data, u0, v0, u1, v1, width, height, max_distance);
+        df.renderInside(inside_data, u0, v0, u1, v1, width, height, windingRule);
 
         double widthInverse  = 1 / (double)width;
         double heightInverse = 1 / (double)height;
@@ -765,7 +857,10 @@ public class Fontc {
                 double distance_to_edge   = distance_data[ofs + u];
                 double distance_to_border = -(distance_to_edge - fontDesc.getOutlineWidth());
 
-                if (!sh.contains(gx, gy)) {
+                // The flattened outline is within SDF_FLATNESS of the glyph outline, so only pixels
+                // closer than that to the outline need the exact test against the glyph shape
+                boolean inside = distance_to_edge > 2 * SDF_FLATNESS ? inside_data[ofs + u] : sh.contains(gx, gy);
+                if (!inside) {
                     distance_to_edge = -distance_to_edge;
                 }
 
@@ -823,7 +918,7 @@ public class Fontc {
         return image;
     }
 
-    private BufferedImage drawGlyph(Glyph glyph, int padding, Font font, Composite blendComposite, Color faceColor, Color outlineColor, ConvolveOp shadowConvolve) {
+    private BufferedImage drawGlyph(Glyph glyph, Shape outline, int padding, Composite blendComposite, Color faceColor, Color outlineColor, ConvolveOp shadowConvolve) {
         int width = glyph.width + padding * 2;
         int height = glyph.ascent + glyph.descent + padding * 2;
 
@@ -840,7 +935,6 @@ public class Fontc {
         g.clearRect(0, 0, image.getWidth(), image.getHeight());
         g.translate(dx, dy);
 
-        Shape outline = glyph.vector.getOutline(0, 0);
         if (this.fontDesc.getShadowAlpha() > 0.0f) {
             if (this.fontDesc.getAlpha() > 0.0f) {
                 g.setPaint(new Color(0.0f, 0.0f, this.fontDesc.getShadowAlpha() * this.fontDesc.getAlpha()));
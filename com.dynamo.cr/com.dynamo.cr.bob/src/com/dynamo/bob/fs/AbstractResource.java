@@ -62,6 +62,11 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
         return sha1.digest();
     }
 
+    @Override
+    public ResourceOutputFile createOutputFile() throws IOException {
+        return new ResourceOutputFile(this);
+    }
+
     @Override
     public String getAbsPath() {
         return concat(fileSystem.getRootDirectory(), path);
@@ -14,33 +14,21 @@
 
 package com.dynamo.bob.fs;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 
+import com.dynamo.bob.cache.BuildDatabase;
 
-public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, DefaultResource> {
 
-    static class CacheEntry implements Serializable {
-        private static final long serialVersionUID = 1L;
-        long mTime;
-        byte[] sha1;
-    }
+public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, DefaultResource> {
 
-    private Map<String, CacheEntry> cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
+    // Digest cache entries are stored as the modification time and size followed by the sha1
+    private BuildDatabase cache = new BuildDatabase();
 
     @Override
     public IResource get(String path) {
@@ -72,45 +60,49 @@ public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, Def
     byte[] sha1(DefaultResource resource) throws IOException {
         String absPath = resource.getAbsPath();
         File file = new File(absPath);
-        CacheEntry e = cache.get(resource.getPath());
-        if (e != null && file.lastModified() == e.mTime) {
-            return e.sha1;
-        } else {
-            e = new CacheEntry();
-            e.mTime = file.lastModified();
-            e.sha1 = calcSha1(resource);
-            cache.put(resource.getPath(), e);
-            return e.sha1;
+        long mTime = file.lastModified();
+        long size = file.length();
+        byte[] entry = cache.get(resource.getPath());
+        if (entry != null && entry.length > 16) {
+            ByteBuffer buffer = ByteBuffer.wrap(entry);
+            if (buffer.getLong() == mTime && buffer.getLong() == size) {
+                byte[] sha1 = new byte[entry.length - 16];
+                buffer.get(sha1);
+                return sha1;
+            }
         }
+        byte[] sha1 = calcSha1(resource);
+        ByteBuffer newEntry = ByteBuffer.allocate(16 + sha1.length);
+        newEntry.putLong(mTime);
+        newEntry.putLong(size);
+        newEntry.put(sha1);
+        cache.put(resource.getPath(), newEntry.array());
+        return sha1;
+    }
+
+    private File getCacheFile() {
+        return new File(FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache"));
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void loadCache() {
-        cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectInputStream is = null;
         try {
-            is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)));
-            cache = (Map<String, CacheEntry>) is.readObject();
-            is.close();
+            cache = BuildDatabase.open(getCacheFile());
         } catch (IOException e) {
-        } catch (ClassNotFoundException e) {
-        } finally {
-            IOUtils.closeQuietly(is);
+            cache = new BuildDatabase();
         }
     }
 
     @Override
     public void saveCache() {
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectOutputStream os = null;
         try {
-            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
-            os.writeObject(cache);
+            if (cache.isFileBacked()) {
+                cache.commit();
+            }
         } catch (IOException e) {
         } finally {
-            IOUtils.closeQuietly(os);
+            cache.close();
+            cache = new BuildDatabase();
         }
     }
 
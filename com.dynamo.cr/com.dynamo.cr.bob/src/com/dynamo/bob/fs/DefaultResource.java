@@ -47,8 +47,9 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
         }
     }
 
-    @Override
-    public void setContent(byte[] content) throws IOException {
+    // Outputs may be hard links to other outputs with the same content. Remove
+    // the old file instead of writing to it to not change the other outputs.
+    private File createFile() {
         File f = new File(getAbsPath());
         if (!f.exists()) {
             String dir = FilenameUtils.getFullPath(getAbsPath());
@@ -56,7 +57,15 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
             if (!dirFile.exists()) {
                 dirFile.mkdirs();
             }
+        } else {
+            f.delete();
         }
+        return f;
+    }
+
+    @Override
+    public void setContent(byte[] content) throws IOException {
+        File f = createFile();
 
         BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(f));
         try {
@@ -68,14 +77,7 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
 
     @Override
     public void setContent(InputStream stream) throws IOException {
-        File f = new File(getAbsPath());
-        if (!f.exists()) {
-            String dir = FilenameUtils.getFullPath(getAbsPath());
-            File dirFile = new File(dir);
-            if (!dirFile.exists()) {
-                dirFile.mkdirs();
-            }
-        }
+        File f = createFile();
 
         try {
             FileUtils.copyInputStreamToFile(stream, f);
@@ -84,6 +86,13 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
         }
     }
 
+    // Written next to the output and renamed to it when committed, so that the
+    // old file is replaced instead of written to, the same as in setContent
+    @Override
+    public ResourceOutputFile createOutputFile() throws IOException {
+        return new ResourceOutputFile(this, new File(getAbsPath()));
+    }
+
     @Override
     public byte[] sha1() throws IOException {
         return this.fileSystem.sha1(this);
@@ -110,6 +110,15 @@ public interface IResource {
      */
     void setContent(InputStream stream) throws IOException;
 
+    /**
+     * Create a file to write the content to, for content that is too large to
+     * keep in memory. The content is replaced when the file is committed.
+     * @note only valid operation for output-resources, see {@link IResource#output()}
+     * @return the file to write to
+     * @throws IOException
+     */
+    ResourceOutputFile createOutputFile() throws IOException;
+
     /**
      * Get the time when the resource was modified
      * @return long representing Unix time when the resource was modified
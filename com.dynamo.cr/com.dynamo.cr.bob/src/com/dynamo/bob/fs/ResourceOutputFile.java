@@ -0,0 +1,138 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * File to write the content of a resource to, for content that is too large to
+ * keep in memory or that isn't written from start to end, such as the game archive.
+ * The content of the resource is replaced when the file is committed, and is left
+ * as it was if the file is closed without being committed.
+ */
+public class ResourceOutputFile implements Closeable {
+
+    private final IResource resource;
+    private final File target;
+    private final File file;
+    private RandomAccessFile randomAccessFile = null;
+    private boolean committed = false;
+
+    /**
+     * Create a temporary file that the content of the resource is set from when committed
+     * @param resource the resource
+     * @throws IOException
+     */
+    public ResourceOutputFile(IResource resource) throws IOException {
+        this.resource = resource;
+        this.target = null;
+        this.file = File.createTempFile("defold.output_", ".tmp");
+        this.file.deleteOnExit();
+    }
+
+    /**
+     * Create a temporary file next to the file of the resource, that replaces it when committed
+     * @param resource the resource
+     * @param target the file of the resource
+     * @throws IOException
+     */
+    public ResourceOutputFile(IResource resource, File target) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        this.resource = resource;
+        this.target = target;
+        this.file = File.createTempFile(target.getName() + ".", ".tmp", dir);
+        this.file.deleteOnExit();
+    }
+
+    /**
+     * Get the file that is written to
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the file opened for reading and writing. It is opened, empty, at the first call
+     * and closed when committed.
+     * @return the file
+     * @throws IOException
+     */
+    public RandomAccessFile getRandomAccessFile() throws IOException {
+        if (randomAccessFile == null) {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.setLength(0);
+        }
+        return randomAccessFile;
+    }
+
+    /**
+     * Replace the content of the resource with the file
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        closeFile();
+        if (target != null) {
+            // Readers of the resource see either the old or the new content, never a partial file
+            try {
+                Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } else {
+            FileInputStream stream = new FileInputStream(file);
+            try {
+                resource.setContent(stream);
+            } finally {
+                IOUtils.closeQuietly(stream);
+            }
+            file.delete();
+        }
+        committed = true;
+    }
+
+    private void closeFile() throws IOException {
+        if (randomAccessFile != null) {
+            randomAccessFile.close();
+            randomAccessFile = null;
+        }
+    }
+
+    /**
+     * Close the file, and remove it unless it was committed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            closeFile();
+        } finally {
+            if (!committed) {
+                file.delete();
+            }
+        }
+    }
+}
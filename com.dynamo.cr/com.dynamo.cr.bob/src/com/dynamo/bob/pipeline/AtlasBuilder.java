@@ -17,6 +17,11 @@ package com.dynamo.bob.pipeline;
 import java.io.IOException;
 import java.io.ByteArrayOutputStream;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import com.dynamo.bob.Bob;
 import com.dynamo.bob.Builder;
@@ -24,6 +29,8 @@ import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
+import com.dynamo.bob.TexcLibrary.FlipAxis;
+import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
@@ -43,7 +50,7 @@ public class AtlasBuilder extends Builder<TextureImage.Type>  {
     @Override
     public Task<TextureImage.Type> create(IResource input) throws IOException, CompileExceptionError {
         Atlas.Builder builder = Atlas.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
         Atlas atlas = builder.build();
 
         // We can't just look at result of texture generation to decide the image type,
@@ -89,20 +96,26 @@ public class AtlasBuilder extends Builder<TextureImage.Type>  {
         String texturePath      = task.output(1).getPath().substring(buildDirLen);
         TextureSet textureSet   = result.builder.setPageCount(numPages).setTexture(texturePath).build();
 
-        TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
+        final TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
         Bob.verbose("Compiling %s using profile %s", task.input(0).getPath(), texProfile!=null?texProfile.getName():"<none>");
-        TextureImage textureImages[] = new TextureImage[numImages];
-
-        for (int i = 0; i < numImages; i++)
-        {
-            TextureImage texture;
-            try {
-                boolean compress = project.option("texture-compression", "false").equals("true");
-                texture = TextureGenerator.generate(result.images.get(i), texProfile, compress);
-            } catch (TextureGeneratorException e) {
-                throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
-            }
-            textureImages[i] = texture;
+        // The pages, and the formats of each page, are encoded in parallel
+        final boolean compress = project.option("texture-compression", "false").equals("true");
+        final Executor executor = project.getTaskExecutor();
+        final ResourceCache textureCache = project.getTextureCache();
+        List<Callable<TextureImage>> jobs = new ArrayList<Callable<TextureImage>>(numImages);
+        for (final BufferedImage image : result.images) {
+            jobs.add(new Callable<TextureImage>() {
+                @Override
+                public TextureImage call() throws TextureGeneratorException, IOException {
+                    return TextureGenerator.generate(image, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), executor, textureCache);
+                }
+            });
+        }
+        TextureImage textureImages[];
+        try {
+            textureImages = TextureGenerator.runJobs(executor, jobs).toArray(new TextureImage[numImages]);
+        } catch (TextureGeneratorException e) {
+            throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
 
         TextureImage texture = TextureUtil.createCombinedTextureImage(textureImages, textureType);
@@ -203,7 +203,7 @@ public class AtlasUtil {
     public static TextureSetResult generateTextureSet(final Project project, IResource atlasResource) throws IOException, CompileExceptionError {
         TimeProfiler.start("generateTextureSet");
         Atlas.Builder builder = Atlas.newBuilder();
-        ProtoUtil.merge(atlasResource, builder);
+        ProtoUtil.merge(project, atlasResource, builder);
         Atlas atlas = builder.build();
 
         List<AtlasImage> atlasImages = collectImages(atlas);
@@ -233,7 +233,7 @@ public class AtlasUtil {
                 Math.max(0, atlas.getInnerPadding()),
                 Math.max(0, atlas.getExtrudeBorders()),
                 true, false, null,
-                atlas.getMaxPageWidth(), atlas.getMaxPageHeight());
+                atlas.getMaxPageWidth(), atlas.getMaxPageHeight(), project.getTaskExecutor());
 
         TimeProfiler.stop();
         return result;
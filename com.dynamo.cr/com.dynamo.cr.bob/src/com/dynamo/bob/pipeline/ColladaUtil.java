@@ -585,51 +585,39 @@ public class ColladaUtil {
         return null;
     }
 
-    private static float[] toFloatArray(List<Float> a) {
-        float[] floatArray = new float[a.size()];
-        for (int i = 0 ; i < a.size(); i++) {
-            floatArray[i] = (float) a.get(i);
-        }
-        return floatArray;
-    }
-
-    private static int[] toIntArray(List<Integer> a) {
-        return a.stream().mapToInt(x -> x).toArray();
-    }
-
-    private static ModelImporter.Mesh createModelImporterMesh(List<Float> position_list,
-                                                              List<Float> normal_list,
-                                                              List<Float> texcoord_list,
-                                                              List<Float> bone_weights_list,
-                                                              List<Integer> bone_indices_list,
-                                                              List<Integer> mesh_index_list) {
+    private static ModelImporter.Mesh createModelImporterMesh(float[] position_list,
+                                                              float[] normal_list,
+                                                              float[] texcoord_list,
+                                                              float[] bone_weights_list,
+                                                              int[] bone_indices_list,
+                                                              int[] mesh_index_list) {
         ModelImporter.Mesh mesh = new ModelImporter.Mesh();
         mesh.name = "";
         mesh.material = "";
 
-        mesh.positions = toFloatArray(position_list);
-        if (normal_list.size() > 0)
-            mesh.normals = toFloatArray(normal_list);
+        mesh.positions = position_list;
+        if (normal_list.length > 0)
+            mesh.normals = normal_list;
 
         mesh.tangents = null;
         mesh.colors = null;
 
-        if (bone_weights_list.size() > 0)
-            mesh.weights = toFloatArray(bone_weights_list);
-        if (bone_indices_list.size() > 0)
-            mesh.bones = toIntArray(bone_indices_list);
+        if (bone_weights_list.length > 0)
+            mesh.weights = bone_weights_list;
+        if (bone_indices_list.length > 0)
+            mesh.bones = bone_indices_list;
 
         mesh.texCoords0NumComponents = 2;
-        if (texcoord_list.size() > 0)
-            mesh.texCoords0 = toFloatArray(texcoord_list);
+        if (texcoord_list.length > 0)
+            mesh.texCoords0 = texcoord_list;
         mesh.texCoords1NumComponents = 0; // 2 or 3
         mesh.texCoords1 = null;
 
-        if (mesh_index_list.size() > 0)
-            mesh.indices = toIntArray(mesh_index_list);
+        if (mesh_index_list.length > 0)
+            mesh.indices = mesh_index_list;
 
-        mesh.vertexCount = position_list.size() / 3;
-        mesh.indexCount = mesh_index_list.size();
+        mesh.vertexCount = position_list.length / 3;
+        mesh.indexCount = mesh_index_list.length;
 
         return mesh;
     }
@@ -739,13 +727,14 @@ public class ColladaUtil {
         assetSpaceMtx.mul(assetSpace.rotation, assetScaleMtx);
         bindShapeMatrix.mul(assetSpaceMtx, bindShapeMatrix);
 
-        List<Float> position_list = new ArrayList<Float>(positions.floatArray.count);
+        float[] position_list = new float[(positions.floatArray.count / 3) * 3];
+        Point3f p = new Point3f();
         for (int i = 0; i < positions.floatArray.count / 3; ++i) {
-            Point3f p = new Point3f(positions.floatArray.floats[i*3], positions.floatArray.floats[i*3+1], positions.floatArray.floats[i*3+2]);
+            p.set(positions.floatArray.floats[i*3], positions.floatArray.floats[i*3+1], positions.floatArray.floats[i*3+2]);
             bindShapeMatrix.transform(p);
-            position_list.add(p.getX());
-            position_list.add(p.getY());
-            position_list.add(p.getZ());
+            position_list[i*3+0] = p.getX();
+            position_list[i*3+1] = p.getY();
+            position_list[i*3+2] = p.getZ();
         }
 
         // Create a normal matrix which is the transposed inverse of
@@ -754,35 +743,36 @@ public class ColladaUtil {
         normalMatrix.invert();
         normalMatrix.transpose();
 
-        List<Float> normal_list = null;
+        float[] normal_list = new float[0];
         if(normals != null) {
-            normal_list = new ArrayList<Float>(normals.floatArray.count);
+            normal_list = new float[(normals.floatArray.count / 3) * 3];
+            Vector3f n = new Vector3f();
             for (int i = 0; i < normals.floatArray.count / 3; ++i) {
-                Vector3f n = new Vector3f(normals.floatArray.floats[i*3], normals.floatArray.floats[i*3+1], normals.floatArray.floats[i*3+2]);
+                n.set(normals.floatArray.floats[i*3], normals.floatArray.floats[i*3+1], normals.floatArray.floats[i*3+2]);
                 normalMatrix.transform(n);
                 if (n.lengthSquared() > 0.0) {
                     n.normalize();
                 }
-                normal_list.add(n.getX());
-                normal_list.add(n.getY());
-                normal_list.add(n.getZ());
+                normal_list[i*3+0] = n.getX();
+                normal_list[i*3+1] = n.getY();
+                normal_list[i*3+2] = n.getZ();
             }
         }
 
-        List<Float> texcoord_list;
+        float[] texcoord_list;
         if(texcoords == null) {
-            texcoord_list = new ArrayList<Float>(Arrays.asList(0f, 0f));
+            texcoord_list = new float[] {0f, 0f};
         } else {
-            texcoord_list = new ArrayList<Float>(texcoords.floatArray.count);
+            texcoord_list = new float[((texcoords.floatArray.count + 1) / 2) * 2];
             for (int i = 0; i < texcoords.floatArray.count; i += 2 ) {
-                texcoord_list.add(texcoords.floatArray.floats[i]);
-                texcoord_list.add(texcoords.floatArray.floats[i+1]);
+                texcoord_list[i] = texcoords.floatArray.floats[i];
+                texcoord_list[i+1] = texcoords.floatArray.floats[i+1];
             }
         }
 
-        List<Integer> position_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        List<Integer> normal_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        List<Integer> texcoord_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
+        int[] position_indices_list = new int[mesh.triangles.count*3];
+        int[] normal_indices_list = new int[normals != null ? mesh.triangles.count*3 : 0];
+        int[] texcoord_indices_list = new int[mesh.triangles.count*3];
 
         // Sometimes the <p> values can be -1 from Maya exports, we clamp it below to 0 instead.
         // Similar solution as AssImp; https://github.com/assimp/assimp/blob/master/code/ColladaParser.cpp#L2336
@@ -791,20 +781,20 @@ public class ColladaUtil {
             for (int j = 0; j < 3; ++j) {
                 int idx = i * stride * 3 + vertex_input.offset;
                 int vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                position_indices_list.add(vert_idx);
+                position_indices_list[i*3+j] = vert_idx;
 
                 if (normals != null) {
                     idx = i * stride * 3 + normalOffset;
                     vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                    normal_indices_list.add(vert_idx);
+                    normal_indices_list[i*3+j] = vert_idx;
                 }
 
                 if (texcoords == null) {
-                    texcoord_indices_list.add(0);
+                    texcoord_indices_list[i*3+j] = 0;
                 } else {
                     idx = i * stride * 3 + texcoord_input.offset;
                     vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                    texcoord_indices_list.add(vert_idx);
+                    texcoord_indices_list[i*3+j] = vert_idx;
                 }
 
             }
@@ -817,78 +807,86 @@ public class ColladaUtil {
                 MeshVertexIndex m = (MeshVertexIndex) o;
                 return (this.position == m.position && this.texcoord0 == m.texcoord0 && this.normal == m.normal);
             }
+            public int hashCode() {
+                return (position * 31 + texcoord0) * 31 + normal;
+            }
         }
 
         // Build an optimized list of triangles from indices and instance (make unique) any vertices common attributes (position, normal etc.).
         // We can then use this to quickly build am optimized indexed vertex buffer of any selected vertex elements in run-time without any sorting.
-        boolean mesh_has_normals = normal_indices_list.size() > 0;
+        boolean mesh_has_normals = normal_indices_list.length > 0;
         List<MeshVertexIndex> shared_vertex_indices = new ArrayList<MeshVertexIndex>(mesh.triangles.count*3);
-        List<Integer> mesh_index_list = new ArrayList<Integer>(mesh.triangles.count*3);
+        HashMap<MeshVertexIndex, Integer> shared_vertex_lookup = new HashMap<MeshVertexIndex, Integer>();
+        int[] mesh_index_list = new int[mesh.triangles.count*3];
         for (int i = 0; i < mesh.triangles.count*3; ++i) {
             MeshVertexIndex ci = new MeshVertexIndex();
-            ci.position = position_indices_list.get(i);
-            ci.texcoord0 = texcoord_indices_list.get(i);
-            ci.normal = mesh_has_normals ? normal_indices_list.get(i) : 0;
-            int index = optimize ? shared_vertex_indices.indexOf(ci) : -1;
-            if(index == -1) {
+            ci.position = position_indices_list[i];
+            ci.texcoord0 = texcoord_indices_list[i];
+            ci.normal = mesh_has_normals ? normal_indices_list[i] : 0;
+            Integer index = optimize ? shared_vertex_lookup.get(ci) : null;
+            if(index == null) {
                 // create new vertex as this is not equal to any existing in generated list
-                mesh_index_list.add(shared_vertex_indices.size());
+                mesh_index_list[i] = shared_vertex_indices.size();
+                if (optimize)
+                    shared_vertex_lookup.put(ci, shared_vertex_indices.size());
                 shared_vertex_indices.add(ci);
             } else {
                 // shared vertex, add index to existing vertex in generating list instead of adding new
-                mesh_index_list.add(index);
+                mesh_index_list[i] = index;
             }
         }
 
         int vertex_count = shared_vertex_indices.size();
 
-        ArrayList<Integer> bone_indices_list = new ArrayList<Integer>(vertex_count*4);
-        ArrayList<Float> bone_weights_list = new ArrayList<Float>(vertex_count*4);
-        int max_bone_count = loadVertexWeights(collada, bone_weights_list, bone_indices_list);
+        VertexWeights vertexWeights = loadVertexWeights(collada);
+        int[] bone_indices_list = vertexWeights.boneIndices;
+        float[] bone_weights_list = vertexWeights.weights;
+        int max_bone_count = vertexWeights.maxBoneCount;
 
         // Bake the values again into our format
-        Float baked_position_list[] = new Float[vertex_count*3];
-        Float baked_normal_list[] = new Float[0];
-        Float baked_texcoord_list[] = new Float[0];
-        Integer baked_bone_indices_list[] = new Integer[0];
-        Float baked_bone_weights_list[] = new Float[0];
+        float baked_position_list[] = new float[vertex_count*3];
+        float baked_normal_list[] = new float[0];
+        float baked_texcoord_list[] = new float[0];
+        int baked_bone_indices_list[] = new int[0];
+        float baked_bone_weights_list[] = new float[0];
 
-        if (normal_list.size() > 0) {
-            baked_normal_list = new Float[vertex_count*3];
+        if (normal_list.length > 0) {
+            baked_normal_list = new float[vertex_count*3];
         }
-        if (texcoord_list.size() > 0) {
-            baked_texcoord_list = new Float[vertex_count*2];
+        if (texcoord_list.length > 0) {
+            baked_texcoord_list = new float[vertex_count*2];
         }
-        if (bone_indices_list.size() > 0) {
-            baked_bone_indices_list = new Integer[vertex_count*4];
-            baked_bone_weights_list = new Float[vertex_count*4];
+        if (bone_indices_list.length > 0) {
+            baked_bone_indices_list = new int[vertex_count*4];
+            baked_bone_weights_list = new float[vertex_count*4];
         }
 
-        for (int index : mesh_index_list) {
+        // Every shared vertex is referenced by the index list, so bake each one once
+        for (int index = 0; index < vertex_count; ++index) {
             MeshVertexIndex ci = shared_vertex_indices.get(index);
 
             for (int c = 0; c < 3; ++c)
             {
-                baked_position_list[index*3+c] = position_list.get(ci.position*3+c);
-                if (normal_list.size() > 0)
-                    baked_normal_list[index*3+c] = normal_list.get(ci.normal*3+c);
+                baked_position_list[index*3+c] = position_list[ci.position*3+c];
+                if (normal_list.length > 0)
+                    baked_normal_list[index*3+c] = normal_list[ci.normal*3+c];
             }
 
-            if (texcoord_list.size() > 0)
+            if (texcoord_list.length > 0)
             {
                 for (int c = 0; c < 2; ++c)
                 {
-                    baked_texcoord_list[index*2+c] = texcoord_list.get(ci.texcoord0*2+c);
+                    baked_texcoord_list[index*2+c] = texcoord_list[ci.texcoord0*2+c];
                 }
             }
 
-            if (bone_indices_list.size() > 0)
+            if (bone_indices_list.length > 0)
             {
                 // For the bones we use the index of the position
                 for (int c = 0; c < 4; ++c)
                 {
-                    baked_bone_indices_list[index*4+c] = bone_indices_list.get(ci.position*4+c);
-                    baked_bone_weights_list[index*4+c] = bone_weights_list.get(ci.position*4+c);
+                    baked_bone_indices_list[index*4+c] = bone_indices_list[ci.position*4+c];
+                    baked_bone_weights_list[index*4+c] = bone_weights_list[ci.position*4+c];
                 }
             }
         }
@@ -896,11 +894,11 @@ public class ColladaUtil {
         Rig.Model.Builder modelBuilder = Rig.Model.newBuilder();
 
         List<ModelImporter.Mesh> allMeshes = new ArrayList<>();
-        ModelImporter.Mesh miMesh = createModelImporterMesh(new ArrayList<>(Arrays.asList(baked_position_list)),
-                                                            new ArrayList<>(Arrays.asList(baked_normal_list)),
-                                                            new ArrayList<>(Arrays.asList(baked_texcoord_list)),
-                                                            new ArrayList<>(Arrays.asList(baked_bone_weights_list)),
-                                                            new ArrayList<>(Arrays.asList(baked_bone_indices_list)),
+        ModelImporter.Mesh miMesh = createModelImporterMesh(baked_position_list,
+                                                            baked_normal_list,
+                                                            baked_texcoord_list,
+                                                            baked_bone_weights_list,
+                                                            baked_bone_indices_list,
                                                             mesh_index_list);
 
         if (splitMeshes && vertex_count >= 65536) {
@@ -1286,14 +1284,22 @@ public class ColladaUtil {
         return null;
     }
 
-    private static int loadVertexWeights(XMLCOLLADA collada, List<Float> boneWeightsList, List<Integer> boneIndicesList) throws IOException, XMLStreamException, LoaderException {
+    // Four bone influences per vertex in the skin
+    private static class VertexWeights {
+        public float[] weights = new float[0];
+        public int[] boneIndices = new int[0];
+        public int maxBoneCount = 0;
+    }
+
+    private static VertexWeights loadVertexWeights(XMLCOLLADA collada) throws IOException, XMLStreamException, LoaderException {
 
+        VertexWeights vertexWeights = new VertexWeights();
         XMLSkin skin = null;
         if (!collada.libraryControllers.isEmpty()) {
             skin = findFirstSkin(collada.libraryControllers.get(0));
         }
         if(skin == null) {
-            return 0;
+            return vertexWeights;
         }
 
         List<XMLSource> sources = skin.sources;
@@ -1303,6 +1309,9 @@ public class ColladaUtil {
         XMLSource weightsSource = sourcesMap.get(weights_input.source);
         Vector<Weight> weights = new Vector<Weight>(10);
         int maxBoneCount = 0;
+        float[] boneWeightsList = new float[skin.vertexWeights.vcount.ints.length * 4];
+        int[] boneIndicesList = new int[skin.vertexWeights.vcount.ints.length * 4];
+        int influenceIndex = 0;
 
         int vIndex = 0;
         for ( int i = 0; i < skin.vertexWeights.vcount.ints.length; i++ )
@@ -1336,9 +1345,10 @@ public class ColladaUtil {
             influenceCount = weights.size();
 
             for (Weight w : weights) {
-                boneIndicesList.add(w.boneIndex);
+                boneIndicesList[influenceIndex] = w.boneIndex;
                 maxBoneCount = Math.max(maxBoneCount, w.boneIndex + 1);
-                boneWeightsList.add(w.weight);
+                boneWeightsList[influenceIndex] = w.weight;
+                ++influenceIndex;
             }
         }
 
@@ -1370,14 +1380,17 @@ public class ColladaUtil {
         }
 
         // Convert to bone indices
-        for (int i = 0; i < boneIndicesList.size(); ++i)
+        for (int i = 0; i < boneIndicesList.length; ++i)
         {
-            int oldIndex = boneIndicesList.get(i);
+            int oldIndex = boneIndicesList[i];
             int newIndex = toBoneIndex.get(oldIndex);
-            boneIndicesList.set(i, newIndex);
+            boneIndicesList[i] = newIndex;
         }
 
-        return maxBoneCount;
+        vertexWeights.weights = boneWeightsList;
+        vertexWeights.boneIndices = boneIndicesList;
+        vertexWeights.maxBoneCount = maxBoneCount;
+        return vertexWeights;
     }
 
     // ************************************************************
@@ -62,7 +62,7 @@ public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
             IResource subResource = project.getResource(sub.getCollection());
             subCollections.put(subResource, subCollections.getOrDefault(subResource, 0) + 1);
             CollectionDesc.Builder builder = CollectionDesc.newBuilder();
-            ProtoUtil.merge(subResource, builder);
+            ProtoUtil.merge(project, subResource, builder);
             collectSubCollections(builder, subCollections);
         }
     }
@@ -89,7 +89,7 @@ public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
         for (CollectionInstanceDesc c : builder.getCollectionInstancesList()) {
             IResource collectionResource = this.project.getResource(c.getCollection());
             CollectionDesc.Builder subCollectionBuilder = CollectionDesc.newBuilder();
-            ProtoUtil.merge(collectionResource, subCollectionBuilder);
+            ProtoUtil.merge(project, collectionResource, subCollectionBuilder);
 
             createGeneratedResources(project, subCollectionBuilder, uniqueResources);
         }
@@ -113,7 +113,7 @@ public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
                 .addOutput(input.changeExt(params.outExt()))
                 .addOutput(input.changeExt(ComponentsCounter.EXT_COL));
         CollectionDesc.Builder builder = CollectionDesc.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
 
         Map<IResource, Integer> subCollections = new HashMap<>();
         collectSubCollections(builder, subCollections);
@@ -209,7 +209,7 @@ public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
         for (CollectionInstanceDesc collInst : collectionBuilder.getCollectionInstancesList()) {
             IResource collResource = this.project.getResource(collInst.getCollection());
             CollectionDesc.Builder subCollBuilder = CollectionDesc.newBuilder();
-            ProtoUtil.merge(collResource, subCollBuilder);
+            ProtoUtil.merge(project, collResource, subCollBuilder);
             mergeSubCollections(owner, subCollBuilder);
             // Collect child ids
             childIds.clear();
@@ -17,7 +17,11 @@ package com.dynamo.bob.pipeline;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import com.dynamo.bob.Bob;
 import com.dynamo.bob.Builder;
@@ -28,6 +32,7 @@ import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
+import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.graphics.proto.Graphics.Cubemap;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
 import com.dynamo.graphics.proto.Graphics.TextureImage.Image;
@@ -41,7 +46,7 @@ public class CubemapBuilder extends Builder<Void> {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         Cubemap.Builder builder = Cubemap.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
         Cubemap cubemap = builder.build();
 
         TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
@@ -68,29 +73,40 @@ public class CubemapBuilder extends Builder<Void> {
     @Override
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
 
-        TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
+        final TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
         Bob.verbose("Compiling %s using profile %s", task.input(0).getPath(), texProfile!=null?texProfile.getName():"<none>");
 
-        TextureImage[] textures = new TextureImage[6];
+        // The sides, and the formats of each side, are encoded in parallel
+        final boolean compress = project.option("texture-compression", "false").equals("true");
+        final Executor executor = project.getTaskExecutor();
+        final ResourceCache textureCache = project.getTextureCache();
+        List<Callable<TextureImage>> jobs = new ArrayList<Callable<TextureImage>>(6);
+        for (int i = 0; i < 6; i++) {
+            final IResource side = task.input(i + 1);
+            jobs.add(new Callable<TextureImage>() {
+                @Override
+                public TextureImage call() throws TextureGeneratorException, IOException {
+                    ByteArrayInputStream is = new ByteArrayInputStream(side.getContent());
+                    // NOTE: Cubemap sides should not have a flipped Y axis (as opposed to any other texture).
+                    // I could only find tidbits of information regarding this online, as far as I understand
+                    // it is not explained in the OGL spec or cubemap extension either.
+                    // However, most suggest that the origin of cubemap sides are upper left as opposed to lower left
+                    // like this SO answer suggest;
+                    //   "Cube Maps have been specified to follow the RenderMan specification (for whatever reason),
+                    //    and RenderMan assumes the images' origin being in the upper left, contrary to the usual
+                    //    OpenGL behaviour of having the image origin in the lower left."
+                    // Source: https://stackoverflow.com/a/11690553/129360
+                    //
+                    // So for cube map textures we don't flip on any axis, meaning the texture data begin at the
+                    // upper left corner of the input image.
+                    return TextureGenerator.generate(is, texProfile, compress, EnumSet.noneOf(FlipAxis.class), executor, textureCache);
+                }
+            });
+        }
+
+        TextureImage[] textures;
         try {
-            for (int i = 0; i < 6; i++) {
-                ByteArrayInputStream is = new ByteArrayInputStream(task.input(i + 1).getContent());
-                boolean compress = project.option("texture-compression", "false").equals("true");
-                // NOTE: Cubemap sides should not have a flipped Y axis (as opposed to any other texture).
-                // I could only find tidbits of information regarding this online, as far as I understand
-                // it is not explained in the OGL spec or cubemap extension either.
-                // However, most suggest that the origin of cubemap sides are upper left as opposed to lower left
-                // like this SO answer suggest;
-                //   "Cube Maps have been specified to follow the RenderMan specification (for whatever reason),
-                //    and RenderMan assumes the images' origin being in the upper left, contrary to the usual
-                //    OpenGL behaviour of having the image origin in the lower left."
-                // Source: https://stackoverflow.com/a/11690553/129360
-                //
-                // So for cube map textures we don't flip on any axis, meaning the texture data begin at the
-                // upper left corner of the input image.
-                TextureImage texture = TextureGenerator.generate(is, texProfile, compress, EnumSet.noneOf(FlipAxis.class));
-                textures[i] = texture;
-            }
+            textures = TextureGenerator.runJobs(executor, jobs).toArray(new TextureImage[6]);
             validate(task, textures);
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
@@ -58,6 +58,7 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.fs.ResourceOutputFile;
 import com.dynamo.bob.util.BobProjectProperties;
 
 public class ExtenderUtil {
@@ -256,6 +257,11 @@ public class ExtenderUtil {
 		public void setContent(InputStream stream) throws IOException {
 		}
 
+		@Override
+		public ResourceOutputFile createOutputFile() throws IOException {
+			return new ResourceOutputFile(this);
+		}
+
 		@Override
 		public long getLastModified() {
 	        return new File(rootDir).lastModified();
@@ -32,9 +32,15 @@ import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -52,11 +58,15 @@ import com.dynamo.bob.ProtoBuilder;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ArchiveCache;
+import com.dynamo.bob.archive.ResourceCompression;
 import com.dynamo.bob.archive.EngineVersion;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.bundle.BundleHelper;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.fs.ResourceOutputFile;
 import com.dynamo.bob.util.ComponentsCounter;
+import com.dynamo.bob.util.ExecutorUtil;
 import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.util.TimeProfiler;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
@@ -79,20 +89,15 @@ import com.dynamo.rig.proto.Rig.RigScene;
 import com.dynamo.rig.proto.Rig.AnimationSet;
 
 import com.google.protobuf.DescriptorProtos.FieldOptions;
+import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
 import com.google.protobuf.GeneratedMessageV3;
 import com.google.protobuf.Message;
 
 @BuilderParams(name = "GameProjectBuilder", inExts = ".project", outExt = "", createOrder = 1000)
 public class GameProjectBuilder extends Builder<Void> {
 
-    private RandomAccessFile createRandomAccessFile(File handle) throws IOException {
-        handle.deleteOnExit();
-        RandomAccessFile file = new RandomAccessFile(handle, "rw");
-        file.setLength(0);
-        return file;
-    }
-
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         boolean nonStandardGameProjectFile = !project.getGameProjectResource().getAbsPath().equals(input.getAbsPath());
@@ -148,7 +153,7 @@ public class GameProjectBuilder extends Builder<Void> {
             if (!texProfilesInput.exists()) {
                 throw new CompileExceptionError(input, -1, "Could not find supplied texture_profiles file: " + textureProfilesPath);
             }
-            ProtoUtil.merge(texProfilesInput, texProfilesBuilder);
+            ProtoUtil.merge(project, texProfilesInput, texProfilesBuilder);
 
             // If Bob is building for a specific platform, we need to
             // filter out any platform entries not relevant to the target platform.
@@ -195,7 +200,7 @@ public class GameProjectBuilder extends Builder<Void> {
         return builder.build();
     }
 
-    private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
+    private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory, File previousArchiveIndex, File previousArchiveData) throws IOException, CompileExceptionError {
         TimeProfiler.start("createArchive");
         Bob.verbose("GameProjectBuilder.createArchive\n");
         long tstart = System.currentTimeMillis();
@@ -213,21 +218,41 @@ public class GameProjectBuilder extends Builder<Void> {
             }
         }
 
-        ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder, resourcePadding);
+        ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder, resourcePadding, project.getTaskExecutor());
 
         boolean doCompress = project.getProjectProperties().getBooleanValue("project", "compress_archive", true);
-        HashMap<String, EnumSet<Project.OutputFlags>> outputs = project.getOutputs();
+        ResourceCompression compression;
+        Map<String, ResourceCompression> typeCompression;
+        try {
+            compression = ResourceCompression.get(project.getProjectProperties().getStringValue("project", "archive_compression", ResourceCompression.DEFAULT));
+            typeCompression = ResourceCompression.parseTypes(project.getProjectProperties().getStringValue("project", "archive_compression_types", ""));
+        } catch (IllegalArgumentException e) {
+            throw new CompileExceptionError(String.format("Invalid archive compression in game.project: %s", e.getMessage()), e);
+        }
+        Map<String, EnumSet<Project.OutputFlags>> outputs = project.getOutputs();
         for (String s : resources) {
             EnumSet<Project.OutputFlags> flags = outputs.get(s);
             boolean compress = (flags != null && flags.contains(Project.OutputFlags.UNCOMPRESSED)) ? false : doCompress;
             boolean encrypt = (flags != null && flags.contains(Project.OutputFlags.ENCRYPTED));
-            archiveBuilder.add(s, compress, encrypt);
+            ResourceCompression resourceCompression = null;
+            if (compress) {
+                resourceCompression = typeCompression.getOrDefault(FilenameUtils.getExtension(s), compression);
+            }
+            archiveBuilder.add(s, resourceCompression, encrypt);
         }
 
         TimeProfiler.addData("resources", resources.size());
         TimeProfiler.addData("excludedResources", excludedResources.size());
 
-        archiveBuilder.write(archiveIndex, archiveData, resourcePackDirectory, excludedResources);
+        // Unchanged resources are copied from the previous archive instead of being processed again
+        ArchiveCache archiveCache = ArchiveCache.open(new File(root, "archive_cache"), previousArchiveIndex, previousArchiveData);
+        archiveBuilder.setArchiveCache(archiveCache);
+        try {
+            archiveBuilder.write(archiveIndex, archiveData, resourcePackDirectory, excludedResources);
+        } finally {
+            archiveCache.close();
+        }
+        TimeProfiler.addData("reusedResources", archiveCache.getReusedEntryCount());
         manifestBuilder.setArchiveIdentifier(archiveBuilder.getArchiveIndexHash());
         archiveIndex.close();
         archiveData.close();
@@ -244,91 +269,180 @@ public class GameProjectBuilder extends Builder<Void> {
         TimeProfiler.stop();
     }
 
-    private static void findResources(Project project, Message node, Collection<String> resources) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
+    // The fields to visit when looking for resources in messages of a type, per type
+    private static final Map<Descriptor, List<FieldDescriptor>> resourceFieldPlans = new ConcurrentHashMap<Descriptor, List<FieldDescriptor>>();
 
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                findResources(project, (Message) value, resources);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        findResources(project, (Message) v, resources);
-                    } else if (isResource && v instanceof String) {
-                        findResources(project, project.getResource((String) v), resources);
-                    }
+    private static boolean isResourceField(FieldDescriptor fieldDescriptor) {
+        FieldOptions options = fieldDescriptor.getOptions();
+        FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
+        return (Boolean) options.getField(resourceDesc);
+    }
+
+    // Checks if messages of a type may reference resources, directly or in any nested message
+    private static boolean mayContainResources(Descriptor type, Set<Descriptor> visitedTypes) {
+        if (!visitedTypes.add(type)) {
+            // Recursive type, the fields are already being checked
+            return false;
+        }
+        for (FieldDescriptor fieldDescriptor : type.getFields()) {
+            if (fieldDescriptor.getJavaType() == JavaType.MESSAGE) {
+                if (mayContainResources(fieldDescriptor.getMessageType(), visitedTypes)) {
+                    return true;
                 }
-            } else if (isResource && value instanceof String) {
-                findResources(project, project.getResource((String) value), resources);
+            } else if (fieldDescriptor.getJavaType() == JavaType.STRING && isResourceField(fieldDescriptor)) {
+                return true;
             }
         }
+        return false;
     }
 
-    /*  Adds unique resources to list 'resources'. Each resource should once occur
-        once in the list regardless if the resource appears in several collections
-        or collectionproxies.
+    /*  Get the fields of a message type that are resources or messages that may contain resources,
+        in declaration order. Checking the field options of every field of every message is slow
+        for large projects, so this is only done once per type.
     */
-    private static void findResources(Project project, IResource resource, Collection<String> resources) throws CompileExceptionError {
-        if (resource.getPath().equals("") || resources.contains(resource.output().getAbsPath())) {
-            return;
+    private static List<FieldDescriptor> getResourceFieldPlan(Descriptor type) {
+        List<FieldDescriptor> plan = resourceFieldPlans.get(type);
+        if (plan == null) {
+            plan = new ArrayList<FieldDescriptor>();
+            for (FieldDescriptor fieldDescriptor : type.getFields()) {
+                if (fieldDescriptor.getJavaType() == JavaType.MESSAGE) {
+                    if (mayContainResources(fieldDescriptor.getMessageType(), new HashSet<Descriptor>())) {
+                        plan.add(fieldDescriptor);
+                    }
+                } else if (fieldDescriptor.getJavaType() == JavaType.STRING && isResourceField(fieldDescriptor)) {
+                    plan.add(fieldDescriptor);
+                }
+            }
+            resourceFieldPlans.put(type, plan);
         }
+        return plan;
+    }
 
-        resources.add(resource.output().getAbsPath());
+    private static void findResourceReferences(Project project, Object value, List<IResource> references) {
+        if (value instanceof Message) {
+            findResourceReferences(project, (Message) value, references);
+        } else if (value instanceof String) {
+            IResource resource = project.getResource((String) value);
+            if (!resource.getPath().equals("")) {
+                references.add(resource);
+            }
+        }
+    }
+
+    private static void findResourceReferences(Project project, Message node, List<IResource> references) {
+        for (FieldDescriptor fieldDescriptor : getResourceFieldPlan(node.getDescriptorForType())) {
+            Object value = node.getField(fieldDescriptor);
+            if (value instanceof List) {
+                for (Object v : (List<?>) value) {
+                    findResourceReferences(project, v, references);
+                }
+            } else {
+                findResourceReferences(project, value, references);
+            }
+        }
+    }
+
+    // The resources referenced by a compiled resource, in the order they appear in the message
+    private static class ResourceReferences {
+        List<IResource> references = new ArrayList<IResource>();
+        // Set if the resource couldn't be loaded, thrown when the resource is visited
+        Exception error = null;
+
+        List<IResource> get() throws CompileExceptionError {
+            if (error instanceof CompileExceptionError) {
+                throw (CompileExceptionError) error;
+            } else if (error != null) {
+                throw new RuntimeException(error);
+            }
+            return references;
+        }
+    }
+
+    private static ResourceReferences loadResourceReferences(Project project, IResource resource) {
+        ResourceReferences result = new ResourceReferences();
 
         int i = resource.getPath().lastIndexOf(".");
         if (i == -1) {
-            return;
+            return result;
         }
         String ext = resource.getPath().substring(i);
 
         if (!ProtoBuilder.supportsType(ext)) {
-            return;
+            return result;
         }
 
-        GeneratedMessageV3.Builder<?> builder = ProtoBuilder.newBuilder(ext);
         try {
+            GeneratedMessageV3.Builder<?> builder = ProtoBuilder.newBuilder(ext);
             final byte[] content = resource.output().getContent();
             if(content == null) {
                 throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
             }
             builder.mergeFrom(content);
-            Object message = builder.build();
-            findResources(project, (Message) message, resources);
-        } catch(CompileExceptionError e) {
-            throw e;
+            Message message = (Message) builder.build();
+            findResourceReferences(project, message, result.references);
         } catch(Exception e) {
-            throw new RuntimeException(e);
+            result.error = e;
         }
+        return result;
     }
 
-    private static void buildResourceGraph(Project project, Message node, ResourceNode parentNode, Collection<String> visitedNodes) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                buildResourceGraph(project, (Message) value, parentNode, visitedNodes);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        buildResourceGraph(project, (Message) v, parentNode, visitedNodes);
-                    } else if (isResource && v instanceof String) {
-                        buildResourceGraph(project, project.getResource((String) v), parentNode, visitedNodes);
-                    }
+    /*  Load the compiled resources reachable from the root resources, once each. Each level of
+        the resource tree is loaded in parallel on the executor, if there is one.
+    */
+    private static Map<String, ResourceReferences> loadResourceGraph(final Project project, List<IResource> roots, Executor executor) throws CompileExceptionError {
+        Map<String, ResourceReferences> graph = new HashMap<String, ResourceReferences>();
+
+        List<IResource> level = roots;
+        while (!level.isEmpty()) {
+            Map<String, Callable<ResourceReferences>> jobs = new LinkedHashMap<String, Callable<ResourceReferences>>();
+            for (final IResource resource : level) {
+                String path = resource.output().getAbsPath();
+                if (resource.getPath().equals("") || graph.containsKey(path) || jobs.containsKey(path)) {
+                    continue;
                 }
-            } else if (isResource && value instanceof String) {
-                buildResourceGraph(project, project.getResource((String) value), parentNode, visitedNodes);
+                jobs.put(path, new Callable<ResourceReferences>() {
+                    @Override
+                    public ResourceReferences call() {
+                        return loadResourceReferences(project, resource);
+                    }
+                });
+            }
+
+            List<ResourceReferences> results;
+            try {
+                results = ExecutorUtil.runJobs(executor, new ArrayList<Callable<ResourceReferences>>(jobs.values()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(ExecutorUtil.getCheckedCause(e));
             }
+
+            List<IResource> nextLevel = new ArrayList<IResource>();
+            int jobIndex = 0;
+            for (String path : jobs.keySet()) {
+                ResourceReferences references = results.get(jobIndex++);
+                graph.put(path, references);
+                nextLevel.addAll(references.references);
+            }
+            level = nextLevel;
+        }
+        return graph;
+    }
+
+    /*  Adds unique resources to list 'resources'. Each resource should once occur
+        once in the list regardless if the resource appears in several collections
+        or collectionproxies.
+    */
+    private static void findResources(Map<String, ResourceReferences> graph, IResource resource, Collection<String> resources) throws CompileExceptionError {
+        if (resource.getPath().equals("") || resources.contains(resource.output().getAbsPath())) {
+            return;
+        }
+
+        resources.add(resource.output().getAbsPath());
+
+        for (IResource reference : graph.get(resource.output().getAbsPath()).get()) {
+            findResources(graph, reference, resources);
         }
     }
 
@@ -338,7 +452,7 @@ public class GameProjectBuilder extends Builder<Void> {
         will appear as a single node per collectionproxy, but can still have a other nodes
         in other collections/collectionproxies.
     */
-    private static void buildResourceGraph(Project project, IResource resource, ResourceNode parentNode, Collection<String> visitedNodes) throws CompileExceptionError {
+    private static void buildResourceGraph(Map<String, ResourceReferences> graph, IResource resource, ResourceNode parentNode, Collection<String> visitedNodes) throws CompileExceptionError {
         if (resource.getPath().equals("") || visitedNodes.contains(resource.output().getAbsPath())) {
             return;
         }
@@ -351,45 +465,25 @@ public class GameProjectBuilder extends Builder<Void> {
         ResourceNode currentNode = new ResourceNode(resource.getPath(), resource.output().getAbsPath());
         parentNode.addChild(currentNode);
 
-        int i = resource.getPath().lastIndexOf(".");
-        if (i == -1) {
-            return;
-        }
-        String ext = resource.getPath().substring(i);
-
-        if (!ProtoBuilder.supportsType(ext)) {
-            return;
-        }
-
-        GeneratedMessageV3.Builder<?> builder = ProtoBuilder.newBuilder(ext);
-        try {
-            final byte[] content = resource.output().getContent();
-            if(content == null) {
-                throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
-            }
-            builder.mergeFrom(content);
-            Object message = builder.build();
-            buildResourceGraph(project, (Message) message, currentNode, visitedNodes);
-        } catch(CompileExceptionError e) {
-            throw e;
-        } catch(Exception e) {
-            throw new RuntimeException(e);
+        for (IResource reference : graph.get(resource.output().getAbsPath()).get()) {
+            buildResourceGraph(graph, reference, currentNode, visitedNodes);
         }
     }
 
     public static HashSet<String> findResources(Project project, ResourceNode rootNode) throws CompileExceptionError {
-        HashSet<String> resources = new HashSet<String>();
-
-        if (project.option("keep-unused", "false").equals("true")) {
+        return findResources(project, rootNode, project.getTaskExecutor());
+    }
 
-            // All outputs of the project should be considered resources
-            for (String path : project.getOutputs().keySet()) {
-                resources.add(path);
-            }
+    // The compiled resources are loaded in parallel on the executor, if there is one
+    static HashSet<String> findResources(Project project, ResourceNode rootNode, Executor executor) throws CompileExceptionError {
+        HashSet<String> resources = new HashSet<String>();
 
-        } else {
+        boolean keepUnused = project.option("keep-unused", "false").equals("true");
+        boolean debugVariant = project.option("variant", Bob.VARIANT_RELEASE).equals(Bob.VARIANT_DEBUG);
 
-            // Root nodes to follow (default values from engine.cpp)
+        // Root nodes to follow (default values from engine.cpp)
+        List<IResource> roots = new ArrayList<IResource>();
+        if (!keepUnused) {
             for (String[] tuples : new String[][] { {"bootstrap", "main_collection", "/logic/main.collectionc"},
                                                     {"bootstrap", "render", "/builtins/render/default.renderc"},
                                                     {"bootstrap", "debug_init_script", null},
@@ -397,12 +491,37 @@ public class GameProjectBuilder extends Builder<Void> {
                                                     {"input", "gamepads", "/builtins/input/default.gamepadsc"},
                                                     {"display", "display_profiles", "/builtins/render/default.display_profilesc"}}) {
                 String path = project.getProjectProperties().getStringValue(tuples[0], tuples[1], tuples[2]);
-                HashSet<String> visitedNodes = new HashSet<String>();
                 if (path != null) {
-                    findResources(project, project.getResource(path), resources);
-                    buildResourceGraph(project, project.getResource(path), rootNode, visitedNodes);
+                    roots.add(project.getResource(path));
                 }
             }
+        }
+        IResource debuggerScript = null;
+        if (debugVariant) {
+            debuggerScript = project.getResource("/builtins/scripts/debugger.luac");
+        }
+
+        // Each compiled resource is loaded once, for both the list of resources and the resource graph
+        List<IResource> graphRoots = new ArrayList<IResource>(roots);
+        if (debuggerScript != null) {
+            graphRoots.add(debuggerScript);
+        }
+        Map<String, ResourceReferences> graph = loadResourceGraph(project, graphRoots, executor);
+
+        if (keepUnused) {
+
+            // All outputs of the project should be considered resources
+            for (String path : project.getOutputs().keySet()) {
+                resources.add(path);
+            }
+
+        } else {
+
+            for (IResource root : roots) {
+                HashSet<String> visitedNodes = new HashSet<String>();
+                findResources(graph, root, resources);
+                buildResourceGraph(graph, root, rootNode, visitedNodes);
+            }
 
         }
 
@@ -421,8 +540,8 @@ public class GameProjectBuilder extends Builder<Void> {
         }
 
         // Editor debugger scripts
-        if (project.option("variant", Bob.VARIANT_RELEASE).equals(Bob.VARIANT_DEBUG)) {
-            findResources(project, project.getResource("/builtins/scripts/debugger.luac"), resources);
+        if (debuggerScript != null) {
+            findResources(graph, debuggerScript, resources);
         }
 
         return resources;
@@ -525,8 +644,8 @@ public class GameProjectBuilder extends Builder<Void> {
 
     @Override
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
-        FileInputStream archiveIndexInputStream = null;
-        FileInputStream archiveDataInputStream = null;
+        ResourceOutputFile archiveIndexOutput = null;
+        ResourceOutputFile archiveDataOutput = null;
         FileInputStream resourcePackInputStream = null;
         FileInputStream publicKeyInputStream = null;
 
@@ -559,24 +678,26 @@ public class GameProjectBuilder extends Builder<Void> {
                 // Create output for the data archive
                 String platform = project.option("platform", "generic");
                 project.getPublisher().setPlatform(platform);
-                File archiveIndexHandle = File.createTempFile("defold.index_", ".arci");
-                RandomAccessFile archiveIndex = createRandomAccessFile(archiveIndexHandle);
-                File archiveDataHandle = File.createTempFile("defold.data_", ".arcd");
-                RandomAccessFile archiveData = createRandomAccessFile(archiveDataHandle);
+                // The archive is written next to game.arci and game.arcd and replaces them once
+                // it is complete, as the previous archive is read from while writing the new one
+                archiveIndexOutput = task.getOutputs().get(1).createOutputFile();
+                archiveDataOutput = task.getOutputs().get(2).createOutputFile();
+                RandomAccessFile archiveIndex = archiveIndexOutput.getRandomAccessFile();
+                RandomAccessFile archiveData = archiveDataOutput.getRandomAccessFile();
                 Path resourcePackDirectory = Files.createTempDirectory("defold.resourcepack_");
-                createArchive(resources, archiveIndex, archiveData, manifestBuilder, excludedResources, resourcePackDirectory);
+                File previousArchiveIndex = new File(task.getOutputs().get(1).getAbsPath());
+                File previousArchiveData = new File(task.getOutputs().get(2).getAbsPath());
+                createArchive(resources, archiveIndex, archiveData, manifestBuilder, excludedResources, resourcePackDirectory, previousArchiveIndex, previousArchiveData);
 
                 // Create manifest
                 byte[] manifestFile = manifestBuilder.buildManifest();
 
                 // Write outputs to the build system
                 // game.arci
-                archiveIndexInputStream = new FileInputStream(archiveIndexHandle);
-                task.getOutputs().get(1).setContent(archiveIndexInputStream);
+                archiveIndexOutput.commit();
 
                 // game.arcd
-                archiveDataInputStream = new FileInputStream(archiveDataHandle);
-                task.getOutputs().get(2).setContent(archiveDataInputStream);
+                archiveDataOutput.commit();
 
                 // game.dmanifest
                 task.getOutputs().get(3).setContent(manifestFile);
@@ -619,8 +740,8 @@ public class GameProjectBuilder extends Builder<Void> {
             transformGameProjectFile(properties);
             task.getOutputs().get(0).setContent(properties.serialize().getBytes());
         } finally {
-            IOUtils.closeQuietly(archiveIndexInputStream);
-            IOUtils.closeQuietly(archiveDataInputStream);
+            IOUtils.closeQuietly(archiveIndexOutput);
+            IOUtils.closeQuietly(archiveDataOutput);
             IOUtils.closeQuietly(resourcePackInputStream);
             IOUtils.closeQuietly(publicKeyInputStream);
         }
@@ -66,7 +66,7 @@ public class GuiBuilder extends ProtoBuilder<SceneDesc.Builder> {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         SceneDesc.Builder builder = SceneDesc.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
 
         TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
                 .setName(params.name())
@@ -152,6 +152,31 @@ public abstract class LuaBuilder extends Builder<Void> {
         return taskBuilder.build();
     }
 
+    private CompileExceptionError createCompileError(Task<Void> task, String cmdOutput) {
+        // first delimiter is the executable name "luajit:" or "luac:"
+        int execSep = cmdOutput.indexOf(':');
+        if (execSep > 0) {
+            // then comes the filename and the line like this:
+            // "file.lua:30: <error message>"
+            int lineBegin = cmdOutput.indexOf(':', execSep + 1);
+            if (lineBegin > 0) {
+                int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
+                if (lineEnd > 0) {
+                    return new CompileExceptionError(task.input(0),
+                            Integer.parseInt(cmdOutput.substring(
+                                    lineBegin + 1, lineEnd)),
+                            cmdOutput.substring(lineEnd + 2));
+                }
+            }
+        }
+        else {
+            System.out.printf("Lua Error: for file %s: '%s'\n", task.input(0).getPath(), cmdOutput);
+        }
+        // Since parsing out the actual error failed, as a backup just
+        // spit out whatever luajit/luac said.
+        return new CompileExceptionError(task.input(0), 1, cmdOutput);
+    }
+
     public byte[] constructBytecode(Task<Void> task, String source, File inputFile, File outputFile, List<String> options, Map<String, String> env) throws IOException, CompileExceptionError {
         FileOutputStream fo = null;
         RandomAccessFile rdr = null;
@@ -182,29 +207,8 @@ public abstract class LuaBuilder extends Builder<Void> {
 
                 String cmdOutput = new String(buf);
                 if (ret != 0) {
-                    // first delimiter is the executable name "luajit:" or "luac:"
-                    int execSep = cmdOutput.indexOf(':');
-                    if (execSep > 0) {
-                        // then comes the filename and the line like this:
-                        // "file.lua:30: <error message>"
-                        int lineBegin = cmdOutput.indexOf(':', execSep + 1);
-                        if (lineBegin > 0) {
-                            int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
-                            if (lineEnd > 0) {
-                                throw new CompileExceptionError(task.input(0),
-                                        Integer.parseInt(cmdOutput.substring(
-                                                lineBegin + 1, lineEnd)),
-                                        cmdOutput.substring(lineEnd + 2));
-                            }
-                        }
-                    }
-                    else {
-                        System.out.printf("Lua Error: for file %s: '%s'\n", task.input(0).getPath(), cmdOutput);
-                    }
-                    // Since parsing out the actual error failed, as a backup just
-                    // spit out whatever luajit/luac said.
                     inputFile.delete();
-                    throw new CompileExceptionError(task.input(0), 1, cmdOutput);
+                    throw createCompileError(task, cmdOutput);
                 }
             } catch (InterruptedException e) {
                 Logger.getLogger(LuaBuilder.class.getCanonicalName()).log(Level.SEVERE, "Unexpected interruption", e);
@@ -291,35 +295,22 @@ public abstract class LuaBuilder extends Builder<Void> {
     }
 
     public byte[] constructLuaJITBytecode(Task<Void> task, String luajitExe, String source) throws IOException, CompileExceptionError {
-
-        Bob.initLua(); // unpack the lua resources
-
-        File outputFile = File.createTempFile("script", ".raw");
-        File inputFile = File.createTempFile("script", ".lua");
-
-        // Doing a bit of custom set up here as the path is required.
-        //
-        // NOTE: The -F option for bytecode is a small custom modification to bcsave.lua in LuaJIT which allows us to supply the
-        //       correct chunk name (the original source file) already here.
+        // The chunk name is the original source file with a '@' prefix, as the -F option of our bcsave.lua
+        // produces when running "luajit -b".
         //
         // See implementation of luaO_chunkid and why a prefix '@' is used; it is to show the last 60 characters of the name.
         //
         // If a script error occurs in runtime we want Lua to report the end of the filepath
         // associated with the chunk, since this is where the filename is visible.
         //
-        final String chunkName = getChunkName(task);
-        List<String> options = new ArrayList<String>();
-        options.add(Bob.getExe(Platform.getHostPlatform(), luajitExe));
-        options.add("-b");
-        options.add("-g"); // Keep debug info
-        options.add("-F"); options.add(task.input(0).getPath()); // The @ is added in the tool
-        options.add(inputFile.getAbsolutePath());
-        options.add(outputFile.getAbsolutePath());
-
-        Map<String, String> env = new HashMap<String, String>();
-        env.put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
-
-        return constructBytecode(task, source, inputFile, outputFile, options, env);
+        // Rather than starting luajit twice for every script, the source is compiled by a long-lived
+        // worker process, see LuaJITWorkerPool.
+        LuaJITWorkerPool pool = LuaJITWorkerPool.get(Bob.getExe(Platform.getHostPlatform(), luajitExe));
+        LuaJITWorkerPool.Result result = pool.compile(task.input(0).getPath(), source.getBytes());
+        if (result.bytecode == null) {
+            throw createCompileError(task, result.error);
+        }
+        return result.bytecode;
     }
 
     public byte[] constructBytecodeDelta(byte[] bytecode64, byte[] bytecode32) throws CompileExceptionError
@@ -0,0 +1,246 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Pool of long-lived LuaJIT processes compiling Lua source to bytecode.
+ *
+ * Starting luajit (and loading bcsave.lua) for every script dominates the
+ * time spent on scripts, so each worker process compiles one script after
+ * another over stdin/stdout instead. See luajit_worker.lua for the protocol.
+ * A worker that crashes or gets out of sync is replaced and the script is
+ * compiled once more by a fresh worker.
+ */
+public class LuaJITWorkerPool {
+
+    public static class Result {
+        // Bytecode, or null if the source failed to compile
+        public final byte[] bytecode;
+        // The error output, in the same format as "luajit -b"
+        public final String error;
+
+        Result(byte[] bytecode, String error) {
+            this.bytecode = bytecode;
+            this.error = error;
+        }
+    }
+
+    private static class Worker {
+        private final Process process;
+        private final OutputStream out;
+        private final DataInputStream in;
+
+        Worker(String exe, File script) throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(exe, script.getAbsolutePath());
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = pb.start();
+            out = new BufferedOutputStream(process.getOutputStream());
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        Result compile(byte[] name, byte[] source) throws IOException {
+            out.write(String.format("%d %d\n", name.length, source.length).getBytes(StandardCharsets.US_ASCII));
+            out.write(name);
+            out.write(source);
+            out.flush();
+
+            String header = readLine();
+            String[] tokens = header.split(" ");
+            if (tokens.length != 2) {
+                throw new IOException(String.format("Unexpected response from LuaJIT worker: '%s'", header));
+            }
+            int status;
+            int length;
+            try {
+                status = Integer.parseInt(tokens[0]);
+                length = Integer.parseInt(tokens[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException(String.format("Unexpected response from LuaJIT worker: '%s'", header), e);
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            if (status == 0) {
+                return new Result(data, null);
+            }
+            return new Result(null, new String(data));
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c == -1) {
+                    throw new EOFException("LuaJIT worker exited unexpectedly");
+                }
+                line.write(c);
+            }
+            return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+        }
+
+        boolean isAlive() {
+            return process.isAlive();
+        }
+
+        void destroy() {
+            // Closing stdin makes the worker exit by itself
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(in);
+            process.destroy();
+        }
+    }
+
+    private static Map<String, LuaJITWorkerPool> pools = new HashMap<String, LuaJITWorkerPool>();
+    private static File workerScript = null;
+
+    private final String exe;
+    private final Deque<Worker> idleWorkers = new ArrayDeque<Worker>();
+    private final Set<Worker> workers = new HashSet<Worker>();
+
+    private LuaJITWorkerPool(String exe) {
+        this.exe = exe;
+    }
+
+    /**
+     * Get the pool of workers running the given luajit executable
+     * @param exe absolute path to the luajit executable
+     * @return the pool
+     */
+    public static synchronized LuaJITWorkerPool get(String exe) {
+        LuaJITWorkerPool pool = pools.get(exe);
+        if (pool == null) {
+            if (pools.isEmpty()) {
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        shutdownAll();
+                    }
+                }));
+            }
+            pool = new LuaJITWorkerPool(exe);
+            pools.put(exe, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Stop all worker processes. Pools remain usable and start new workers when needed.
+     */
+    public static synchronized void shutdownAll() {
+        for (LuaJITWorkerPool pool : pools.values()) {
+            pool.shutdown();
+        }
+    }
+
+    private static synchronized File getWorkerScript() throws IOException {
+        if (workerScript == null || !workerScript.exists()) {
+            URL url = LuaJITWorkerPool.class.getResource("luajit_worker.lua");
+            if (url == null) {
+                throw new IOException("luajit_worker.lua could not be found");
+            }
+            File script = File.createTempFile("luajit_worker", ".lua");
+            script.deleteOnExit();
+            FileUtils.copyURLToFile(url, script);
+            workerScript = script;
+        }
+        return workerScript;
+    }
+
+    /**
+     * Compile Lua source to bytecode, keeping debug info
+     * @param name chunk name without the '@' prefix, i.e. the project path of the script
+     * @param source the Lua source
+     * @return the bytecode, or the error output if the source failed to compile
+     * @throws IOException if no worker could compile the source
+     */
+    public Result compile(String name, byte[] source) throws IOException {
+        byte[] nameBytes = name.getBytes();
+        IOException error = null;
+        for (int attempt = 0; attempt < 2; ++attempt) {
+            Worker worker = acquire();
+            try {
+                Result result = worker.compile(nameBytes, source);
+                release(worker);
+                return result;
+            } catch (IOException e) {
+                discard(worker);
+                error = e;
+            }
+        }
+        throw new IOException(String.format("Failed to compile '%s' with %s", name, exe), error);
+    }
+
+    private Worker acquire() throws IOException {
+        synchronized (this) {
+            while (!idleWorkers.isEmpty()) {
+                Worker worker = idleWorkers.pop();
+                if (worker.isAlive()) {
+                    return worker;
+                }
+                workers.remove(worker);
+                worker.destroy();
+            }
+        }
+        Worker worker = new Worker(exe, getWorkerScript());
+        synchronized (this) {
+            workers.add(worker);
+        }
+        return worker;
+    }
+
+    private synchronized void release(Worker worker) {
+        if (workers.contains(worker)) {
+            idleWorkers.push(worker);
+        } else {
+            // The pool was shut down while the worker was busy
+            worker.destroy();
+        }
+    }
+
+    private synchronized void discard(Worker worker) {
+        workers.remove(worker);
+        worker.destroy();
+    }
+
+    private synchronized void shutdown() {
+        List<Worker> all = new ArrayList<Worker>(workers);
+        workers.clear();
+        idleWorkers.clear();
+        for (Worker worker : all) {
+            worker.destroy();
+        }
+    }
+}
@@ -189,7 +189,7 @@ public class MaterialBuilder extends Builder<Void>  {
                 .addOutput(input.changeExt(params.outExt()));
 
         MaterialDesc.Builder materialBuilder = MaterialDesc.newBuilder();
-        ProtoUtil.merge(input, materialBuilder);
+        ProtoUtil.merge(project, input, materialBuilder);
 
         IResource vertexProgramOutputResource   = this.project.getResource(materialBuilder.getVertexProgram()).changeExt(".vpc");
         IResource fragmentProgramOutputResource = this.project.getResource(materialBuilder.getFragmentProgram()).changeExt(".fpc");
@@ -204,7 +204,7 @@ public class MaterialBuilder extends Builder<Void>  {
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
         IResource res                        = task.input(0);
         MaterialDesc.Builder materialBuilder = MaterialDesc.newBuilder();
-        ProtoUtil.merge(task.input(0), materialBuilder);
+        ProtoUtil.merge(project, task.input(0), materialBuilder);
 
         ShaderProgramBuildContext vertexBuildContext   = makeShaderProgramBuildContext(materialBuilder, materialBuilder.getVertexProgram());
         ShaderProgramBuildContext fragmentBuildContext = makeShaderProgramBuildContext(materialBuilder, materialBuilder.getFragmentProgram());
@@ -128,6 +128,11 @@ public class MeshsetBuilder extends Builder<Void>  {
         {
             MeshSet.Builder meshSetBuilder = MeshSet.newBuilder();
 
+            int optimize_vertex_cache = this.project.getProjectProperties().getIntValue("model", "optimize_vertex_cache", 0);
+            if (optimize_vertex_cache != 0) {
+                ModelUtil.optimizeVertexCache(scene);
+            }
+
             int split_meshes = this.project.getProjectProperties().getIntValue("model", "split_large_meshes", 0);
             if (split_meshes != 0) {
                 ModelUtil.splitMeshes(scene);
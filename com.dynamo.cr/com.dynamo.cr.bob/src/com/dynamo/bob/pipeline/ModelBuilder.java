@@ -40,7 +40,7 @@ public class ModelBuilder extends Builder<Void> {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         ModelDesc.Builder modelDescBuilder = ModelDesc.newBuilder();
-        ProtoUtil.merge(input, modelDescBuilder);
+        ProtoUtil.merge(project, input, modelDescBuilder);
 
         Task.TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
             .setName(params.name())
@@ -33,7 +33,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -429,106 +428,80 @@ public class ModelUtil {
         }
     }
 
+    private static ModelImporter.Mesh createSplitMesh(ModelImporter.Mesh inMesh, int[] newToOldIndex, int vcount, String name) {
+        ModelImporter.Mesh newMesh = new Mesh();
+        newMesh.material = inMesh.material;
+        newMesh.name = name;
+
+        newMesh.texCoords0NumComponents = inMesh.texCoords0NumComponents;
+        newMesh.texCoords1NumComponents = inMesh.texCoords1NumComponents;
+
+        if (inMesh.positions != null)
+            newMesh.positions = new float[vcount * 3];
+        if (inMesh.normals != null)
+            newMesh.normals = new float[vcount * 3];
+        if (inMesh.tangents != null)
+            newMesh.tangents = new float[vcount * 3];
+        if (inMesh.colors != null)
+            newMesh.colors = new float[vcount * 4];
+        if (inMesh.weights != null)
+            newMesh.weights = new float[vcount * 4];
+        if (inMesh.bones != null)
+            newMesh.bones = new int[vcount * 4];
+        if (inMesh.texCoords0 != null)
+            newMesh.texCoords0 = new float[vcount * inMesh.texCoords0NumComponents];
+        if (inMesh.texCoords1 != null)
+            newMesh.texCoords1 = new float[vcount * inMesh.texCoords1NumComponents];
+
+        for (int i = 0; i < vcount; ++i) {
+            copyVertex(inMesh, newToOldIndex[i], newMesh, i);
+        }
+        newMesh.vertexCount = vcount;
+        return newMesh;
+    }
+
     public static void splitMesh(ModelImporter.Mesh inMesh, List<ModelImporter.Mesh> outMeshes) {
         int triangleCount = inMesh.indexCount / 3;
         int vertexCount = inMesh.vertexCount;
 
+        // The old to new index map is reset after each sub mesh, by walking the new to old index map
+        int[] oldToNewIndex = new int[vertexCount];
+        Arrays.fill(oldToNewIndex, -1);
+        int[] newToOldIndex = new int[MAX_SPLIT_VCOUNT];
+
         int vcount = 0;
-        ModelImporter.Mesh newMesh = null;
-        HashMap<Integer, Integer> oldToNewIndex = null;
-        ArrayList<Integer> newIndices = null;
+        int firstTriangle = 0;
 
         for (int i = 0; i < triangleCount; ++i) {
 
-            if (newMesh == null) {
-                oldToNewIndex = new HashMap<Integer, Integer>();
-                newIndices = new ArrayList<Integer>();
-
-                newMesh = new Mesh();
-                newMesh.material = inMesh.material;
-                newMesh.name = String.format("%s_%d", inMesh.name, outMeshes.size());
-
-                newMesh.texCoords0NumComponents = inMesh.texCoords0NumComponents;
-                newMesh.texCoords1NumComponents = inMesh.texCoords1NumComponents;
-
-                if (inMesh.positions != null)
-                    newMesh.positions = new float[MAX_SPLIT_VCOUNT*3];
-                if (inMesh.normals != null)
-                    newMesh.normals = new float[MAX_SPLIT_VCOUNT*3];
-                if (inMesh.tangents != null)
-                    newMesh.tangents = new float[MAX_SPLIT_VCOUNT*3];
-                if (inMesh.colors != null)
-                    newMesh.colors = new float[MAX_SPLIT_VCOUNT * 4];
-                if (inMesh.weights != null)
-                    newMesh.weights = new float[MAX_SPLIT_VCOUNT * 4];
-                if (inMesh.bones != null)
-                    newMesh.bones = new int[MAX_SPLIT_VCOUNT * 4];
-                if (inMesh.texCoords0 != null)
-                    newMesh.texCoords0 = new float[MAX_SPLIT_VCOUNT*3];
-                if (inMesh.texCoords1 != null)
-                    newMesh.texCoords1 = new float[MAX_SPLIT_VCOUNT*3];
-            }
-
-            int index0 = inMesh.indices[i*3+0];
-            int index1 = inMesh.indices[i*3+1];
-            int index2 = inMesh.indices[i*3+2];
-
-            int newIndex0 = oldToNewIndex.getOrDefault(index0, -1);
-            int newIndex1 = oldToNewIndex.getOrDefault(index1, -1);
-            int newIndex2 = oldToNewIndex.getOrDefault(index2, -1);
-
-            if (newIndex0 == -1) {
-                newIndex0 = vcount++;
-                oldToNewIndex.put(index0, newIndex0);
-                copyVertex(inMesh, index0, newMesh, newIndex0);
-            }
-
-            if (newIndex1 == -1) {
-                newIndex1 = vcount++;
-                oldToNewIndex.put(index1, newIndex1);
-                copyVertex(inMesh, index1, newMesh, newIndex1);
-            }
-
-            if (newIndex2 == -1) {
-                newIndex2 = vcount++;
-                oldToNewIndex.put(index2, newIndex2);
-                copyVertex(inMesh, index2, newMesh, newIndex2);
+            for (int j = 0; j < 3; ++j) {
+                int index = inMesh.indices[i*3+j];
+                if (oldToNewIndex[index] == -1) {
+                    oldToNewIndex[index] = vcount;
+                    newToOldIndex[vcount++] = index;
+                }
             }
 
-            newIndices.add(newIndex0);
-            newIndices.add(newIndex1);
-            newIndices.add(newIndex2);
-
             // We need to make sure that we don't split a triangle into two different buffers
             boolean flush = (vcount+3) >= MAX_SPLIT_VCOUNT || ((i+1) == triangleCount);
 
             if (flush) {
+                ModelImporter.Mesh newMesh = createSplitMesh(inMesh, newToOldIndex, vcount, String.format("%s_%d", inMesh.name, outMeshes.size()));
 
-                newMesh.indices = newIndices.stream().mapToInt(idx->idx).toArray();
-                newMesh.indexCount = newIndices.size();
-                newMesh.vertexCount = vcount;
-
-                // Resize to actual size
-                if (newMesh.positions != null)
-                    newMesh.positions = Arrays.copyOf(newMesh.positions, vcount * 3);
-                if (newMesh.normals != null)
-                    newMesh.normals = Arrays.copyOf(newMesh.normals, vcount * 3);
-                if (newMesh.tangents != null)
-                    newMesh.tangents = Arrays.copyOf(newMesh.tangents, vcount * 3);
-                if (newMesh.colors != null)
-                    newMesh.colors = Arrays.copyOf(newMesh.colors, vcount * 4);
-                if (newMesh.weights != null)
-                    newMesh.weights = Arrays.copyOf(newMesh.weights, vcount * 4);
-                if (newMesh.bones != null)
-                    newMesh.bones = Arrays.copyOf(newMesh.bones, vcount * 4);
-                if (newMesh.texCoords0 != null)
-                    newMesh.texCoords0 = Arrays.copyOf(newMesh.texCoords0, vcount * newMesh.texCoords0NumComponents);
-                if (newMesh.texCoords1 != null)
-                    newMesh.texCoords1 = Arrays.copyOf(newMesh.texCoords1, vcount * newMesh.texCoords1NumComponents);
+                int indexCount = (i + 1 - firstTriangle) * 3;
+                newMesh.indices = new int[indexCount];
+                for (int j = 0; j < indexCount; ++j) {
+                    newMesh.indices[j] = oldToNewIndex[inMesh.indices[firstTriangle*3+j]];
+                }
+                newMesh.indexCount = indexCount;
 
                 outMeshes.add(newMesh);
-                newMesh = null;
+
+                for (int j = 0; j < vcount; ++j) {
+                    oldToNewIndex[newToOldIndex[j]] = -1;
+                }
                 vcount = 0;
+                firstTriangle = i + 1;
             }
         }
     }
@@ -558,6 +531,194 @@ public class ModelUtil {
         }
     }
 
+    // Vertex cache optimization, as described in "Linear-Speed Vertex Cache Optimisation" by Tom Forsyth
+    // https://tomforsyth1000.github.io/papers/fast_vert_cache_opt.html
+    private static final int VCACHE_SIZE = 32;
+    private static final float VCACHE_DECAY_POWER = 1.5f;
+    private static final float VCACHE_LAST_TRI_SCORE = 0.75f;
+    private static final float VCACHE_VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VCACHE_VALENCE_BOOST_POWER = 0.5f;
+    private static final int VCACHE_MAX_VALENCE_TABLE = 32;
+
+    private static final float[] vcacheCacheScores = new float[VCACHE_SIZE];
+    private static final float[] vcacheValenceScores = new float[VCACHE_MAX_VALENCE_TABLE];
+
+    static {
+        for (int i = 0; i < VCACHE_SIZE; ++i) {
+            if (i < 3) {
+                // The vertices of the last triangle get a fixed score, to not favor any order of them
+                vcacheCacheScores[i] = VCACHE_LAST_TRI_SCORE;
+            } else {
+                float scaler = 1.0f - (i - 3) * (1.0f / (VCACHE_SIZE - 3));
+                vcacheCacheScores[i] = (float)Math.pow(scaler, VCACHE_DECAY_POWER);
+            }
+        }
+        for (int i = 1; i < VCACHE_MAX_VALENCE_TABLE; ++i) {
+            vcacheValenceScores[i] = VCACHE_VALENCE_BOOST_SCALE * (float)Math.pow(i, -VCACHE_VALENCE_BOOST_POWER);
+        }
+    }
+
+    private static float getVertexCacheScore(int cachePosition, int remainingValence) {
+        if (remainingValence == 0) {
+            // No triangles left to use this vertex
+            return -1.0f;
+        }
+        float score = cachePosition >= 0 ? vcacheCacheScores[cachePosition] : 0.0f;
+        // Boost vertices with few triangles left, to get rid of lone triangles
+        if (remainingValence < VCACHE_MAX_VALENCE_TABLE) {
+            score += vcacheValenceScores[remainingValence];
+        } else {
+            score += VCACHE_VALENCE_BOOST_SCALE * (float)Math.pow(remainingValence, -VCACHE_VALENCE_BOOST_POWER);
+        }
+        return score;
+    }
+
+    /**
+     * Reorder triangles to make better use of the post transform vertex cache of the GPU.
+     * Only the order of the triangles changes, the vertices and the triangles themselves stay the same.
+     * @param indices triangle list indices
+     * @param vertexCount number of vertices referenced by the indices
+     * @return the reordered indices
+     */
+    public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+        for (int i = 0; i < triangleCount * 3; ++i) {
+            vertexCount = Math.max(vertexCount, indices[i] + 1);
+        }
+
+        // Triangles using each vertex, as ranges in one array. The remaining triangles
+        // of a vertex are kept first in its range.
+        int[] remainingValence = new int[vertexCount];
+        for (int i = 0; i < triangleCount * 3; ++i) {
+            remainingValence[indices[i]]++;
+        }
+        int[] vertexTrianglesOffset = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; ++v) {
+            vertexTrianglesOffset[v + 1] = vertexTrianglesOffset[v] + remainingValence[v];
+        }
+        int[] vertexTriangles = new int[triangleCount * 3];
+        int[] fill = Arrays.copyOf(vertexTrianglesOffset, vertexCount);
+        for (int i = 0; i < triangleCount * 3; ++i) {
+            vertexTriangles[fill[indices[i]]++] = i / 3;
+        }
+
+        int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScore = new float[vertexCount];
+        for (int v = 0; v < vertexCount; ++v) {
+            vertexScore[v] = getVertexCacheScore(-1, remainingValence[v]);
+        }
+
+        int bestTriangle = -1;
+        float bestScore = -1.0f;
+        for (int t = 0; t < triangleCount; ++t) {
+            float score = vertexScore[indices[t*3+0]] + vertexScore[indices[t*3+1]] + vertexScore[indices[t*3+2]];
+            if (score > bestScore) {
+                bestScore = score;
+                bestTriangle = t;
+            }
+        }
+
+        boolean[] emitted = new boolean[triangleCount];
+        int nextUnemitted = 0;
+        int[] cache = new int[VCACHE_SIZE + 3];
+        int[] newCache = new int[VCACHE_SIZE + 3];
+        int cacheSize = 0;
+
+        int[] outIndices = new int[triangleCount * 3];
+        for (int n = 0; n < triangleCount; ++n) {
+            if (bestTriangle == -1) {
+                // None of the cached vertices have any triangles left, continue with the next one in the original order
+                while (emitted[nextUnemitted]) {
+                    ++nextUnemitted;
+                }
+                bestTriangle = nextUnemitted;
+            }
+
+            int t = bestTriangle;
+            emitted[t] = true;
+            int newCacheSize = 0;
+            for (int k = 0; k < 3; ++k) {
+                int v = indices[t*3+k];
+                outIndices[n*3+k] = v;
+
+                // Remove the triangle from the remaining triangles of the vertex
+                int start = vertexTrianglesOffset[v];
+                int last = start + remainingValence[v] - 1;
+                for (int j = start; j <= last; ++j) {
+                    if (vertexTriangles[j] == t) {
+                        vertexTriangles[j] = vertexTriangles[last];
+                        vertexTriangles[last] = t;
+                        break;
+                    }
+                }
+                remainingValence[v]--;
+
+                // The vertices of the triangle go first in the cache
+                boolean cached = false;
+                for (int j = 0; j < newCacheSize; ++j) {
+                    cached |= newCache[j] == v;
+                }
+                if (!cached) {
+                    newCache[newCacheSize++] = v;
+                }
+            }
+            int triangleVertexCount = newCacheSize;
+            for (int j = 0; j < cacheSize; ++j) {
+                int v = cache[j];
+                boolean inTriangle = false;
+                for (int k = 0; k < triangleVertexCount; ++k) {
+                    inTriangle |= newCache[k] == v;
+                }
+                if (!inTriangle) {
+                    newCache[newCacheSize++] = v;
+                }
+            }
+
+            // Update the scores of the vertices in the cache, and the ones that just dropped out of it
+            for (int j = 0; j < newCacheSize; ++j) {
+                int v = newCache[j];
+                cachePosition[v] = j < VCACHE_SIZE ? j : -1;
+                vertexScore[v] = getVertexCacheScore(cachePosition[v], remainingValence[v]);
+            }
+
+            // The next triangle is the best one using any of those vertices
+            bestTriangle = -1;
+            bestScore = -1.0f;
+            for (int j = 0; j < newCacheSize; ++j) {
+                int v = newCache[j];
+                int start = vertexTrianglesOffset[v];
+                int end = start + remainingValence[v];
+                for (int i = start; i < end; ++i) {
+                    int ct = vertexTriangles[i];
+                    float score = vertexScore[indices[ct*3+0]] + vertexScore[indices[ct*3+1]] + vertexScore[indices[ct*3+2]];
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestTriangle = ct;
+                    }
+                }
+            }
+
+            int[] tmp = cache;
+            cache = newCache;
+            newCache = tmp;
+            cacheSize = Math.min(newCacheSize, VCACHE_SIZE);
+        }
+        return outIndices;
+    }
+
+    // Reorders the triangles of all meshes for the GPU vertex cache
+    public static void optimizeVertexCache(Scene scene) {
+        for (Model model : scene.models) {
+            for (Mesh mesh : model.meshes) {
+                if (mesh.indices == null || mesh.indices.length != mesh.indexCount || (mesh.indexCount % 3) != 0) {
+                    continue;
+                }
+                mesh.indices = optimizeVertexCache(mesh.indices, mesh.vertexCount);
+            }
+        }
+    }
+
     public static List<Integer> toList(int[] array) {
         return Arrays.asList(ArrayUtils.toObject(array));
     }
@@ -94,7 +94,7 @@ public class ProtoBuilders {
     }
 
     // TODO: Should we move this to a build resource?
-    static Set<String> materialAtlasCompatabilityCache = new HashSet<String>();
+    static Set<String> materialAtlasCompatabilityCache = Collections.synchronizedSet(new HashSet<String>());
 
     private static void validateMaterialAtlasCompatability(Project project, IResource resource, String materialProjectPath, String textureSet) throws IOException, CompileExceptionError {
         if (materialProjectPath.isEmpty())
@@ -197,7 +197,7 @@ public class ProtoBuilders {
             if (messageBuilder.hasCollisionShape() && !messageBuilder.getCollisionShape().isEmpty() && !(messageBuilder.getCollisionShape().endsWith(".tilegrid") || messageBuilder.getCollisionShape().endsWith(".tilemap"))) {
                 IResource shapeResource = project.getResource(messageBuilder.getCollisionShape().substring(1));
                 ConvexShape.Builder cb = ConvexShape.newBuilder();
-                ProtoUtil.merge(shapeResource, cb);
+                ProtoUtil.merge(project, shapeResource, cb);
                 CollisionShape.Builder eb = CollisionShape.newBuilder().mergeFrom(messageBuilder.getEmbeddedCollisionShape());
                 ValidateShapeTypes(eb.getShapesList(), shapeResource);
                 Shape.Builder sb = Shape.newBuilder()
@@ -292,7 +292,7 @@ public class ProtoBuilders {
                 .addOutput(input.changeExt(params.outExt()));
 
             SpriteDesc.Builder spriteBuilder = SpriteDesc.newBuilder();
-            ProtoUtil.merge(input, spriteBuilder);
+            ProtoUtil.merge(project, input, spriteBuilder);
 
             // The tileset must be specified
             String tileSet = spriteBuilder.getTileSet();
@@ -371,7 +371,7 @@ public class ProtoBuilders {
                 .addOutput(input.changeExt(params.outExt()));
 
             ParticleFX.Builder particleFxBuilder = ParticleFX.newBuilder();
-            ProtoUtil.merge(input, particleFxBuilder);
+            ProtoUtil.merge(project, input, particleFxBuilder);
 
             for (int i = 0; i < particleFxBuilder.getEmittersCount(); ++i) {
                 Emitter emitter            = particleFxBuilder.getEmitters(i);
@@ -0,0 +1,91 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.IResource;
+import com.google.protobuf.Message;
+import com.google.protobuf.Message.Builder;
+
+/**
+ * Cache of parsed text format resources, owned by a project and cleared for every build.
+ * The same sources, e.g. sub collections, are merged by several builders and both when
+ * creating and building tasks. Messages are immutable and can be shared by all builders.
+ */
+public class ProtoCache {
+
+    // Parsed messages keyed by message type and the sha1 of their text
+    private Map<String, Message> cache = new ConcurrentHashMap<String, Message>();
+    private AtomicInteger hits = new AtomicInteger();
+    private AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Clear the parsed messages and the statistics
+     */
+    public void clear() {
+        cache.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    private static String getKey(Builder builder, byte[] content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        return builder.getDescriptorForType().getFullName() + ":" + Hex.encodeHexString(digest.digest(content));
+    }
+
+    /**
+     * Merge a text format resource into a builder, parsing it only if a resource
+     * with the same content hasn't been parsed before. Parse errors are not cached.
+     * @param input resource to merge
+     * @param builder builder to merge the resource into
+     */
+    public void merge(IResource input, Builder builder) throws IOException, CompileExceptionError {
+        byte[] content = ProtoUtil.getContent(input);
+        String key = getKey(builder, content);
+        Message message = cache.get(key);
+        if (message == null) {
+            misses.incrementAndGet();
+            Builder parsed = builder.getDefaultInstanceForType().newBuilderForType();
+            ProtoUtil.parse(input, content, parsed);
+            message = parsed.buildPartial();
+            cache.put(key, message);
+        } else {
+            hits.incrementAndGet();
+        }
+        builder.mergeFrom(message);
+    }
+}
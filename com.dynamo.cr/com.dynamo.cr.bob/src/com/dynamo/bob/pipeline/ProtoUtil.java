@@ -19,24 +19,16 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Project;
 import com.dynamo.bob.fs.IResource;
 import com.google.protobuf.Message.Builder;
 import com.google.protobuf.TextFormat;
 
 public class ProtoUtil {
 
-    public static void merge(IResource input, Builder builder) throws IOException, CompileExceptionError {
-        byte[] content = input.getContent();
-        if (content == null) {
-            if (!input.exists()) {
-                throw new CompileExceptionError(input, 0, "Resource does not exist");
-            }
-            else {
-                throw new CompileExceptionError(input, 0, "Resource is empty");
-            }
-        }
+    static void parse(IResource input, byte[] content, Builder builder) throws CompileExceptionError {
         try {
-            TextFormat.merge(new String(input.getContent()), builder);
+            TextFormat.merge(new String(content), builder);
         } catch (TextFormat.ParseException e) {
             // 1:7: String missing ending quote.
             Pattern pattern = Pattern.compile("(\\d+):(\\d+): (.*)");
@@ -48,4 +40,36 @@ public class ProtoUtil {
             }
         }
     }
+
+    static byte[] getContent(IResource input) throws IOException, CompileExceptionError {
+        byte[] content = input.getContent();
+        if (content == null) {
+            if (!input.exists()) {
+                throw new CompileExceptionError(input, 0, "Resource does not exist");
+            }
+            else {
+                throw new CompileExceptionError(input, 0, "Resource is empty");
+            }
+        }
+        return content;
+    }
+
+    public static void merge(IResource input, Builder builder) throws IOException, CompileExceptionError {
+        parse(input, getContent(input), builder);
+    }
+
+    /**
+     * Merge a text format resource into a builder, sharing the parsed message with
+     * the other builders of the project through {@link Project#getProtoCache()}
+     * @param project project the resource is built by, or null to always parse the resource
+     * @param input resource to merge
+     * @param builder builder to merge the resource into
+     */
+    public static void merge(Project project, IResource input, Builder builder) throws IOException, CompileExceptionError {
+        if (project == null) {
+            merge(input, builder);
+        } else {
+            project.getProtoCache().merge(input, builder);
+        }
+    }
 }
@@ -18,12 +18,16 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Locale;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
@@ -40,6 +44,7 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
@@ -49,6 +54,8 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Project;
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.bob.fs.DefaultFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.pipeline.ShaderUtil.Common;
@@ -296,7 +303,61 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
         public ArrayList<SPIRVReflector.Resource> resource_list = new ArrayList<SPIRVReflector.Resource>();
     };
 
+    // The SPIR-V and reflection data of a shader, as produced by glslc and spirv-cross
+    static private class SPIRVOutput {
+        public byte[] spirv;
+        public String reflection;
+    }
+
+    static private String getSPIRVCacheKey(String source, String std, String stage, int bindingBase) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        // glslc and spirv-cross are bundled with bob, i.e. versioned with the engine
+        digest.update(EngineVersion.sha1.getBytes(StandardCharsets.UTF_8));
+        digest.update(String.format("%s:%s:%d:", std, stage, bindingBase).getBytes(StandardCharsets.UTF_8));
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    static private SPIRVOutput getCachedSPIRV(ResourceCache cache, String cacheKey) throws IOException {
+        byte[] data = cache.get(cacheKey);
+        if (data == null) {
+            return null;
+        }
+        DataInputStream is = new DataInputStream(new ByteArrayInputStream(data));
+        SPIRVOutput output = new SPIRVOutput();
+        output.spirv = new byte[is.readInt()];
+        is.readFully(output.spirv);
+        byte[] reflection = new byte[is.readInt()];
+        is.readFully(reflection);
+        output.reflection = new String(reflection, StandardCharsets.UTF_8);
+        return output;
+    }
+
+    static private void putCachedSPIRV(ResourceCache cache, String cacheKey, SPIRVOutput output) throws IOException {
+        byte[] reflection = output.reflection.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream data = new ByteArrayOutputStream(8 + output.spirv.length + reflection.length);
+        DataOutputStream os = new DataOutputStream(data);
+        os.writeInt(output.spirv.length);
+        os.write(output.spirv);
+        os.writeInt(reflection.length);
+        os.write(reflection);
+        os.flush();
+        cache.put(cacheKey, data.toByteArray());
+    }
+
     static public SPIRVCompileResult compileGLSLToSPIRV(String shaderSource, ES2ToES3Converter.ShaderType shaderType, String resourceOutput, String targetProfile, boolean isDebug, boolean soft_fail)  throws IOException, CompileExceptionError {
+        return compileGLSLToSPIRV(shaderSource, shaderType, resourceOutput, targetProfile, isDebug, soft_fail, null);
+    }
+
+    // Compile a shader to SPIR-V with glslc and reflect it with spirv-cross. Shaders are compiled for their
+    // program and again for every material using them, so when a cache is given the output of the tools is
+    // looked up by the hash of the transformed source and the glslc options before starting any process.
+    static public SPIRVCompileResult compileGLSLToSPIRV(String shaderSource, ES2ToES3Converter.ShaderType shaderType, String resourceOutput, String targetProfile, boolean isDebug, boolean soft_fail, ResourceCache cache)  throws IOException, CompileExceptionError {
         SPIRVCompileResult res = new SPIRVCompileResult();
 
         // Start all bindings on 1, this means that we can catch unused uniforms
@@ -318,56 +379,76 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
             es3Result.shaderVersion = Integer.parseInt(es3Result.shaderVersion) < 140 ? "140" : es3Result.shaderVersion;
         }
 
-        // compile GLSL (ES3 or Desktop 140) to SPIR-V
-        File file_in_glsl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".glsl");
-        file_in_glsl.deleteOnExit();
-        FileUtils.writeByteArrayToFile(file_in_glsl, es3Result.output.getBytes());
-
-        File file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-        file_out_spv.deleteOnExit();
-
         String spirvShaderStage = (shaderType == ES2ToES3Converter.ShaderType.VERTEX_SHADER ? "vert" : "frag");
-        String glslcBindingBaseStr = String.valueOf(glslcBindingBase);
-
-        Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslc"),
-                "-w",
-                "-fauto-bind-uniforms",
-                "-fauto-map-locations",
-                "-fubo-binding-base", glslcBindingBaseStr,
-                "-ftexture-binding-base", glslcBindingBaseStr,
-                "-std=" + es3Result.shaderVersion + es3Result.shaderProfile,
-                "-fshader-stage=" + spirvShaderStage,
-                "-o", file_out_spv.getAbsolutePath(),
-                file_in_glsl.getAbsolutePath()
-                );
-
-        String result_string = getResultString(result);
-        if (soft_fail && result_string != null) {
-            res.compile_warnings.add("\nCompatability issue: " + result_string);
-            return res;
-        } else {
-            checkResult(result_string, null, resourceOutput);
-        }
+        String glslcStd = es3Result.shaderVersion + es3Result.shaderProfile;
+
+        String cacheKey = null;
+        SPIRVOutput spirvOutput = null;
+        if (cache != null) {
+            cacheKey = getSPIRVCacheKey(es3Result.output, glslcStd, spirvShaderStage, glslcBindingBase);
+            spirvOutput = getCachedSPIRV(cache, cacheKey);
+        }
+
+        if (spirvOutput == null) {
+            // compile GLSL (ES3 or Desktop 140) to SPIR-V
+            File file_in_glsl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".glsl");
+            File file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
+            File file_out_refl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".json");
+
+            try {
+                FileUtils.writeByteArrayToFile(file_in_glsl, es3Result.output.getBytes());
+
+                String glslcBindingBaseStr = String.valueOf(glslcBindingBase);
+
+                Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslc"),
+                        "-w",
+                        "-fauto-bind-uniforms",
+                        "-fauto-map-locations",
+                        "-fubo-binding-base", glslcBindingBaseStr,
+                        "-ftexture-binding-base", glslcBindingBaseStr,
+                        "-std=" + glslcStd,
+                        "-fshader-stage=" + spirvShaderStage,
+                        "-o", file_out_spv.getAbsolutePath(),
+                        file_in_glsl.getAbsolutePath()
+                        );
+
+                String result_string = getResultString(result);
+                if (soft_fail && result_string != null) {
+                    res.compile_warnings.add("\nCompatability issue: " + result_string);
+                    return res;
+                } else {
+                    checkResult(result_string, null, resourceOutput);
+                }
 
-        // Generate reflection data
-        File file_out_refl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".json");
-        file_out_refl.deleteOnExit();
+                // Generate reflection data
+                result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
+                    file_out_spv.getAbsolutePath(),
+                    "--output",file_out_refl.getAbsolutePath(),
+                    "--reflect");
+
+                result_string = getResultString(result);
+                if (soft_fail && result_string != null) {
+                    res.compile_warnings.add("\nUnable to get reflection data: " + result_string);
+                    return res;
+                } else {
+                    checkResult(result_string, null, resourceOutput);
+                }
 
-        result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
-            file_out_spv.getAbsolutePath(),
-            "--output",file_out_refl.getAbsolutePath(),
-            "--reflect");
+                spirvOutput = new SPIRVOutput();
+                spirvOutput.spirv = FileUtils.readFileToByteArray(file_out_spv);
+                spirvOutput.reflection = FileUtils.readFileToString(file_out_refl, StandardCharsets.UTF_8);
+            } finally {
+                file_in_glsl.delete();
+                file_out_spv.delete();
+                file_out_refl.delete();
+            }
 
-        result_string = getResultString(result);
-        if (soft_fail && result_string != null) {
-            res.compile_warnings.add("\nUnable to get reflection data: " + result_string);
-            return res;
-        } else {
-            checkResult(result_string, null, resourceOutput);
+            if (cacheKey != null) {
+                putCachedSPIRV(cache, cacheKey, spirvOutput);
+            }
         }
 
-        String result_json             = FileUtils.readFileToString(file_out_refl, StandardCharsets.UTF_8);
-        SPIRVReflector reflector       = new SPIRVReflector(result_json);
+        SPIRVReflector reflector       = new SPIRVReflector(spirvOutput.reflection);
         ArrayList<String> shaderIssues = new ArrayList<String>();
 
         // Put all shader resources on a separate list that will be sorted by binding number later
@@ -494,14 +575,14 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
         Collections.sort(resource_list, new SortBindingsComparator());
 
         res.resource_list = resource_list;
-        res.source        = FileUtils.readFileToByteArray(file_out_spv);
+        res.source        = spirvOutput.spirv;
 
         return res;
     }
 
-    static private ShaderBuildResult buildSpirvFromGLSL(String source, ES2ToES3Converter.ShaderType shaderType, String resourceOutputPath, String targetProfile, boolean isDebug, boolean soft_fail)  throws IOException, CompileExceptionError {
+    static private ShaderBuildResult buildSpirvFromGLSL(String source, ES2ToES3Converter.ShaderType shaderType, String resourceOutputPath, String targetProfile, boolean isDebug, boolean soft_fail, ResourceCache cache)  throws IOException, CompileExceptionError {
         source = Common.stripComments(source);
-        SPIRVCompileResult compile_res = compileGLSLToSPIRV(source, shaderType, resourceOutputPath, targetProfile, isDebug, soft_fail);
+        SPIRVCompileResult compile_res = compileGLSLToSPIRV(source, shaderType, resourceOutputPath, targetProfile, isDebug, soft_fail, cache);
 
         if (compile_res.compile_warnings.size() > 0)
         {
@@ -597,13 +678,13 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
     // Generate a shader desc struct that consists of either the built shader desc, or a list of compile warnings/errors
     static private ArrayList<ShaderBuildResult> getBaseShaderBuildResults(String resourceOutputPath, String fullShaderSource,
             ES2ToES3Converter.ShaderType shaderType, ShaderDesc.Language[] shaderLanguages,
-            String spirvTargetProfile, boolean isDebug, boolean softFail) throws IOException, CompileExceptionError {
+            String spirvTargetProfile, boolean isDebug, boolean softFail, ResourceCache cache) throws IOException, CompileExceptionError {
 
         ArrayList<ShaderBuildResult> shaderBuildResults = new ArrayList<ShaderBuildResult>();
 
         for (ShaderDesc.Language shaderLanguage : shaderLanguages) {
             if (shaderLanguage == ShaderDesc.Language.LANGUAGE_SPIRV) {
-                shaderBuildResults.add(buildSpirvFromGLSL(fullShaderSource, shaderType, resourceOutputPath, spirvTargetProfile, isDebug, softFail));
+                shaderBuildResults.add(buildSpirvFromGLSL(fullShaderSource, shaderType, resourceOutputPath, spirvTargetProfile, isDebug, softFail, cache));
             } else {
                 shaderBuildResults.add(buildGLSL(fullShaderSource, shaderType, shaderLanguage, isDebug));
             }
@@ -639,7 +720,7 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
     static public ShaderDescBuildResult makeShaderDescWithVariants(String resourceOutputPath, String shaderSource, ES2ToES3Converter.ShaderType shaderType,
             ShaderDesc.Language[] shaderLanguages, int maxPageCount) throws IOException, CompileExceptionError {
 
-        ArrayList<ShaderBuildResult> shaderBuildResults = getBaseShaderBuildResults(resourceOutputPath, shaderSource, shaderType, shaderLanguages, "", false, true);
+        ArrayList<ShaderBuildResult> shaderBuildResults = getBaseShaderBuildResults(resourceOutputPath, shaderSource, shaderType, shaderLanguages, "", false, true, null);
 
         for (ShaderDesc.Language shaderLanguage : shaderLanguages) {
             if (VariantTextureArrayFallback.isRequired(shaderLanguage)) {
@@ -660,10 +741,11 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
 
         String finalShaderSource  = shaderPreprocessor.getCompiledSource();
         String spirvTargetProfile = platformKey == Platform.X86_64Ios ? "es" : "";
+        ResourceCache shaderCache = this.project != null ? this.project.getShaderCache() : null;
 
         return buildResultsToShaderDescBuildResults(getBaseShaderBuildResults(resourceOutputPath, finalShaderSource, shaderType,
             getShaderLanguagesList(platformKey, outputSpirv),
-            spirvTargetProfile, isDebug, softFail));
+            spirvTargetProfile, isDebug, softFail, shaderCache));
     }
 
     // Called from command line to invoke shader pipeline directly (mostly for tests)
@@ -177,12 +177,16 @@ public class ShaderUtil {
         }
     }
 
+    // Reflection data of a single shader, parsed from the json output of spirv-cross.
+    // Reflectors share no state, so shaders can be reflected from several threads at once.
     public static class SPIRVReflector {
-        private static JsonNode root;
+        // ObjectMapper is thread safe once configured
+        private static final ObjectMapper mapper = new ObjectMapper();
+        private final JsonNode root;
 
         public SPIRVReflector(String json) throws IOException
         {
-            this.root = (new ObjectMapper()).readTree(json);
+            this.root = mapper.readTree(json);
         }
 
         public static class Resource
@@ -199,7 +203,7 @@ public class ShaderUtil {
             public ArrayList<Resource> uniforms;
         }
 
-        public static ArrayList<UniformBlock> getUniformBlocks()
+        public ArrayList<UniformBlock> getUniformBlocks()
         {
             ArrayList<UniformBlock> uniformBlocks = new ArrayList<UniformBlock>();
 
@@ -248,7 +252,7 @@ public class ShaderUtil {
             return uniformBlocks;
         }
 
-        public static ArrayList<Resource> getTextures() {
+        public ArrayList<Resource> getTextures() {
             ArrayList<Resource> textures = new ArrayList<Resource>();
 
             JsonNode texturesNode = root.get("textures");
@@ -271,7 +275,7 @@ public class ShaderUtil {
             return textures;
         }
 
-        public static ArrayList<Resource> getInputs() {
+        public ArrayList<Resource> getInputs() {
             ArrayList<Resource> inputs = new ArrayList<Resource>();
 
             JsonNode inputsNode = root.get("inputs");
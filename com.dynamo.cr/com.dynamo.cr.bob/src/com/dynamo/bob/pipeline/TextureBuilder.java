@@ -17,6 +17,7 @@ package com.dynamo.bob.pipeline;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.EnumSet;
 
 import com.dynamo.bob.Bob;
 import com.dynamo.bob.Builder;
@@ -25,6 +26,7 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
+import com.dynamo.bob.TexcLibrary.FlipAxis;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
@@ -62,7 +64,7 @@ public class TextureBuilder extends Builder<Void> {
         TextureImage texture;
         try {
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(is, texProfile, compress);
+            texture = TextureGenerator.generate(is, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), project.getTaskExecutor(), project.getTextureCache());
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
@@ -15,32 +15,42 @@
 package com.dynamo.bob.pipeline;
 
 import java.awt.Graphics2D;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
-import java.awt.image.DataBufferShort;
-import java.awt.image.DataBufferUShort;
-import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
 
-import java.nio.ShortBuffer;
 import java.nio.IntBuffer;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.EnumSet;
 
 import javax.imageio.ImageIO;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
 import com.dynamo.bob.TexcLibrary;
 import com.dynamo.bob.TexcLibrary.ColorSpace;
 import com.dynamo.bob.TexcLibrary.DitherType;
@@ -48,6 +58,10 @@ import com.dynamo.bob.TexcLibrary.PixelFormat;
 import com.dynamo.bob.TexcLibrary.CompressionLevel;
 import com.dynamo.bob.TexcLibrary.CompressionType;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.cache.ResourceCache;
+import com.dynamo.bob.util.DirectBufferPool;
+import com.dynamo.bob.util.ExecutorUtil;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.util.TimeProfiler;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
@@ -62,6 +76,18 @@ import com.sun.jna.Pointer;
 
 public class TextureGenerator {
 
+    // Pixel buffers passed to texc. The pool is shared by all builds in the JVM, e.g. in the
+    // editor, so it is kept small and emptied at the end of every build.
+    private static final long BUFFER_POOL_MAX_SIZE = 64L*1024*1024;
+    private static DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_POOL_MAX_SIZE);
+
+    /**
+     * Free the pixel buffers kept for reuse by the texture builders
+     */
+    public static void releaseBuffers() {
+        bufferPool.clear();
+    }
+
     private static HashMap<TextureFormatAlternative.CompressionLevel, Integer> compressionLevelLUT = new HashMap<TextureFormatAlternative.CompressionLevel, Integer>();
     static {
         compressionLevelLUT.put(TextureFormatAlternative.CompressionLevel.FAST, CompressionLevel.CL_FAST);
@@ -190,51 +216,81 @@ public class TextureGenerator {
         return targetFormat;
     }
 
-    private static ByteBuffer getByteBuffer(BufferedImage bi)
-    {
-        ByteBuffer byteBuffer;
-        DataBuffer dataBuffer = bi.getRaster().getDataBuffer();
-
-        if (dataBuffer instanceof DataBufferByte) { // This is the usual case, where data is simply wrapped
-            byte[] pixelData = ((DataBufferByte) dataBuffer).getData();
-            byteBuffer = ByteBuffer.wrap(pixelData);
-        }
-        else if (dataBuffer instanceof DataBufferUShort) {
-            short[] pixelData = ((DataBufferUShort) dataBuffer).getData();
-            byteBuffer = ByteBuffer.allocate(pixelData.length * 2);
-            byteBuffer.asShortBuffer().put(ShortBuffer.wrap(pixelData));
-        }
-        else if (dataBuffer instanceof DataBufferShort) {
-            short[] pixelData = ((DataBufferShort) dataBuffer).getData();
-            byteBuffer = ByteBuffer.allocate(pixelData.length * 2);
-            byteBuffer.asShortBuffer().put(ShortBuffer.wrap(pixelData));
-        }
-        else if (dataBuffer instanceof DataBufferInt) {
-            int[] pixelData = ((DataBufferInt) dataBuffer).getData();
-            byteBuffer = ByteBuffer.allocate(pixelData.length * 4);
-            byteBuffer.asIntBuffer().put(IntBuffer.wrap(pixelData));
+    // Convert the pixels of an image from ARGB to A8B8G8R8
+    private static void putRGB(BufferedImage image, ByteBuffer pixels) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        IntBuffer dst = pixels.asIntBuffer();
+        int[] row = new int[width];
+        for (int y = 0; y < height; ++y) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; ++x) {
+                int argb = row[x];
+                row[x] = (argb & 0xff00ff00) | ((argb >> 16) & 0xff) | ((argb & 0xff) << 16);
+            }
+            dst.put(row);
         }
-        else {
-            throw new IllegalArgumentException("Not implemented for data buffer type: " + dataBuffer.getClass());
+    }
+
+    // Get the pixels of an image as A8B8G8R8, the layout texc expects, in a direct buffer from the pool.
+    // The common image types are converted straight into the buffer, others are drawn into an ABGR image first.
+    private static ByteBuffer getPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ByteBuffer pixels = bufferPool.acquire(width * height * 4);
+        WritableRaster raster = image.getRaster();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                // Already in the right layout, unless the raster is a part of a larger image
+                byte[] data = ((DataBufferByte) dataBuffer).getData();
+                if (data.length == width * height * 4 && dataBuffer.getOffset() == 0 && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+                    pixels.put(data);
+                    pixels.flip();
+                } else {
+                    putRGB(image, pixels);
+                }
+                return pixels;
+            }
+            case BufferedImage.TYPE_BYTE_INDEXED:
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR: {
+                // Drawing images with alpha blends them with the empty image, opaque images are simply copied
+                if (image.getColorModel().getTransparency() != Transparency.OPAQUE) {
+                    break;
+                }
+                putRGB(image, pixels);
+                return pixels;
+            }
+            case BufferedImage.TYPE_BYTE_GRAY: {
+                // Gray is drawn as is, without any color space conversion
+                IntBuffer dst = pixels.asIntBuffer();
+                int[] row = new int[width];
+                for (int y = 0; y < height; ++y) {
+                    raster.getSamples(0, y, width, 1, 0, row);
+                    for (int x = 0; x < width; ++x) {
+                        int gray = row[x];
+                        row[x] = 0xff000000 | (gray << 16) | (gray << 8) | gray;
+                    }
+                    dst.put(row);
+                }
+                return pixels;
+            }
         }
 
-        return byteBuffer;
+        BufferedImage converted = convertImage(image, BufferedImage.TYPE_4BYTE_ABGR);
+        pixels.put(((DataBufferByte) converted.getRaster().getDataBuffer()).getData());
+        pixels.flip();
+        return pixels;
     }
 
-    private static TextureImage.Image generateFromColorAndFormat(String name, BufferedImage image, ColorModel colorModel, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+    private static TextureImage.Image generateFromColorAndFormat(String name, ByteBuffer pixels, int width, int height, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
 
-        int width = image.getWidth();
-        int height = image.getHeight();
-        int componentCount = colorModel.getNumComponents();
         Integer pixelFormat = PixelFormat.R8G8B8A8;
         int texcCompressionLevel;
         int texcCompressionType;
 
-        int dataSize = width * height * 4;
-
-
-        ByteBuffer buffer_input = getByteBuffer(image);
-
 
         // convert from protobuf specified compressionlevel to texc int
         texcCompressionLevel = compressionLevelLUT.get(compressionLevel);
@@ -279,15 +335,15 @@ public class TextureGenerator {
             throw new TextureGeneratorException("Invalid texture format.");
         }
 
-        Pointer texture = TexcLibrary.TEXC_Create(name, width, height, PixelFormat.A8B8G8R8, ColorSpace.SRGB, texcCompressionType, buffer_input);
+        Pointer texture = TexcLibrary.TEXC_Create(name, width, height, PixelFormat.A8B8G8R8, ColorSpace.SRGB, texcCompressionType, pixels);
         if (texture == null) {
             throw new TextureGeneratorException("Failed to create texture");
         }
 
         try {
 
-            int newWidth  = image.getWidth();
-            int newHeight = image.getHeight();
+            int newWidth  = width;
+            int newHeight = height;
 
             // For pvrtc textures
             newWidth = TextureUtil.closestPOT(newWidth);
@@ -349,8 +405,8 @@ public class TextureGenerator {
             }
 
             int bufferSize = TexcLibrary.TEXC_GetTotalDataSize(texture);
-            ByteBuffer buffer_output = ByteBuffer.allocateDirect(bufferSize);
-            dataSize = TexcLibrary.TEXC_GetData(texture, buffer_output, bufferSize);
+            ByteBuffer buffer_output = bufferPool.acquire(bufferSize);
+            int dataSize = TexcLibrary.TEXC_GetData(texture, buffer_output, bufferSize);
             buffer_output.limit(dataSize);
 
             TextureImage.Image.Builder raw = TextureImage.Image.newBuilder().setWidth(newWidth).setHeight(newHeight)
@@ -389,6 +445,7 @@ public class TextureGenerator {
             }
 
             raw.setData(ByteString.copyFrom(buffer_output));
+            bufferPool.release(buffer_output);
             raw.setFormat(textureFormat);
             raw.setCompressionType(compressionType);
             raw.setCompressionFlags(TexcLibrary.TEXC_GetCompressionFlags(texture));
@@ -438,74 +495,235 @@ public class TextureGenerator {
         return generate(origImage, texProfile, compress, flipAxis);
     }
 
+    public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, Executor executor) throws TextureGeneratorException, IOException {
+        return generate(inputStream, texProfile, compress, flipAxis, executor, null);
+    }
+
+    /**
+     * Generate a texture from an encoded image, such as a png file. The formats of the texture
+     * profile are encoded in parallel on the executor, if there is one. Encoded images are stored
+     * in the cache, if there is one, keyed by the hash of the pixels and the format settings, the
+     * same as for atlas and tile source pages. The cache also maps the hash of the file to the hash
+     * of its pixels, so when all formats are found in the cache the file isn't even decoded.
+     */
+    public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, Executor executor, ResourceCache cache) throws TextureGeneratorException, IOException {
+        List<Alternative> alternatives = getAlternatives(texProfile, compress);
+        String fileKey = null;
+        InputStream imageStream = inputStream;
+        if (cache != null) {
+            byte[] data = IOUtils.toByteArray(inputStream);
+            inputStream.close();
+            fileKey = getFileKey(data);
+            byte[] sourceHash = cache.get(fileKey);
+            if (sourceHash != null) {
+                TextureImage cached = getCachedTexture(cache, sourceHash, alternatives, flipAxis);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            imageStream = new ByteArrayInputStream(data);
+        }
+
+        TimeProfiler.start("Read Input Stream");
+        BufferedImage origImage = ImageIO.read(imageStream);
+        imageStream.close();
+        TimeProfiler.stop();
+        if (origImage == null) {
+            throw new TextureGeneratorException("Unknown texture format.");
+        }
+        return generate(origImage, alternatives, flipAxis, executor, cache, fileKey);
+    }
+
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress) throws TextureGeneratorException, IOException {
         return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y));
     }
 
-    // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
     // Used by the editor
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
-        // Convert image into readable format
-        // Always convert to ABGR since the texc lib demands that for resizing etc
-        TimeProfiler.start("generateTexture");
-        BufferedImage image;
-        if (origImage.getType() != BufferedImage.TYPE_4BYTE_ABGR) {
-            image = convertImage(origImage, BufferedImage.TYPE_4BYTE_ABGR);
-        } else {
-            image = origImage;
+        return generate(origImage, texProfile, compress, flipAxis, null);
+    }
+
+    /**
+     * Run jobs on an executor and get their results, in the order of the jobs.
+     * See {@link ExecutorUtil#runJobs(Executor, List)}
+     * @param executor executor to run the jobs on, or null to run them on the calling thread
+     * @param jobs jobs to run
+     * @return the results of the jobs
+     */
+    static <T> List<T> runJobs(Executor executor, List<Callable<T>> jobs) throws TextureGeneratorException, IOException {
+        try {
+            return ExecutorUtil.runJobs(executor, jobs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = ExecutorUtil.getCheckedCause(e);
+            if (cause instanceof TextureGeneratorException) {
+                throw (TextureGeneratorException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RuntimeException(cause);
         }
+    }
 
-        // Setup texture format and settings
-        ColorModel colorModel = origImage.getColorModel();
-        int componentCount = colorModel.getNumComponents();
-        TextureImage.Builder textureBuilder = TextureImage.newBuilder();
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, Executor executor) throws TextureGeneratorException, IOException {
+        return generate(origImage, texProfile, compress, flipAxis, executor, null);
+    }
 
-        if (texProfile != null) {
+    // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
+    // The formats of the texture profile are encoded in parallel on the executor, if there is one.
+    // Encoded images are stored in the cache, if there is one, keyed by the hash of the pixels and the format settings.
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, Executor executor, ResourceCache cache) throws TextureGeneratorException, IOException {
+        return generate(origImage, getAlternatives(texProfile, compress), flipAxis, executor, cache, null);
+    }
 
+    // Settings of an image to generate for a texture
+    private static class Alternative {
+        TextureFormat textureFormat;
+        TextureFormatAlternative.CompressionLevel compressionLevel;
+        TextureImage.CompressionType compressionType;
+        boolean generateMipMaps;
+        int maxTextureSize;
+        boolean compress;
+        boolean premulAlpha;
+
+        Alternative(TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha) {
+            this.textureFormat = textureFormat;
+            this.compressionLevel = compressionLevel;
+            this.compressionType = compressionType;
+            this.generateMipMaps = generateMipMaps;
+            this.maxTextureSize = maxTextureSize;
+            this.compress = compress;
+            this.premulAlpha = premulAlpha;
+        }
+    }
+
+    private static List<Alternative> getAlternatives(TextureProfile texProfile, boolean compress) {
+        List<Alternative> alternatives = new ArrayList<Alternative>();
+        if (texProfile != null) {
             // Generate an image for each format specified in the profile
             for (PlatformProfile platformProfile : texProfile.getPlatformsList()) {
-                for (int i = 0; i < platformProfile.getFormatsList().size(); ++i) {
-                    TextureImage.CompressionType compressionType = platformProfile.getFormats(i).getCompressionType();
-                    TextureFormatAlternative.CompressionLevel compressionLevel = platformProfile.getFormats(i).getCompressionLevel();
-                    TextureFormat textureFormat = platformProfile.getFormats(i).getFormat();
-
-                    // We pick a "new" format based on the input image component count and a "target" format.
-                    // For example we would rather have a texture format with 3 channels if the input
-                    // image has 3 channels, even if the texture profile specified a format with 4 channels.
-                    textureFormat = pickOptimalFormat(componentCount, textureFormat);
-
-                    try {
-                        TextureImage.Image raw = generateFromColorAndFormat(null, image, colorModel, textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis);
-                        textureBuilder.addAlternatives(raw);
-                    } catch (TextureGeneratorException e) {
-                        throw e;
-                    }
-
+                for (TextureFormatAlternative format : platformProfile.getFormatsList()) {
+                    alternatives.add(new Alternative(format.getFormat(), format.getCompressionLevel(), format.getCompressionType(), platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha()));
                 }
             }
+        }
+
+        // If no texture profile was supplied, or no matching format was found
+        if (alternatives.isEmpty()) {
+            alternatives.add(new Alternative(TextureFormat.TEXTURE_FORMAT_RGBA, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true));
+        }
+        return alternatives;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Key of the hash of the pixels of an encoded image file
+    private static String getFileKey(byte[] data) {
+        MessageDigest digest = createDigest();
+        digest.update("file:".getBytes(StandardCharsets.UTF_8));
+        digest.update(data);
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static byte[] hashPixels(ByteBuffer pixels, int width, int height, int componentCount) {
+        MessageDigest digest = createDigest();
+        digest.update(String.format("pixels:%d:%d:%d:", width, height, componentCount).getBytes(StandardCharsets.UTF_8));
+        digest.update(pixels.duplicate());
+        return digest.digest();
+    }
+
+    private static String getCacheKey(byte[] sourceHash, Alternative alternative, EnumSet<FlipAxis> flipAxis) {
+        MessageDigest digest = createDigest();
+        // the encoders are part of the engine
+        digest.update(EngineVersion.sha1.getBytes(StandardCharsets.UTF_8));
+        digest.update(sourceHash);
+        String settings = String.format("%s:%s:%s:%b:%d:%b:%b:%s", alternative.textureFormat, alternative.compressionLevel, alternative.compressionType,
+                alternative.generateMipMaps, alternative.maxTextureSize, alternative.compress, alternative.premulAlpha, flipAxis);
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        return Hex.encodeHexString(digest.digest());
+    }
 
-            textureBuilder.setCount(1);
-            if (textureBuilder.getAlternativesCount() == 0) {
-                texProfile = null;
+    private static TextureImage createTextureImage(List<TextureImage.Image> images) {
+        return TextureImage.newBuilder()
+                .addAllAlternatives(images)
+                .setCount(1)
+                .setType(Type.TYPE_2D)
+                .build();
+    }
+
+    // Get a texture from the cache, if all of its images are in there
+    private static TextureImage getCachedTexture(ResourceCache cache, byte[] sourceHash, List<Alternative> alternatives, EnumSet<FlipAxis> flipAxis) throws IOException {
+        List<TextureImage.Image> images = new ArrayList<TextureImage.Image>(alternatives.size());
+        for (Alternative alternative : alternatives) {
+            byte[] data = cache.get(getCacheKey(sourceHash, alternative, flipAxis));
+            if (data == null) {
+                return null;
             }
+            images.add(TextureImage.Image.parseFrom(data));
         }
+        return createTextureImage(images);
+    }
 
-        // If no texture profile was supplied, or no matching format was found
-        if (texProfile == null) {
+    // fileKey is the key to store the hash of the pixels under, if the image was decoded from a file
+    private static TextureImage generate(BufferedImage origImage, List<Alternative> alternatives, final EnumSet<FlipAxis> flipAxis, Executor executor, final ResourceCache cache, String fileKey) throws TextureGeneratorException, IOException {
+        // Convert image into readable format
+        // Always convert to ABGR since the texc lib demands that for resizing etc
+        // The pixels are converted once, into a direct buffer that is passed to texc without copying
+        TimeProfiler.start("generateTexture");
+        final ByteBuffer pixels = getPixels(origImage);
+        final int width = origImage.getWidth();
+        final int height = origImage.getHeight();
 
-            // Guess texture format based on number color components of input image
-            TextureFormat textureFormat = pickOptimalFormat(componentCount, TextureFormat.TEXTURE_FORMAT_RGBA);
-            TextureImage.Image raw = generateFromColorAndFormat(null, image, colorModel, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
-            textureBuilder.addAlternatives(raw);
-            textureBuilder.setCount(1);
+        // Setup texture format and settings
+        int componentCount = origImage.getColorModel().getNumComponents();
+        byte[] sourceHash = null;
+        if (cache != null) {
+            sourceHash = hashPixels(pixels, width, height, componentCount);
+            if (fileKey != null) {
+                cache.put(fileKey, sourceHash);
+            }
+        }
 
+        List<Callable<TextureImage.Image>> jobs = new ArrayList<Callable<TextureImage.Image>>();
+        for (final Alternative alternative : alternatives) {
+            // We pick a "new" format based on the input image component count and a "target" format.
+            // For example we would rather have a texture format with 3 channels if the input
+            // image has 3 channels, even if the texture profile specified a format with 4 channels.
+            final TextureFormat textureFormat = pickOptimalFormat(componentCount, alternative.textureFormat);
+            final String cacheKey = cache != null ? getCacheKey(sourceHash, alternative, flipAxis) : null;
+
+            jobs.add(new Callable<TextureImage.Image>() {
+                @Override
+                public TextureImage.Image call() throws TextureGeneratorException, IOException {
+                    if (cacheKey != null) {
+                        byte[] data = cache.get(cacheKey);
+                        if (data != null) {
+                            return TextureImage.Image.parseFrom(data);
+                        }
+                    }
+                    TextureImage.Image raw = generateFromColorAndFormat(null, pixels, width, height, textureFormat, alternative.compressionLevel, alternative.compressionType, alternative.generateMipMaps, alternative.maxTextureSize, alternative.compress, alternative.premulAlpha, flipAxis);
+                    if (cacheKey != null) {
+                        cache.put(cacheKey, raw.toByteArray());
+                    }
+                    return raw;
+                }
+            });
         }
 
-        textureBuilder.setType(Type.TYPE_2D);
-        TextureImage textureImage = textureBuilder.build();
+        TextureImage textureImage = createTextureImage(runJobs(executor, jobs));
+        // Only returned to the pool when all jobs are done, a failed job may leave others running
+        bufferPool.release(pixels);
         TimeProfiler.stop();
         return textureImage;
-
     }
 
     public static void main(String[] args) throws IOException, TextureGeneratorException {
@@ -18,7 +18,7 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.EnumSet;
 
 import javax.imageio.ImageIO;
 
@@ -31,6 +31,7 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
+import com.dynamo.bob.TexcLibrary.FlipAxis;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.bob.tile.TileSetGenerator;
@@ -39,7 +40,6 @@ import com.dynamo.graphics.proto.Graphics.TextureImage;
 import com.dynamo.graphics.proto.Graphics.TextureProfile;
 import com.dynamo.gamesys.proto.TextureSetProto.TextureSet;
 import com.dynamo.gamesys.proto.Tile.TileSet;
-import com.google.protobuf.TextFormat;
 
 @BuilderParams(name = "TileSet", inExts = {".tileset", ".tilesource"}, outExt = ".t.texturesetc")
 public class TileSetBuilder extends Builder<Void>  {
@@ -47,7 +47,7 @@ public class TileSetBuilder extends Builder<Void>  {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         TileSet.Builder builder = TileSet.newBuilder();
-        TextFormat.merge(new InputStreamReader(new ByteArrayInputStream(input.getContent())), builder);
+        ProtoUtil.merge(project, input, builder);
         TileSet tileSet = builder.build();
         String imgPath = tileSet.getImage();
         String collisionPath = tileSet.getCollision();
@@ -98,7 +98,7 @@ public class TileSetBuilder extends Builder<Void>  {
         Bob.verbose("Compiling %s using profile %s", task.input(0).getPath(), texProfile!=null?texProfile.getName():"<none>");
 
         TileSet.Builder builder = TileSet.newBuilder();
-        ProtoUtil.merge(task.input(0), builder);
+        ProtoUtil.merge(project, task.input(0), builder);
         TileSet tileSet = builder.build();
 
         String imgPath = tileSet.getImage();
@@ -146,7 +146,7 @@ public class TileSetBuilder extends Builder<Void>  {
         TextureImage texture;
         try {
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(result.images.get(0), texProfile, compress);
+            texture = TextureGenerator.generate(result.images.get(0), texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), project.getTaskExecutor(), project.getTextureCache());
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
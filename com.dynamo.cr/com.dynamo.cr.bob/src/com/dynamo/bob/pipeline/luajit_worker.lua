@@ -0,0 +1,52 @@
+-- Compiles Lua source to LuaJIT bytecode for LuaJITWorkerPool, one script after another.
+--
+-- Request:  "<name length> <source length>\n" followed by the name and the source
+-- Response: "0 <length>\n" followed by the bytecode, or
+--           "1 <length>\n" followed by the error message
+--
+-- The bytecode is the same as "luajit -b -g -F <name> <input> <output>.raw" produces.
+
+if jit.os == "Windows" then
+    local ffi = require("ffi")
+    ffi.cdef[[int _setmode(int fd, int mode);]]
+    ffi.C._setmode(0, 0x8000) -- _O_BINARY
+    ffi.C._setmode(1, 0x8000)
+end
+
+local stdin = io.stdin
+local stdout = io.stdout
+stdout:setvbuf("full")
+
+local function read(length)
+    if length == 0 then
+        return ""
+    end
+    local data = stdin:read(length)
+    if data == nil or #data ~= length then
+        os.exit(1)
+    end
+    return data
+end
+
+while true do
+    local header = stdin:read("*l")
+    if header == nil then
+        break
+    end
+    local name_length, source_length = header:match("^(%d+) (%d+)$")
+    if name_length == nil then
+        os.exit(1)
+    end
+    local name = read(tonumber(name_length))
+    local source = read(tonumber(source_length))
+
+    local f, err = load(source, "@" .. name)
+    if f then
+        local bytecode = string.dump(f, false) -- keep debug info
+        stdout:write("0 ", #bytecode, "\n", bytecode)
+    else
+        local message = "luajit: " .. err .. "\n"
+        stdout:write("1 ", #message, "\n", message)
+    end
+    stdout:flush()
+end
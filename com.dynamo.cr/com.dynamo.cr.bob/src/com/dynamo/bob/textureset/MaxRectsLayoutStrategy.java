@@ -16,9 +16,13 @@ package com.dynamo.bob.textureset;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import com.dynamo.bob.textureset.TextureSetLayout.Layout;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.bob.util.ExecutorUtil;
 
 /**
  * MaxRectsLayoutStrategy - derived from libgdx implementation:
@@ -39,12 +43,25 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         public boolean square;
     }
 
+    // Pages with fewer rects than this are packed on the calling thread only
+    private static final int MIN_PARALLEL_RECT_COUNT = 64;
+
     private Settings settings;
-    private MaxRects maxRects = new MaxRects();
+    private Executor executor;
     private FreeRectChoiceHeuristic[] methods = FreeRectChoiceHeuristic.values();
 
     public MaxRectsLayoutStrategy(Settings settings) {
+        this(settings, null);
+    }
+
+    /**
+     * @param settings layout settings
+     * @param executor executor to try the heuristics of each page size on in parallel,
+     *                 e.g. the task executor of the project, or null to pack on the calling thread
+     */
+    public MaxRectsLayoutStrategy(Settings settings, Executor executor) {
         this.settings = settings;
+        this.executor = executor;
     }
 
     @Override
@@ -160,24 +177,57 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
     /** @param fully If true, the only results that pack all rects will be considered. If false, all results are considered, not all
      *           rects may be packed.
      **/
-    private Page packAtSize(boolean fully, int width, int height, ArrayList<RectNode> inputRects) {
-        Page bestResult = null;
-        for (int i = 0, n = methods.length; i < n; i++) {
-            maxRects.init(width, height);
-            Page result;
-
-            ArrayList<RectNode> remaining = new ArrayList<RectNode>();
-            for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
-                RectNode rect = inputRects.get(ii);
-                if (maxRects.insert(rect, methods[i]) == null) {
-                    while (ii < nn) {
-                        remaining.add(inputRects.get(ii++));
+    private Page packAtSize(boolean fully, final int width, final int height, final ArrayList<RectNode> inputRects) {
+        Page[] results = new Page[methods.length];
+        if (executor == null || inputRects.size() < MIN_PARALLEL_RECT_COUNT) {
+            for (int i = 0, n = methods.length; i < n; i++) {
+                results[i] = packWithMethod(width, height, inputRects, methods[i]);
+            }
+        } else {
+            // Each method packs on its own MaxRects
+            List<Callable<Page>> jobs = new ArrayList<Callable<Page>>(methods.length);
+            for (final FreeRectChoiceHeuristic method : methods) {
+                jobs.add(new Callable<Page>() {
+                    @Override
+                    public Page call() {
+                        return packWithMethod(width, height, inputRects, method);
                     }
+                });
+            }
+            try {
+                results = ExecutorUtil.runJobs(executor, jobs).toArray(results);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(ExecutorUtil.getCheckedCause(e));
+            }
+        }
+        return getBest(fully, results);
+    }
+
+    private Page packWithMethod(int width, int height, ArrayList<RectNode> inputRects, FreeRectChoiceHeuristic method) {
+        MaxRects maxRects = new MaxRects();
+        maxRects.init(width, height);
+
+        ArrayList<RectNode> remaining = new ArrayList<RectNode>();
+        for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
+            RectNode rect = inputRects.get(ii);
+            if (maxRects.insert(rect, method) == null) {
+                while (ii < nn) {
+                    remaining.add(inputRects.get(ii++));
                 }
             }
-            result = maxRects.getResult();
-            result.remainingRects = remaining;
+        }
+        Page result = maxRects.getResult();
+        result.remainingRects = remaining;
+        return result;
+    }
 
+    // The best of the results of each method, in the order of the methods
+    private Page getBest(boolean fully, Page[] results) {
+        Page bestResult = null;
+        for (Page result : results) {
             if (fully && result.remainingRects.size() > 0) {
                 continue;
             }
@@ -304,7 +354,7 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
                 }
             }
 
-            pruneFreeList();
+            pruneFreeList(numRectanglesToProcess);
 
             RectNode bestNode = new RectNode(rect);
             bestNode.score1 = newNode.score1;
@@ -378,7 +428,7 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
                 }
             }
 
-            pruneFreeList();
+            pruneFreeList(numRectanglesToProcess);
 
             usedRectangles.add(node);
         }
@@ -671,21 +721,36 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             return true;
         }
 
-        private void pruneFreeList () {
-            /*
-             * /// Would be nice to do something like this, to avoid a Theta(n^2) loop through each pair. /// But unfortunately it
-             * doesn't quite cut it, since we also want to detect containment. /// Perhaps there's another way to do this faster than
-             * Theta(n^2).
-             *
-             * if (freeRectangles.size > 0) clb::sort::QuickSort(&freeRectangles[0], freeRectangles.size, NodeSortCmp);
-             *
-             * for(int i = 0; i < freeRectangles.size-1; i++) if (freeRectangles[i].x == freeRectangles[i+1].x && freeRectangles[i].y
-             * == freeRectangles[i+1].y && freeRectangles[i].width == freeRectangles[i+1].width && freeRectangles[i].height ==
-             * freeRectangles[i+1].height) { freeRectangles.erase(freeRectangles.begin() + i); --i; }
-             */
-
-            // / Go through each pair and remove any rectangle that is redundant.
-            for (int i = 0; i < freeRectangles.size(); i++)
+        /** Remove the free rectangles that are contained in another one.
+         *
+         * The rectangles before numOld are left over from the previous prune, so none of them
+         * contains another. They also can't be contained in any of the rectangles after them, which
+         * were split off from the rectangles they replace. Only the new rectangles need to be
+         * checked then, which is the same as going through each pair, but without the Theta(n^2).
+         *
+         * @param numOld the number of rectangles at the start of the list that are left from before the last split */
+        private void pruneFreeList (int numOld) {
+            // Remove the new rectangles that are contained in an old one
+            int numFree = numOld;
+            for (int i = numOld, n = freeRectangles.size(); i < n; ++i) {
+                RectNode node = freeRectangles.get(i);
+                boolean contained = false;
+                for (int j = 0; j < numOld; ++j) {
+                    if (isContainedIn(node.rect, freeRectangles.get(j).rect)) {
+                        contained = true;
+                        break;
+                    }
+                }
+                if (!contained) {
+                    freeRectangles.set(numFree++, node);
+                }
+            }
+            while (freeRectangles.size() > numFree) {
+                freeRectangles.remove(freeRectangles.size() - 1);
+            }
+
+            // / Go through each pair of the new rectangles and remove any rectangle that is redundant.
+            for (int i = numOld; i < freeRectangles.size(); i++)
                 for (int j = i + 1; j < freeRectangles.size(); ++j) {
                     if (isContainedIn(freeRectangles.get(i).rect, freeRectangles.get(j).rect)) {
                         freeRectangles.remove(i);
@@ -44,6 +44,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 /*
@@ -299,6 +300,17 @@ public class TextureSetGenerator {
     public static TextureSetResult calculateLayout(List<Rect> images, List<SpriteGeometry> imageHulls, int use_geometries,
                 AnimIterator iterator, int margin, int innerPadding, int extrudeBorders,
                boolean rotate, boolean useTileGrid, Grid gridSize, float maxPageSizeW, float maxPageSizeH) {
+        return calculateLayout(images, imageHulls, use_geometries, iterator, margin, innerPadding, extrudeBorders,
+                rotate, useTileGrid, gridSize, maxPageSizeW, maxPageSizeH, null);
+    }
+
+    /**
+     * See {@link #calculateLayout(List, List, int, AnimIterator, int, int, int, boolean, boolean, Grid, float, float)}
+     * @param executor executor to pack the images on in parallel, or null to pack on the calling thread
+     */
+    public static TextureSetResult calculateLayout(List<Rect> images, List<SpriteGeometry> imageHulls, int use_geometries,
+                AnimIterator iterator, int margin, int innerPadding, int extrudeBorders,
+               boolean rotate, boolean useTileGrid, Grid gridSize, float maxPageSizeW, float maxPageSizeH, Executor executor) {
 
         int totalSizeIncrease = 2 * (innerPadding + extrudeBorders);
 
@@ -325,7 +337,7 @@ public class TextureSetGenerator {
             layouts = new ArrayList<Layout>();
             layouts.add(layout);
         } else {
-            List<Layout> packedLayouts = TextureSetLayout.packedLayout(margin, resizedImages, rotate, maxPageSizeW, maxPageSizeH);
+            List<Layout> packedLayouts = TextureSetLayout.packedLayout(margin, resizedImages, rotate, maxPageSizeW, maxPageSizeH, executor);
             layoutRects = new ArrayList<Rect>();
 
             int page_index = 0;
@@ -404,6 +416,17 @@ public class TextureSetGenerator {
     public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<String> paths, AnimIterator iterator,
             int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize,
             float maxPageSizeW, float maxPageSizeH) {
+        return generate(images, imageHullSizes, paths, iterator, margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize,
+                maxPageSizeW, maxPageSizeH, null);
+    }
+
+    /**
+     * See {@link #generate(List, List, List, AnimIterator, int, int, int, boolean, boolean, Grid, float, float)}
+     * @param executor executor to pack the images on in parallel, or null to pack on the calling thread
+     */
+    public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<String> paths, AnimIterator iterator,
+            int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize,
+            float maxPageSizeW, float maxPageSizeH, Executor executor) {
 
         List<Rect> imageRects = rectanglesFromImages(images, paths);
 
@@ -419,7 +442,7 @@ public class TextureSetGenerator {
 
         // The layout step will expand the rect, and possibly rotate them
         TextureSetResult result = calculateLayout(imageRects, imageHulls, use_geometries, iterator,
-            margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, maxPageSizeW, maxPageSizeH);
+            margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, maxPageSizeW, maxPageSizeH, executor);
 
         for (Layout layout : result.layoutResult.layouts) {
             List<BufferedImage> layoutImages = new ArrayList<>();
@@ -19,6 +19,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 /**
  * Atlas layout algorithm(s)
@@ -112,11 +113,18 @@ public class TextureSetLayout {
     }
 
     public static List<Layout> packedLayout(int margin, List<Rect> rectangles, boolean rotate, float maxPageSizeW, float maxPageSizeH) {
+        return packedLayout(margin, rectangles, rotate, maxPageSizeW, maxPageSizeH, null);
+    }
+
+    /**
+     * @param executor executor to pack on in parallel, or null to pack on the calling thread
+     */
+    public static List<Layout> packedLayout(int margin, List<Rect> rectangles, boolean rotate, float maxPageSizeW, float maxPageSizeH, Executor executor) {
         if (rectangles.size() == 0) {
             return Arrays.asList(new Layout(1, 1, new ArrayList<TextureSetLayout.Rect>()));
         }
 
-        return createMaxRectsLayout(margin, rectangles, rotate, maxPageSizeW, maxPageSizeH);
+        return createMaxRectsLayout(margin, rectangles, rotate, maxPageSizeW, maxPageSizeH, executor);
     }
 
     private static int getExponentNextOrMatchingPowerOfTwo(int value) {
@@ -169,6 +177,13 @@ public class TextureSetLayout {
      * @return
      */
     public static List<Layout> createMaxRectsLayout(int margin, List<Rect> rectangles, boolean rotate, float maxPageSizeW, float maxPageSizeH) {
+        return createMaxRectsLayout(margin, rectangles, rotate, maxPageSizeW, maxPageSizeH, null);
+    }
+
+    /**
+     * @param executor executor to pack on in parallel, or null to pack on the calling thread
+     */
+    public static List<Layout> createMaxRectsLayout(int margin, List<Rect> rectangles, boolean rotate, float maxPageSizeW, float maxPageSizeH, Executor executor) {
         // Sort by area first, then longest side
         Collections.sort(rectangles, new Comparator<Rect>() {
             @Override
@@ -198,7 +213,7 @@ public class TextureSetLayout {
             settings.rotation      = rotate;
             settings.square        = false;
 
-            MaxRectsLayoutStrategy strategy = new MaxRectsLayoutStrategy(settings);
+            MaxRectsLayoutStrategy strategy = new MaxRectsLayoutStrategy(settings, executor);
             List<Layout> layouts = strategy.createLayout(rectangles);
 
             int maxWidth  = -1;
@@ -250,7 +265,7 @@ public class TextureSetLayout {
             settings.rotation = rotate;
             settings.square = false;
 
-            MaxRectsLayoutStrategy strategy = new MaxRectsLayoutStrategy(settings);
+            MaxRectsLayoutStrategy strategy = new MaxRectsLayoutStrategy(settings, executor);
             List<Layout> layouts = strategy.createLayout(rectangles);
 
             // Repeat layout creation using alternating increase of width and height until
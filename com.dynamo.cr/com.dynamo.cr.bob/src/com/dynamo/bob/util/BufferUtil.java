@@ -0,0 +1,61 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+public class BufferUtil {
+
+    /**
+     * Release a memory mapping right away instead of when the buffer is garbage
+     * collected. Windows doesn't allow a mapped file to be replaced or truncated.
+     * The buffer must not be used after it is unmapped.
+     * @param buffer mapped buffer, other buffers are ignored
+     */
+    public static void unmap(ByteBuffer buffer) {
+        if (!(buffer instanceof MappedByteBuffer)) {
+            return;
+        }
+        invokeCleaner(buffer);
+    }
+
+    /**
+     * Release the memory of a direct buffer right away instead of when the
+     * buffer is garbage collected. The buffer must not be used after it is freed.
+     * @param buffer direct buffer, heap buffers are ignored
+     */
+    public static void free(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        invokeCleaner(buffer);
+    }
+
+    private static void invokeCleaner(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(unsafe, buffer);
+        } catch (Exception e) {
+            // Not supported by this JVM, the memory is released by the garbage collector
+        }
+    }
+}
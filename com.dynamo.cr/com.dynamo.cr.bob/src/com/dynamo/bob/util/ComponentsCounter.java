@@ -249,7 +249,7 @@ public class ComponentsCounter {
 
     public static void countComponentsInEmbededObjects(Project project, IResource res, Storage compStorage) throws IOException, CompileExceptionError {
         PrototypeDesc.Builder prot = PrototypeDesc.newBuilder();
-        ProtoUtil.merge(res, prot);
+        ProtoUtil.merge(project, res, prot);
 
         for (EmbeddedComponentDesc cd : prot.getEmbeddedComponentsList()) {
             String type = cd.getType();
@@ -0,0 +1,118 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of direct byte buffers. Direct buffers are passed to native code
+ * without being copied, but they are expensive to allocate and are only
+ * released by the garbage collector. Released buffers are kept for reuse
+ * as long as their total size is within the memory budget of the pool.
+ */
+public class DirectBufferPool {
+
+    private final long maxPooledSize;
+    private final TreeMap<Integer, ArrayDeque<ByteBuffer>> buffers = new TreeMap<Integer, ArrayDeque<ByteBuffer>>();
+    private long pooledSize = 0;
+
+    /**
+     * Create a buffer pool
+     * @param maxPooledSize max total size in bytes of the buffers kept for reuse
+     */
+    public DirectBufferPool(long maxPooledSize) {
+        this.maxPooledSize = maxPooledSize;
+    }
+
+    /**
+     * Get a buffer from the pool, or allocate a new one if there is no
+     * suitable buffer. The buffer has position 0, big endian byte order and
+     * its limit set to the requested size. The content is undefined.
+     * @param size size of the buffer in bytes
+     * @return buffer with at least the requested capacity
+     */
+    public ByteBuffer acquire(int size) {
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            // Don't waste more than half of a pooled buffer
+            Map.Entry<Integer, ArrayDeque<ByteBuffer>> entry = buffers.ceilingEntry(size);
+            if (entry != null && entry.getKey() / 2 <= size) {
+                buffer = entry.getValue().pop();
+                if (entry.getValue().isEmpty()) {
+                    buffers.remove(entry.getKey());
+                }
+                pooledSize -= buffer.capacity();
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer acquired from the pool. The buffer is freed right away
+     * if it doesn't fit within the memory budget of the pool. The buffer must
+     * not be used after it is released.
+     * @param buffer buffer to release
+     */
+    public void release(ByteBuffer buffer) {
+        synchronized (this) {
+            if (pooledSize + buffer.capacity() <= maxPooledSize) {
+                ArrayDeque<ByteBuffer> pooled = buffers.get(buffer.capacity());
+                if (pooled == null) {
+                    pooled = new ArrayDeque<ByteBuffer>();
+                    buffers.put(buffer.capacity(), pooled);
+                }
+                pooled.push(buffer);
+                pooledSize += buffer.capacity();
+                return;
+            }
+        }
+        BufferUtil.free(buffer);
+    }
+
+    /**
+     * Get the total size of the buffers kept for reuse
+     * @return size in bytes
+     */
+    public synchronized long getPooledSize() {
+        return pooledSize;
+    }
+
+    /**
+     * Free all buffers kept for reuse
+     */
+    public void clear() {
+        ArrayDeque<ByteBuffer> released = new ArrayDeque<ByteBuffer>();
+        synchronized (this) {
+            for (ArrayDeque<ByteBuffer> pooled : buffers.values()) {
+                released.addAll(pooled);
+            }
+            buffers.clear();
+            pooledSize = 0;
+        }
+        for (ByteBuffer buffer : released) {
+            BufferUtil.free(buffer);
+        }
+    }
+}
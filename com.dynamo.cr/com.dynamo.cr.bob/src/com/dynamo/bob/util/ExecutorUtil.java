@@ -0,0 +1,90 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Helpers for running the parallel parts of a build task, on the task executor
+ * of the project or any other executor.
+ */
+public class ExecutorUtil {
+
+    /**
+     * Run jobs on an executor and get their results, in the order of the jobs.
+     * The calling thread runs the jobs that the executor hasn't started, so jobs can
+     * be run from a thread of the same executor, e.g. by a build task, even when all
+     * of its threads are busy. The jobs that haven't started when one of them fails
+     * are cancelled.
+     * @param executor executor to run the jobs on, or null to run them on the calling thread
+     * @param jobs jobs to run
+     * @return the results of the jobs
+     * @throws ExecutionException the exception thrown by the first failed job, in the order of the jobs
+     * @throws InterruptedException if the calling thread was interrupted while waiting for a job
+     */
+    public static <T> List<T> runJobs(Executor executor, List<? extends Callable<T>> jobs) throws ExecutionException, InterruptedException {
+        List<FutureTask<T>> tasks = new ArrayList<FutureTask<T>>(jobs.size());
+        for (Callable<T> job : jobs) {
+            tasks.add(new FutureTask<T>(job));
+        }
+        if (executor != null) {
+            try {
+                // the first job is run by the calling thread right away
+                for (int i = 1; i < tasks.size(); ++i) {
+                    executor.execute(tasks.get(i));
+                }
+            } catch (RejectedExecutionException e) {
+                // the executor is shutting down, the remaining jobs are run below
+            }
+        }
+
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (FutureTask<T> task : tasks) {
+                // does nothing if the job is already started
+                task.run();
+                results.add(task.get());
+            }
+        } finally {
+            for (FutureTask<T> task : tasks) {
+                task.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Get the cause of a failed job, for the caller to rethrow. Unchecked exceptions
+     * and errors are rethrown right away.
+     * @param e the exception of the failed job
+     * @return the cause, which is a checked exception
+     */
+    public static Throwable getCheckedCause(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return cause;
+    }
+}
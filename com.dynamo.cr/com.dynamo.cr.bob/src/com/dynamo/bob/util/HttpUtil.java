@@ -16,11 +16,11 @@ package com.dynamo.bob.util;
 
 import java.io.File;
 import java.io.InputStream;
-import java.io.FileInputStream;
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Base64;
@@ -99,22 +99,61 @@ public class HttpUtil {
 		}
 	}
 
+	/**
+	 * Download the content at a URL. Unlike a HEAD request followed by a GET
+	 * this only needs a single round trip. The connection is kept alive for the
+	 * next request also when the content doesn't exist.
+	 * @param url URL to download
+	 * @return the content or null if it doesn't exist
+	 */
+	public byte[] downloadIfExists(URL url) {
+		try {
+			HttpURLConnection connection = openConnection(url, "GET");
+			connection.connect();
+			int code = connection.getResponseCode();
+
+			if (code == 404 || code == 410) {
+				InputStream error = connection.getErrorStream();
+				if (error != null) {
+					IOUtils.toByteArray(error);
+					IOUtils.closeQuietly(error);
+				}
+				return null;
+			}
+			else if (code >= 400) {
+				logWarning("Status %d: Failed to download %s", code, url);
+				throw new RuntimeException(String.format("Status %d: Failed to download %s", code, url), new Exception());
+			}
+			InputStream input = connection.getInputStream();
+			try {
+				return IOUtils.toByteArray(input);
+			} finally {
+				IOUtils.closeQuietly(input);
+			}
+		}
+		catch (ConnectException e) {
+			throw new RuntimeException(String.format("Connection refused by the server at %s", url.toString()), e);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(String.format("Connection refused by the server at %s", url.toString()), e);
+		}
+	}
+
 	public void uploadFile(URL url, File file) {
 		try {
 			HttpURLConnection connection = openConnection(url, "PUT");
 			connection.setRequestProperty("Content-type", "application/octet-stream");
 			connection.setDoOutput(true);
+			// stream the file instead of buffering all of it before sending
+			connection.setFixedLengthStreamingMode(file.length());
 			connection.connect();
 
-			BufferedOutputStream bos = new BufferedOutputStream(connection.getOutputStream());
-			BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file));
-			byte[] buffer = new byte[4096];
-			int i;
-			while ((i = bis.read(buffer)) > 0) {
-				bos.write(buffer, 0, i);
+			OutputStream os = connection.getOutputStream();
+			try {
+				Files.copy(file.toPath(), os);
+			} finally {
+				IOUtils.closeQuietly(os);
 			}
-			IOUtils.closeQuietly(bis);
-			IOUtils.closeQuietly(bos);
 
 			int code = connection.getResponseCode();
 			if ((code < 200) || (code > 202)) {
@@ -59,6 +59,9 @@ public class TimeProfiler {
 
         public ProfilingScope parent;
         public ArrayList<ProfilingScope> children;
+        // True for the outermost scope opened on a worker thread. Such a scope is
+        // attached to the main thread scope that was current when it was started.
+        public boolean threadRoot;
     }
 
     /**
@@ -90,6 +93,9 @@ public class TimeProfiler {
 
     private static ProfilingScope rootScope;
     private static ProfilingScope currentScope;
+    private static Thread mainThread;
+    // Scopes opened from other threads than the one that called init(), e.g. build task workers
+    private static final ThreadLocal<ProfilingScope> workerScope = new ThreadLocal<ProfilingScope>();
     private static ReportFormat fileFormat;
     private static File reportFile;
     private static Boolean fromEditor;
@@ -98,6 +104,28 @@ public class TimeProfiler {
         return System.currentTimeMillis();
     }
 
+    private static boolean isMainThread() {
+        return Thread.currentThread() == mainThread;
+    }
+
+    private static ProfilingScope getCurrentScope() {
+        if (!isMainThread()) {
+            ProfilingScope scope = workerScope.get();
+            if (scope != null) {
+                return scope;
+            }
+        }
+        return currentScope;
+    }
+
+    private static void setCurrentScope(ProfilingScope scope) {
+        if (isMainThread()) {
+            currentScope = scope;
+        } else {
+            workerScope.set(scope);
+        }
+    }
+
     private static void generateJsonRecursively(JsonGenerator generator, ProfilingScope scope) throws IOException {
         generator.writeStartObject();
         generator.writeFieldName("start");
@@ -205,7 +233,7 @@ public class TimeProfiler {
         fileHTMMLWriter.close();
     }
 
-    public static void createReport(Boolean fromEditor) {
+    public static synchronized void createReport(Boolean fromEditor) {
         // avoid douple creation of the report by checking `fromEditor` flag
         if (rootScope == null || TimeProfiler.fromEditor != fromEditor) {
             return;
@@ -215,7 +243,8 @@ public class TimeProfiler {
         rootScope = null;
         long reportStartTime = time();
 
-        //Close all unclosed scopes
+        //Close all unclosed scopes of the main thread (the report may be created from the shutdown hook)
+        mainThread = Thread.currentThread();
         while(currentScope != _rootScope) {
             unsafeAddData("forceFinishedScope", true);
             unsafeAddData("color", "#FF0000");
@@ -238,7 +267,7 @@ public class TimeProfiler {
         System.out.printf("\nTime profiler report creation took %.2f seconds", (reportEndTime - reportStartTime)/1000.0f);
     }
 
-    public static void init(File sizeReportFile, ReportFormat fileFormat, Boolean fromEditor) throws IOException {
+    public static synchronized void init(File sizeReportFile, ReportFormat fileFormat, Boolean fromEditor) throws IOException {
         if (rootScope != null) {
             return;
         }
@@ -257,6 +286,7 @@ public class TimeProfiler {
         rootScope = new ProfilingScope();
         rootScope.startTime = startTime;
         currentScope = rootScope;
+        mainThread = Thread.currentThread();
         unsafeAddData("name", "Total time");
 
         if (!fromEditor) {
@@ -278,21 +308,23 @@ public class TimeProfiler {
         }));
     }
 
-    public static void start() {
+    public static synchronized void start() {
         if (rootScope == null) {
             return;
         }
-        if (currentScope.children == null) {
-            currentScope.children = new ArrayList<ProfilingScope>();
+        ProfilingScope parent = getCurrentScope();
+        if (parent.children == null) {
+            parent.children = new ArrayList<ProfilingScope>();
         }
         ProfilingScope scope = new ProfilingScope();
         scope.startTime = time();
-        scope.parent = currentScope;
-        currentScope.children.add(scope);
-        currentScope = scope;
+        scope.parent = parent;
+        scope.threadRoot = !isMainThread() && workerScope.get() == null;
+        parent.children.add(scope);
+        setCurrentScope(scope);
     }
 
-    public static void start(String scopeName) {
+    public static synchronized void start(String scopeName) {
         if (rootScope == null) {
             return;
         }
@@ -305,18 +337,19 @@ public class TimeProfiler {
     }
 
     private static void unsafeStop() {
-        currentScope.endTime = time();
-        currentScope = currentScope.parent;
+        ProfilingScope scope = getCurrentScope();
+        scope.endTime = time();
+        setCurrentScope(scope.threadRoot ? null : scope.parent);
     }
 
-    public static void stop() {
+    public static synchronized void stop() {
         if (rootScope == null) {
             return;
         }
         unsafeStop();
     }
 
-    public static void addMark(String shortName, String fullName) {
+    public static synchronized void addMark(String shortName, String fullName) {
         if (rootScope == null) {
             return;
         }
@@ -332,41 +365,44 @@ public class TimeProfiler {
     }
 
     private static void unsafeAddData(String fieldName, String data) {
-        if (currentScope.additionalStringData == null) {
-            currentScope.additionalStringData = new HashMap<String, String>();
+        ProfilingScope scope = getCurrentScope();
+        if (scope.additionalStringData == null) {
+            scope.additionalStringData = new HashMap<String, String>();
         }
-        currentScope.additionalStringData.put(fieldName, data);
+        scope.additionalStringData.put(fieldName, data);
     }
 
     private static void unsafeAddData(String fieldName, Float data) {
-        if (currentScope.additionalNumberData == null) {
-            currentScope.additionalNumberData = new HashMap<String, Float>();
+        ProfilingScope scope = getCurrentScope();
+        if (scope.additionalNumberData == null) {
+            scope.additionalNumberData = new HashMap<String, Float>();
         }
-        currentScope.additionalNumberData.put(fieldName, data);
+        scope.additionalNumberData.put(fieldName, data);
     }
 
     private static void unsafeAddData(String fieldName, Boolean data) {
-        if (currentScope.additionalBooleanData == null) {
-            currentScope.additionalBooleanData = new HashMap<String, Boolean>();
+        ProfilingScope scope = getCurrentScope();
+        if (scope.additionalBooleanData == null) {
+            scope.additionalBooleanData = new HashMap<String, Boolean>();
         }
-        currentScope.additionalBooleanData.put(fieldName, data);
+        scope.additionalBooleanData.put(fieldName, data);
     }
 
-    public static void addData(String fieldName, String data) {
+    public static synchronized void addData(String fieldName, String data) {
         if (rootScope == null) {
             return;
         }
         unsafeAddData(fieldName, data);
     }
 
-    public static void addData(String fieldName, Float data) {
+    public static synchronized void addData(String fieldName, Float data) {
         if (rootScope == null) {
             return;
         }
         unsafeAddData(fieldName, data);
     }
 
-    public static void addData(String fieldName, Boolean data) {
+    public static synchronized void addData(String fieldName, Boolean data) {
         if (rootScope == null) {
             return;
         }
@@ -29,8 +29,6 @@
  */
 package org.jagatoo.loaders.models.collada.stax;
 
-import java.util.StringTokenizer;
-
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
@@ -53,13 +51,9 @@ public class XMLIntArray {
     public int[] ints;
 
     public static int[] toArray(String intValues) {
-        StringTokenizer tknz = new StringTokenizer(intValues);
-        int count = tknz.countTokens();
-        int[] ints = new int[count];
-        for(int i = 0; i < count; i++) {
-            ints[i] = Integer.parseInt(tknz.nextToken());
-        }
-        return ints;
+        XMLNumberParser.Ints values = new XMLNumberParser.Ints(0);
+        values.append(intValues.toCharArray(), 0, intValues.length());
+        return values.toArray();
     }
 
     public void parse( XMLStreamReader parser, String endTag ) throws XMLStreamException
@@ -81,8 +75,8 @@ public class XMLIntArray {
             }
         }
 
-        // DYNAMO: Buffering fix
-        StringBuffer ints_buffer = new StringBuffer();
+        // DYNAMO: Buffering fix, parse the text as it's read
+        XMLNumberParser.Ints values = new XMLNumberParser.Ints(count);
 
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
@@ -95,14 +89,14 @@ public class XMLIntArray {
                 }
                 case XMLStreamConstants.CHARACTERS:
                 {
-                    ints_buffer.append(parser.getText());
+                    values.append(parser);
                     break;
                 }
                 case XMLStreamConstants.END_ELEMENT:
                 {
                     if ( parser.getLocalName().equals( endTag ) )
                     {
-                        ints = toArray( ints_buffer.toString() );
+                        ints = values.toArray();
                         return;
                     }
                     break;
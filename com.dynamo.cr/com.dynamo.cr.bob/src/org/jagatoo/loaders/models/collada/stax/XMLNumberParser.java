@@ -0,0 +1,295 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package org.jagatoo.loaders.models.collada.stax;
+
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * DYNAMO: Streaming parser for the whitespace separated numbers of elements
+ * such as float_array, int_array and p.
+ *
+ * The text is read chunk by chunk straight from the character buffer of the
+ * XMLStreamReader into a growable primitive array, so no String is created
+ * for the element text or for each number. A number may span several chunks.
+ * Tokens are split on the same delimiters as java.util.StringTokenizer and
+ * give the same values as Float.parseFloat and Integer.parseInt.
+ */
+public abstract class XMLNumberParser {
+
+    private char[] token = new char[32];
+    private int tokenLength = 0;
+
+    /**
+     * Append the text of the current CHARACTERS event
+     * @param parser the parser
+     */
+    public void append(XMLStreamReader parser) {
+        append(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength());
+    }
+
+    /**
+     * Append text
+     * @param chars text buffer
+     * @param start offset of the text in the buffer
+     * @param length length of the text
+     */
+    public void append(char[] chars, int start, int length) {
+        int end = start + length;
+        for (int i = start; i < end; ++i) {
+            char c = chars[i];
+            if (isDelimiter(c)) {
+                if (tokenLength > 0) {
+                    parseToken(token, tokenLength);
+                    tokenLength = 0;
+                }
+            } else {
+                if (tokenLength == token.length) {
+                    token = Arrays.copyOf(token, token.length * 2);
+                }
+                token[tokenLength++] = c;
+            }
+        }
+    }
+
+    /**
+     * Parse the last number, if the text didn't end with a delimiter
+     */
+    public void finish() {
+        if (tokenLength > 0) {
+            parseToken(token, tokenLength);
+            tokenLength = 0;
+        }
+    }
+
+    protected abstract void parseToken(char[] chars, int length);
+
+    private static boolean isDelimiter(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    // Don't trust the count attribute of a broken file with all the memory
+    private static final int MAX_INITIAL_CAPACITY = 1 << 24;
+
+    private static int newCapacity(int expectedCount) {
+        return Math.max(16, Math.min(expectedCount, MAX_INITIAL_CAPACITY));
+    }
+
+    public static class Floats extends XMLNumberParser {
+        private float[] values;
+        private int count = 0;
+
+        /**
+         * @param expectedCount number of values to allocate room for up front, e.g. the count attribute
+         */
+        public Floats(int expectedCount) {
+            values = new float[newCapacity(expectedCount)];
+        }
+
+        @Override
+        protected void parseToken(char[] chars, int length) {
+            float value;
+            try {
+                value = parseFloat(chars, length);
+            } catch (NumberFormatException e) {
+                // Defold-fix:
+                // Some Collada exporters (such the default one in Maya) sometimes output "-1.#IND00" as float entries.
+                // We need to catch the format exception and simply "parse" it as a zero.
+                // In the future we might want to log a build (and Editor 2) warning here, issue; DEF-2917
+                value = 0.0f;
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = value;
+        }
+
+        public float[] toArray() {
+            finish();
+            return count == values.length ? values : Arrays.copyOf(values, count);
+        }
+    }
+
+    public static class Ints extends XMLNumberParser {
+        private int[] values;
+        private int count = 0;
+
+        /**
+         * @param expectedCount number of values to allocate room for up front, e.g. the count attribute
+         */
+        public Ints(int expectedCount) {
+            values = new int[newCapacity(expectedCount)];
+        }
+
+        @Override
+        protected void parseToken(char[] chars, int length) {
+            int value = parseInt(chars, length);
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = value;
+        }
+
+        public int[] toArray() {
+            finish();
+            return count == values.length ? values : Arrays.copyOf(values, count);
+        }
+    }
+
+    // Powers of ten that are exactly representable as doubles
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final int MAX_FAST_EXPONENT = 22;
+
+    /**
+     * Parse a float, rounded the same way as Float.parseFloat.
+     *
+     * Plain decimal numbers with at most 15 significant digits and a
+     * power of ten of at most 22 are exact as doubles, so a single
+     * multiplication or division gives the correctly rounded double. Rounding
+     * that to float is only off when the double is exactly halfway between two
+     * floats, in which case, like for anything else, Float.parseFloat decides.
+     */
+    static float parseFloat(char[] chars, int length) {
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (chars[0] == '-' || chars[0] == '+')) {
+            negative = chars[0] == '-';
+            ++i;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        for (; i < length; ++i) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                break;
+            }
+            hasDigits = true;
+            if (mantissa != 0 || c != '0') {
+                if (++significantDigits > MAX_FAST_DIGITS) {
+                    return parseFloatSlow(chars, length);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+            }
+        }
+        if (i < length && chars[i] == '.') {
+            for (++i; i < length; ++i) {
+                char c = chars[i];
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                hasDigits = true;
+                --exponent;
+                if (mantissa != 0 || c != '0') {
+                    if (++significantDigits > MAX_FAST_DIGITS) {
+                        return parseFloatSlow(chars, length);
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+            }
+        }
+        if (!hasDigits) {
+            return parseFloatSlow(chars, length);
+        }
+        if (i < length && (chars[i] == 'e' || chars[i] == 'E')) {
+            ++i;
+            boolean negativeExponent = false;
+            if (i < length && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                ++i;
+            }
+            int start = i;
+            int e = 0;
+            for (; i < length; ++i) {
+                char c = chars[i];
+                if (c < '0' || c > '9' || i - start >= 4) {
+                    break;
+                }
+                e = e * 10 + (c - '0');
+            }
+            if (i == start) {
+                return parseFloatSlow(chars, length);
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != length) {
+            // Hex, NaN, Infinity, "f"/"d" suffixes, long exponents and garbage
+            return parseFloatSlow(chars, length);
+        }
+
+        if (mantissa == 0) {
+            return negative ? -0.0f : 0.0f;
+        }
+        if (exponent < -MAX_FAST_EXPONENT || exponent > MAX_FAST_EXPONENT) {
+            return parseFloatSlow(chars, length);
+        }
+        // Between 1e-22 and 1e37, well within the normal float range
+        double d = (double) mantissa;
+        d = exponent >= 0 ? d * POW10[exponent] : d / POW10[-exponent];
+        long bits = Double.doubleToRawLongBits(d);
+        if ((bits & 0x1FFFFFFFL) == 0x10000000L) {
+            // Exactly halfway between two floats
+            return parseFloatSlow(chars, length);
+        }
+        float f = (float) d;
+        return negative ? -f : f;
+    }
+
+    private static float parseFloatSlow(char[] chars, int length) {
+        return Float.parseFloat(new String(chars, 0, length));
+    }
+
+    /**
+     * Parse an int, with the same result and errors as Integer.parseInt
+     */
+    static int parseInt(char[] chars, int length) {
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (chars[0] == '-' || chars[0] == '+')) {
+            negative = chars[0] == '-';
+            ++i;
+        }
+        // Anything longer than 10 digits is either zero padded or out of range
+        if (i == length || length - i > 10) {
+            return parseIntSlow(chars, length);
+        }
+        long value = 0;
+        for (; i < length; ++i) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                return parseIntSlow(chars, length);
+            }
+            value = value * 10 + (c - '0');
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return parseIntSlow(chars, length);
+        }
+        return (int) value;
+    }
+
+    private static int parseIntSlow(char[] chars, int length) {
+        return Integer.parseInt(new String(chars, 0, length));
+    }
+}